@@ -3,7 +3,9 @@ package com.wutaodsg.androidmvvm.base;
 import android.app.Application;
 import android.content.Context;
 
+import com.wutaodsg.androidmvvm.MvvmSubscriberIndex;
 import com.wutaodsg.mvvm.util.log.LogUtils;
+import com.wutaodsg.mvvm.util.vmeventbus.ViewModelEventBus;
 
 /**
  * 项目基础的 Application。
@@ -20,6 +22,8 @@ public class App extends Application {
         sContext = getApplicationContext();
 
         LogUtils.tagPrefix = "WuT.";
+        // MvvmSubscriberIndex 由 mvvm-compiler 在编译期生成
+        ViewModelEventBus.getInstance().addSubscriberIndex(new MvvmSubscriberIndex());
 //        LogUtils.addExcludedTag(NavHeaderView.class.getSimpleName());
 //        LogUtils.setSpecific(true);
 //        LogUtils.addSpecificTag(ChildViewActivity.class.getSimpleName());
@@ -7,4 +7,9 @@ package com.wutaodsg.androidmvvm.constant;
 public interface ViewModelEventTags {
 
     String TEXT = "view_model_event_tag_text";
+
+    /**
+     * 登录完成，是 MainActivity 的本地 event tag。
+     */
+    String LOGIN_COMPLETE = "main.login.complete";
 }
@@ -6,7 +6,15 @@ package com.wutaodsg.androidmvvm.model;
 
 public class UserLoginUtil {
 
-    public static void login(String userName, String password) throws InterruptedException {
-        Thread.sleep(2000);
+    private static final long LOGIN_DELAY_MILLIS = 2000;
+
+
+    /**
+     * 模拟发起登录，登录本身不会阻塞调用者。
+     *
+     * @return 登录完成还需要的时间（毫秒）
+     */
+    public static long login(String userName, String password) {
+        return LOGIN_DELAY_MILLIS;
     }
 }
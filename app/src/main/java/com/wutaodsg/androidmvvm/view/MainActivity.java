@@ -10,6 +10,7 @@ import android.widget.Toast;
 
 import com.android.databinding.library.baseAdapters.BR;
 import com.wutaodsg.androidmvvm.R;
+import com.wutaodsg.androidmvvm.constant.ViewModelEventTags;
 import com.wutaodsg.androidmvvm.databinding.ActivityMainBinding;
 import com.wutaodsg.androidmvvm.viewmodel.MainActivityViewModel;
 import com.wutaodsg.mvvm.command.Action0;
@@ -19,6 +20,7 @@ import com.wutaodsg.mvvm.command.ReplyCommand;
 import com.wutaodsg.mvvm.command.UICommand;
 import com.wutaodsg.mvvm.core.BaseMVVMActivity;
 import com.wutaodsg.mvvm.core.annotation.BindVariable;
+import com.wutaodsg.mvvm.core.annotation.LocalEventTags;
 import com.wutaodsg.mvvm.core.annotation.MainViewModel;
 
 
@@ -27,6 +29,7 @@ import com.wutaodsg.mvvm.core.annotation.MainViewModel;
  * 自己只需调用这些操作即可。
  */
 @MainViewModel(MainActivityViewModel.class)
+@LocalEventTags(ViewModelEventTags.LOGIN_COMPLETE)
 public class MainActivity extends BaseMVVMActivity<MainActivityViewModel, ActivityMainBinding> {
 
     private AlertDialog mLoginWaitingDialog;
@@ -94,6 +97,7 @@ public class MainActivity extends BaseMVVMActivity<MainActivityViewModel, Activi
                 .setMessage("请等待，正在登陆...")
                 .setCancelable(false)
                 .create();
+        getViewModel().restoreLogin(mLoginCommand);
 
         startActivity(new Intent(this, ChildViewActivity.class));
     }
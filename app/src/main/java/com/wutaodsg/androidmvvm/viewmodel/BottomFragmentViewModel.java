@@ -6,13 +6,10 @@ import android.support.annotation.NonNull;
 
 import com.android.databinding.library.baseAdapters.BR;
 import com.wutaodsg.androidmvvm.constant.ViewModelEventTags;
-import com.wutaodsg.mvvm.command.Action1;
 import com.wutaodsg.mvvm.core.BaseViewModel;
 import com.wutaodsg.mvvm.core.annotation.BindVariable;
 import com.wutaodsg.mvvm.util.log.LogUtils;
-import com.wutaodsg.mvvm.util.vmeventbus.ViewModelCommand;
-import com.wutaodsg.mvvm.util.vmeventbus.ViewModelEventBus;
-import com.wutaodsg.mvvm.util.vmeventbus.ViewModelSchedulers;
+import com.wutaodsg.mvvm.util.vmeventbus.Subscribe;
 
 
 /**
@@ -31,25 +28,13 @@ public class BottomFragmentViewModel extends BaseViewModel {
     @Override
     public void onAttach(@NonNull Context context) {
         super.onAttach(context);
-        boolean result = ViewModelEventBus.getInstance().register(ViewModelEventTags.TEXT, String.class,
-                new ViewModelCommand<>(this, new Action1<String>() {
-                    @Override
-                    public void execute(String s) {
-                        setText(s);
-                    }
-                }, ViewModelSchedulers.mainThread()));
-        LogUtils.d(TAG, "onAttach: register: " + result);
-    }
-
-    @Override
-    protected void onCleared() {
-        super.onCleared();
-        boolean result = ViewModelEventBus.getInstance().unregister(ViewModelEventTags.TEXT, String.class,
-                this);
-        LogUtils.d(TAG, "onCleared: unregister: " + result);
+        // 注册使用 @Subscribe 注解的方法，onDetach 和 onCleared 时会自动取消注册
+        int count = getEventBus().registerSubscribers(this);
+        LogUtils.d(TAG, "onAttach: register: " + count);
     }
 
 
+    @Subscribe(tag = ViewModelEventTags.TEXT, scheduler = Subscribe.SchedulerType.MAIN_THREAD)
     public void setText(String text) {
         mText.set(text);
     }
@@ -1,14 +1,20 @@
 package com.wutaodsg.androidmvvm.viewmodel;
 
+import android.content.Context;
 import android.databinding.ObservableField;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 
 import com.android.databinding.library.baseAdapters.BR;
+import com.wutaodsg.androidmvvm.constant.ViewModelEventTags;
 import com.wutaodsg.androidmvvm.model.NetworkUtil;
 import com.wutaodsg.androidmvvm.model.UserInfoConfirmUtil;
 import com.wutaodsg.androidmvvm.model.UserLoginUtil;
 import com.wutaodsg.mvvm.command.UICommand;
 import com.wutaodsg.mvvm.core.BaseViewModel;
 import com.wutaodsg.mvvm.core.annotation.BindVariable;
+import com.wutaodsg.mvvm.util.vmeventbus.ScheduledEvent;
+import com.wutaodsg.mvvm.util.vmeventbus.Subscribe;
 
 
 /**
@@ -20,7 +26,6 @@ public class MainActivityViewModel extends BaseViewModel {
 
     private static final String ERROR_MESSAGE_NO_NETWORK = "请连接网络";
     private static final String ERROR_MESSAGE_INVALID_INPUT = "用户名或密码不正确";
-    private static final String ERROR_MESSAGE_USER_LOGIN_FAILED = "用户登录失败";
 
 
     /*
@@ -37,6 +42,38 @@ public class MainActivityViewModel extends BaseViewModel {
     private final ObservableField<String> mErrorMessage = new ObservableField<>("");
 
 
+    private UICommand mLoginUICommand;
+
+    /*
+    登录完成的时刻（SystemClock.uptimeMillis()），为 0 表示没有正在进行的登录。
+    LOGIN_COMPLETE 发送在 View 的作用域总线上，屏幕旋转时旧的总线被销毁，延时事件也随之丢弃，
+    而 ViewModel 会被保留下来，所以在 onAttach 中按照原来的时刻重新发送。
+     */
+    private long mLoginCompleteAt;
+    private ScheduledEvent mLoginComplete;
+
+
+    @Override
+    public void onAttach(@NonNull Context context) {
+        super.onAttach(context);
+        getEventBus().registerSubscribers(this);
+        if (mLoginCompleteAt != 0) {
+            mLoginComplete = getEventBus().postAt(ViewModelEventTags.LOGIN_COMPLETE, mLoginCompleteAt);
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        if (mLoginComplete != null) {
+            mLoginComplete.cancel();
+            mLoginComplete = null;
+        }
+        // UICommand 属于即将销毁的 View，不能再持有
+        mLoginUICommand = null;
+    }
+
+
     /*
     为了将 View 的事件和 ViewModel 的事件处理结合起来，
     我们需要用到回调接口的方式。
@@ -46,23 +83,25 @@ public class MainActivityViewModel extends BaseViewModel {
         return UserInfoConfirmUtil.isValidUserNameAndPassword(mUserName.get(), mPassword.get());
     }
 
+    /**
+     * View 重建后调用，如果登录仍在进行，重新显示等待状态，并在登录完成时通知新的 loginUICommand。
+     */
+    public void restoreLogin(UICommand loginUICommand) {
+        if (mLoginCompleteAt != 0) {
+            mLoginUICommand = loginUICommand;
+            loginUICommand.onStart();
+        }
+    }
+
     public void login(final UICommand loginUICommand) {
         if (NetworkUtil.hasNetwork(getContext())) {
             if (UserInfoConfirmUtil.isRegisteredUserNameAndPassword(mUserName.get(), mPassword.get())) {
                 loginUICommand.onStart();
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            UserLoginUtil.login(mUserName.get(), mPassword.get());
-                        } catch (InterruptedException e) {
-                            loginUICommand.executionStatus(false);
-                            mErrorMessage.set(ERROR_MESSAGE_USER_LOGIN_FAILED);
-                        }
-                        loginUICommand.executionStatus(true);
-                        mErrorMessage.set("");
-                    }
-                }).start();
+                mLoginUICommand = loginUICommand;
+                // 登录完成后在主线程中通知 View，不需要单独创建线程
+                long delayMillis = UserLoginUtil.login(mUserName.get(), mPassword.get());
+                mLoginCompleteAt = SystemClock.uptimeMillis() + delayMillis;
+                mLoginComplete = getEventBus().postAt(ViewModelEventTags.LOGIN_COMPLETE, mLoginCompleteAt);
             } else {
                 loginUICommand.enabled(false);
                 mErrorMessage.set(ERROR_MESSAGE_INVALID_INPUT);
@@ -72,4 +111,15 @@ public class MainActivityViewModel extends BaseViewModel {
             mErrorMessage.set(ERROR_MESSAGE_NO_NETWORK);
         }
     }
+
+    @Subscribe(tag = ViewModelEventTags.LOGIN_COMPLETE, scheduler = Subscribe.SchedulerType.MAIN_THREAD)
+    public void onLoginComplete() {
+        mLoginCompleteAt = 0;
+        mLoginComplete = null;
+        mErrorMessage.set("");
+        if (mLoginUICommand != null) {
+            mLoginUICommand.executionStatus(true);
+            mLoginUICommand = null;
+        }
+    }
 }
@@ -0,0 +1,385 @@
+package com.wutaodsg.mvvm.compiler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+
+/**
+ * 处理 <code>com.wutaodsg.mvvm.util.vmeventbus.Subscribe</code> 注解，生成一个
+ * <code>SubscriberIndex</code> 的实现。
+ * <p>
+ * 生成类的完整类名通过 <code>mvvmSubscriberIndex</code> 参数指定。生成的索引以 ViewModel 的类型
+ * 查找编号，然后在 switch 中直接创建命令并注册；所有事件处理方法共用一个 Dispatcher 类，
+ * 同样通过 switch 按编号调用对应的方法，所以不会为每个方法生成匿名类，也不需要反射。
+ * <p>
+ * 其他注解处理器可能在之后的轮次中生成含有 @Subscribe 方法的 ViewModel，所以每一轮只记录 ViewModel 的类名，
+ * 在最后一轮才生成索引。索引本身不含注解，不需要再被处理。
+ * <p>
+ * 这个模块是纯 Java 模块，不依赖 mvvm 模块，所以这里只通过完整类名引用 mvvm 中的类型。
+ */
+
+public class SubscriberIndexProcessor extends AbstractProcessor {
+
+    static final String OPTION_SUBSCRIBER_INDEX = "mvvmSubscriberIndex";
+
+    private static final String SUBSCRIBE = "com.wutaodsg.mvvm.util.vmeventbus.Subscribe";
+    private static final String BASE_VIEW_MODEL = "com.wutaodsg.mvvm.core.BaseViewModel";
+
+    private static final String PACKAGE_VM_EVENT_BUS = "com.wutaodsg.mvvm.util.vmeventbus.";
+    private static final String PACKAGE_COMMAND = "com.wutaodsg.mvvm.command.";
+
+
+    private Elements mElements;
+    private Types mTypes;
+    private Filer mFiler;
+    private Messager mMessager;
+
+    /**
+     * 声明了事件处理方法的 ViewModel 的完整类名，保持发现的顺序。只保存类名，
+     * 在最后一轮重新查找元素，不使用之前轮次的元素。
+     */
+    private final Set<String> mViewModelClassNames = new LinkedHashSet<>();
+    private boolean mErrorRaised;
+
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mElements = processingEnv.getElementUtils();
+        mTypes = processingEnv.getTypeUtils();
+        mFiler = processingEnv.getFiler();
+        mMessager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(SUBSCRIBE);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_SUBSCRIBER_INDEX);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!mViewModelClassNames.isEmpty() && !mErrorRaised) {
+                String indexClassName = processingEnv.getOptions().get(OPTION_SUBSCRIBER_INDEX);
+                if (indexClassName == null) {
+                    mMessager.printMessage(Diagnostic.Kind.ERROR, "No option " + OPTION_SUBSCRIBER_INDEX +
+                            " passed to annotation processor");
+                } else {
+                    writeIndex(indexClassName);
+                }
+            }
+            return false;
+        }
+
+        TypeElement subscribe = mElements.getTypeElement(SUBSCRIBE);
+        if (subscribe == null || annotations.isEmpty()) {
+            return false;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(subscribe)) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) element;
+            if (checkMethod(method)) {
+                mViewModelClassNames.add(rawName((TypeElement) method.getEnclosingElement()));
+            }
+        }
+
+        return true;
+    }
+
+
+    private boolean checkMethod(ExecutableElement method) {
+        Element enclosing = method.getEnclosingElement();
+        TypeElement baseViewModel = mElements.getTypeElement(BASE_VIEW_MODEL);
+        if (enclosing.getKind() != ElementKind.CLASS || baseViewModel == null ||
+                !mTypes.isSubtype(enclosing.asType(), mTypes.erasure(baseViewModel.asType()))) {
+            error(method, "@Subscribe method must be declared in a subclass of BaseViewModel");
+            return false;
+        }
+        if (!enclosing.getModifiers().contains(Modifier.PUBLIC)) {
+            error(method, "The class declaring @Subscribe method must be public");
+            return false;
+        }
+        if (method.getModifiers().contains(Modifier.STATIC) ||
+                !method.getModifiers().contains(Modifier.PUBLIC)) {
+            error(method, "@Subscribe method must be public and not static");
+            return false;
+        }
+        if (method.getParameters().size() > 1) {
+            error(method, "@Subscribe method must have at most one parameter");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void writeIndex(String indexClassName) {
+        int dot = indexClassName.lastIndexOf('.');
+        String packageName = dot > 0 ? indexClassName.substring(0, dot) : null;
+        String simpleName = indexClassName.substring(dot + 1);
+
+        Map<TypeElement, List<ExecutableElement>> subscribers = findSubscribers();
+        List<TypeElement> viewModelClasses = new ArrayList<>(subscribers.keySet());
+        List<ExecutableElement> dataMethods = new ArrayList<>();
+        List<ExecutableElement> noDataMethods = new ArrayList<>();
+
+        try {
+            JavaFileObject file = mFiler.createSourceFile(indexClassName,
+                    viewModelClasses.toArray(new Element[viewModelClasses.size()]));
+            try (PrintWriter writer = new PrintWriter(file.openWriter())) {
+                if (packageName != null) {
+                    writer.println("package " + packageName + ";");
+                    writer.println();
+                }
+                writer.println("import " + BASE_VIEW_MODEL + ";");
+                writer.println("import " + PACKAGE_COMMAND + "Action0;");
+                writer.println("import " + PACKAGE_COMMAND + "Action1;");
+                writer.println("import " + PACKAGE_VM_EVENT_BUS + "SubscriberIndex;");
+                writer.println("import " + PACKAGE_VM_EVENT_BUS + "SubscriptionScope;");
+                writer.println("import " + PACKAGE_VM_EVENT_BUS + "ViewModelCommand;");
+                writer.println("import " + PACKAGE_VM_EVENT_BUS + "ViewModelSchedulers;");
+                writer.println();
+                writer.println("import java.util.HashMap;");
+                writer.println();
+                writer.println();
+                writer.println("/**");
+                writer.println(" * Generated by mvvm-compiler. Do not edit.");
+                writer.println(" */");
+                writer.println();
+                writer.println("public final class " + simpleName + " implements SubscriberIndex {");
+                writer.println();
+                writer.println("    private static final HashMap<Class<?>, Integer> VIEW_MODEL_CLASSES = new HashMap<>();");
+                writer.println();
+                writer.println("    static {");
+                for (int i = 0; i < viewModelClasses.size(); i++) {
+                    writer.println("        VIEW_MODEL_CLASSES.put(" + rawName(viewModelClasses.get(i)) + ".class, " +
+                            i + ");");
+                }
+                writer.println("    }");
+                writer.println();
+                writer.println();
+                writer.println("    @Override");
+                writer.println("    @SuppressWarnings(\"unchecked\")");
+                writer.println("    public int register(Class<?> viewModelClass, BaseViewModel viewModel, " +
+                        "SubscriptionScope scope) {");
+                writer.println("        Integer index = VIEW_MODEL_CLASSES.get(viewModelClass);");
+                writer.println("        if (index == null) {");
+                writer.println("            return -1;");
+                writer.println("        }");
+                writer.println();
+                writer.println("        int count = 0;");
+                writer.println("        switch (index) {");
+                for (int i = 0; i < viewModelClasses.size(); i++) {
+                    writer.println("            case " + i + ":");
+                    for (ExecutableElement method : subscribers.get(viewModelClasses.get(i))) {
+                        String tag = mElements.getConstantExpression(getValue(method, "tag").getValue());
+                        String scheduler = schedulerExpression(getValue(method, "scheduler"));
+                        int priority = (Integer) getValue(method, "priority").getValue();
+                        String setters = priority != 0 ? ".setPriority(" + priority + ")" : "";
+                        if ((Boolean) getValue(method, "ordered").getValue()) {
+                            setters += ".setOrdered(true)";
+                        }
+                        if (method.getParameters().isEmpty()) {
+                            int id = noDataMethods.size();
+                            noDataMethods.add(method);
+                            writer.println("                if (scope.subscribe(" + tag + ", new ViewModelCommand(" +
+                                    "viewModel, (Action0) new Dispatcher(" + id + ", viewModel), " + scheduler +
+                                    ")" + setters + ") != null) {");
+                        } else {
+                            int id = dataMethods.size();
+                            dataMethods.add(method);
+                            writer.println("                if (scope.subscribe(" + tag + ", (Class) " +
+                                    dataClassName(method) + ".class, new ViewModelCommand<Object>(" +
+                                    "viewModel, (Action1<Object>) new Dispatcher(" + id + ", viewModel), " +
+                                    scheduler + ")" + setters + ") != null) {");
+                        }
+                        writer.println("                    count++;");
+                        writer.println("                }");
+                    }
+                    writer.println("                break;");
+                }
+                writer.println("        }");
+                writer.println();
+                writer.println("        return count;");
+                writer.println("    }");
+                writer.println();
+                writer.println();
+                writer.println("    @SuppressWarnings(\"unchecked\")");
+                writer.println("    private static final class Dispatcher implements Action0, Action1<Object> {");
+                writer.println();
+                writer.println("        private final int mId;");
+                writer.println("        private final BaseViewModel mViewModel;");
+                writer.println();
+                writer.println();
+                writer.println("        Dispatcher(int id, BaseViewModel viewModel) {");
+                writer.println("            mId = id;");
+                writer.println("            mViewModel = viewModel;");
+                writer.println("        }");
+                writer.println();
+                writer.println();
+                writer.println("        @Override");
+                writer.println("        public void execute() {");
+                writer.println("            switch (mId) {");
+                for (int i = 0; i < noDataMethods.size(); i++) {
+                    ExecutableElement method = noDataMethods.get(i);
+                    writer.println("                case " + i + ":");
+                    writer.println("                    ((" + rawName((TypeElement) method.getEnclosingElement()) +
+                            ") mViewModel)." + method.getSimpleName() + "();");
+                    writer.println("                    break;");
+                }
+                writer.println("            }");
+                writer.println("        }");
+                writer.println();
+                writer.println("        @Override");
+                writer.println("        public void execute(Object data) {");
+                writer.println("            switch (mId) {");
+                for (int i = 0; i < dataMethods.size(); i++) {
+                    ExecutableElement method = dataMethods.get(i);
+                    writer.println("                case " + i + ":");
+                    writer.println("                    ((" + rawName((TypeElement) method.getEnclosingElement()) +
+                            ") mViewModel)." + method.getSimpleName() + "((" + dataClassName(method) +
+                            ") data);");
+                    writer.println("                    break;");
+                }
+                writer.println("            }");
+                writer.println("        }");
+                writer.println("    }");
+                writer.println("}");
+            }
+        } catch (IOException e) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR, "Could not write " + indexClassName + ": " + e);
+        }
+    }
+
+    /**
+     * 根据记录的类名重新查找 ViewModel 类型和它声明的事件处理方法，保持声明的顺序。
+     */
+    private Map<TypeElement, List<ExecutableElement>> findSubscribers() {
+        Map<TypeElement, List<ExecutableElement>> subscribers = new LinkedHashMap<>();
+        for (String viewModelClassName : mViewModelClassNames) {
+            TypeElement viewModelClass = mElements.getTypeElement(viewModelClassName);
+            if (viewModelClass == null) {
+                continue;
+            }
+            List<ExecutableElement> methods = new ArrayList<>();
+            for (ExecutableElement method : ElementFilter.methodsIn(viewModelClass.getEnclosedElements())) {
+                if (isSubscriber(method)) {
+                    methods.add(method);
+                }
+            }
+            if (!methods.isEmpty()) {
+                subscribers.put(viewModelClass, methods);
+            }
+        }
+
+        return subscribers;
+    }
+
+    private boolean isSubscriber(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(SUBSCRIBE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 返回注解中 name 对应的值，包括默认值。
+     */
+    private AnnotationValue getValue(ExecutableElement method, String name) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(SUBSCRIBE)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                    mElements.getElementValuesWithDefaults(mirror).entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(name)) {
+                    return entry.getValue();
+                }
+            }
+        }
+
+        throw new IllegalStateException("No value " + name + " in @Subscribe of " + method);
+    }
+
+    private String schedulerExpression(AnnotationValue value) {
+        String schedulerType = ((VariableElement) value.getValue()).getSimpleName().toString();
+        switch (schedulerType) {
+            case "MAIN_THREAD":
+                return "ViewModelSchedulers.mainThread()";
+            case "COMPUTATION":
+                return "ViewModelSchedulers.computation()";
+            case "IO":
+                return "ViewModelSchedulers.io()";
+            case "SINGLE":
+                return "ViewModelSchedulers.single()";
+            case "IDLE":
+                return "ViewModelSchedulers.idle()";
+            default:
+                return "null";
+        }
+    }
+
+    /**
+     * 返回注册使用的数据类型，基本类型会被装箱，泛型会被擦除。
+     */
+    private String dataClassName(ExecutableElement method) {
+        TypeMirror type = method.getParameters().get(0).asType();
+        if (type.getKind().isPrimitive()) {
+            return mTypes.boxedClass(mTypes.getPrimitiveType(type.getKind())).getQualifiedName().toString();
+        }
+
+        return mTypes.erasure(type).toString();
+    }
+
+    private String rawName(TypeElement type) {
+        return type.getQualifiedName().toString();
+    }
+
+    private void error(Element element, String message) {
+        mErrorRaised = true;
+        mMessager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,9 @@
+package com.wutaodsg.mvvm.command;
+
+/**
+ * 有两个参数的函数。
+ */
+public interface Function2<T1, T2, R> {
+
+    R call(T1 t1, T2 t2);
+}
@@ -4,6 +4,10 @@ import android.arch.lifecycle.ViewModel;
 import android.content.Context;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.util.vmeventbus.SubscriptionScope;
+import com.wutaodsg.mvvm.util.vmeventbus.ViewModelEventBus;
 
 /**
  * MVVM 模式中 VM 层的基类，它继承了 Android 框架中的 ViewModel。
@@ -20,12 +24,24 @@ import android.support.annotation.NonNull;
  * BaseViewModel 的 {@link #onCleared()} 方法只有在与之关联的 Activity 或 Fragment
  * 完全销毁后才会被调用。
  * </p>
+ * <p>
+ * 通过 {@link #getSubscriptionScope()} 在 {@link ViewModelEventBus} 中进行的注册（包括应答者），
+ * 会在 {@link #onDetach()} 和 {@link #onCleared()} 中被一次性取消。推荐在
+ * {@link #onAttach(Context)} 中通过它进行注册。直接在总线中注册的应答者也会在 {@link #onCleared()} 中被取消。
+ * </p>
+ * <p>
+ * 由 View 创建的 ViewModel 使用这个 View 的作用域总线，通过 {@link #getEventBus()} 获取，
+ * 参见 {@link com.wutaodsg.mvvm.core.annotation.LocalEventTags}。
+ * </p>
  */
 
 public class BaseViewModel extends ViewModel {
 
     private Context mContext;
 
+    private SubscriptionScope mSubscriptionScope;
+    private ViewModelEventBus mEventBus;
+
 
     /**
      * 绑定一个 Context 对象，这个 Context 由 V 层对象提供。<br/>
@@ -45,6 +61,49 @@ public class BaseViewModel extends ViewModel {
     @CallSuper
     public void onDetach() {
         mContext = null;
+        releaseSubscriptions();
+    }
+
+    /**
+     * ViewModel 被销毁时调用，会取消订阅作用域中的所有注册，以及这个 ViewModel 直接在总线中注册的所有应答者。
+     */
+    @CallSuper
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        releaseSubscriptions();
+        // 应答者持有这个 ViewModel，ViewModel 销毁后不能再留在总线中
+        getEventBus().unregisterResponders(this);
+    }
+
+    /**
+     * 返回这个 ViewModel 的订阅作用域。通过它在 {@link ViewModelEventBus} 中进行的注册，
+     * 会在 {@link #onDetach()} 和 {@link #onCleared()} 中被一次性取消。
+     *
+     * @return 订阅作用域
+     */
+    @NonNull
+    public final SubscriptionScope getSubscriptionScope() {
+        synchronized (this) {
+            if (mSubscriptionScope == null) {
+                mSubscriptionScope = new SubscriptionScope(getEventBus());
+            }
+
+            return mSubscriptionScope;
+        }
+    }
+
+    /**
+     * 返回这个 ViewModel 使用的 {@link ViewModelEventBus}：由 View 创建的 ViewModel 返回这个 View 的
+     * 作用域总线，其他情况返回全局总线。
+     *
+     * @return ViewModelEventBus 对象
+     */
+    @NonNull
+    public final ViewModelEventBus getEventBus() {
+        synchronized (this) {
+            return mEventBus != null ? mEventBus : ViewModelEventBus.getInstance();
+        }
     }
 
     /**
@@ -55,4 +114,34 @@ public class BaseViewModel extends ViewModel {
     public final Context getContext() {
         return mContext;
     }
+
+
+    /**
+     * 设置这个 ViewModel 使用的作用域总线，由 {@link ViewProxy} 在 {@link #onAttach(Context)} 之前调用。
+     * 如果订阅作用域属于之前的总线（比如 ViewModel 在配置变化后被新的 View 复用），会先取消其中的注册。
+     */
+    void setEventBus(@Nullable ViewModelEventBus eventBus) {
+        SubscriptionScope oldScope = null;
+        synchronized (this) {
+            mEventBus = eventBus;
+            if (mSubscriptionScope != null && mSubscriptionScope.getEventBus() != getEventBus()) {
+                oldScope = mSubscriptionScope;
+                mSubscriptionScope = null;
+            }
+        }
+        if (oldScope != null) {
+            oldScope.releaseAll();
+        }
+    }
+
+
+    private void releaseSubscriptions() {
+        SubscriptionScope subscriptionScope;
+        synchronized (this) {
+            subscriptionScope = mSubscriptionScope;
+        }
+        if (subscriptionScope != null) {
+            subscriptionScope.releaseAll();
+        }
+    }
 }
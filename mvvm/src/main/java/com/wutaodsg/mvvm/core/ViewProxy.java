@@ -16,11 +16,13 @@ import com.wutaodsg.mvvm.core.annotation.BindChildViews;
 import com.wutaodsg.mvvm.core.annotation.BindVariable;
 import com.wutaodsg.mvvm.core.annotation.ExtraViewModel;
 import com.wutaodsg.mvvm.core.annotation.ExtraViewModels;
+import com.wutaodsg.mvvm.core.annotation.LocalEventTags;
 import com.wutaodsg.mvvm.core.annotation.MainViewModel;
 import com.wutaodsg.mvvm.core.iview.BaseView;
 import com.wutaodsg.mvvm.core.iview.ContainerView;
 import com.wutaodsg.mvvm.core.iview.CoreView;
 import com.wutaodsg.mvvm.core.iview.ExtraViewModelView;
+import com.wutaodsg.mvvm.util.vmeventbus.ViewModelEventBus;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
@@ -45,6 +47,10 @@ import java.util.Map;
  * 如果在 View 上使用 {@link BindChildView} 或 {@link BindChildViews} 注解
  * 声明了子 View，ViewProxy 将会绑定这些子 View 并照管它们。
  * </p>
+ * <p>
+ * ViewProxy 还会为 View 创建一个作用域 {@link ViewModelEventBus}，View 中的所有 ViewModel
+ * 都使用它，它会在 {@link #onDestroy()} 中被销毁，参见 {@link LocalEventTags}。
+ * </p>
  */
 
 public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
@@ -66,6 +72,8 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
     private ContainerViewImpl mContainerView;
     private ExtraViewModelViewImpl mExtraViewModelView;
 
+    private ViewModelEventBus mEventBus;
+
 
     /**
      * 将 CoreView 和它的 ViewModel、DataBinding 对象绑定在一起 ，并初始化
@@ -89,6 +97,7 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
         assertCoreView(coreView);
 
         mContainerView = new ContainerViewImpl(mCoreView);
+        mEventBus = createEventBus(activity, fragment);
 
         if (activity != null) {
             mDataBinding = DataBindingUtil.setContentView(activity, mCoreView.getLayoutResId());
@@ -97,6 +106,7 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
         }
         mViewModel = (VM) createMainViewModel(mCoreView);
 
+        mViewModel.setEventBus(mEventBus);
         mViewModel.onAttach(mCoreView.getContext());
         bindAllDataBindingVariables(mCoreView, mViewModel, mDataBinding);
         bindUIAwareComponent(mCoreView);
@@ -170,6 +180,10 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
             mExtraViewModelView.clear();
             mExtraViewModelView = null;
         }
+
+        // 所有 ViewModel 都已经解绑，一次性丢弃作用域总线中剩余的本地注册。
+        // 保留对总线的引用，晚到的调用者在已经销毁的总线上发送事件不会有任何效果
+        mEventBus.destroy();
     }
 
     @Override
@@ -192,6 +206,17 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
         return mDataBinding;
     }
 
+    /**
+     * 返回这个 View 的作用域总线。View 销毁之后仍然返回同一个总线，
+     * 但它已经被销毁，参见 {@link ViewModelEventBus#isDestroyed()}。
+     *
+     * @return ViewModelEventBus 对象
+     */
+    @NonNull
+    public final ViewModelEventBus getEventBus() {
+        return mEventBus;
+    }
+
 
     @Override
     public final <CVM extends BaseViewModel, CDB extends ViewDataBinding, CV extends ChildView<CVM, CDB>>
@@ -423,6 +448,7 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
                 childView.setContainer(container);
 
                 // 为 ChildView 实施绑定：ViewModel、Variables 和 UIAwareComponent
+                childViewModel.setEventBus(mEventBus);
                 childViewModel.onAttach(mAncestorView.getContext());
                 bindAllDataBindingVariables(childView, childViewModel, childViewDataBinding);
                 bindUIAwareComponent(childView);
@@ -684,6 +710,7 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
 
                 EVM extraViewModel = (EVM) mExtraView.newViewModel(viewModelClass);
                 bindDataBindingVariables(extraViewModel, mExtraView.getDataBinding());
+                extraViewModel.setEventBus(mEventBus);
                 extraViewModel.onAttach(mExtraView.getContext());
                 mViewModelMap.put(viewModelClass, extraViewModel);
 
@@ -894,6 +921,30 @@ public class ViewProxy<VM extends BaseViewModel, DB extends ViewDataBinding>
         return viewModel;
     }
 
+    /**
+     * 创建 View 的作用域总线。Fragment 所在的 Activity 是 {@link BaseMVVMActivity} 时，
+     * 父总线是这个 Activity 的作用域总线，否则是全局总线。
+     */
+    @NonNull
+    private ViewModelEventBus createEventBus(@Nullable BaseMVVMActivity activity,
+                                             @Nullable BaseMVVMFragment fragment) {
+        ViewModelEventBus parent = null;
+        if (fragment != null && fragment.getActivity() instanceof BaseMVVMActivity) {
+            ViewProxy activityViewProxy = ((BaseMVVMActivity) fragment.getActivity()).mViewProxy;
+            if (activityViewProxy != null) {
+                parent = activityViewProxy.mEventBus;
+            }
+        }
+        if (parent == null) {
+            parent = ViewModelEventBus.getInstance();
+        }
+
+        Object coreView = activity != null ? activity : fragment;
+        LocalEventTags localEventTags = coreView.getClass().getAnnotation(LocalEventTags.class);
+
+        return parent.newScope(localEventTags != null ? localEventTags.value() : new String[0]);
+    }
+
     /**
      * 销毁 ChildView 的视图，解除 UIAwareComponent 的绑定
      */
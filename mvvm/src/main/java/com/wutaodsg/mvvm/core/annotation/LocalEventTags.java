@@ -0,0 +1,31 @@
+package com.wutaodsg.mvvm.core.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 声明一个 View（Activity 或 Fragment）的本地 event tag。
+ * <p>
+ * 每个 Activity 和 Fragment 都拥有一个作用域总线，它的 ViewModel、ChildView 的 ViewModel
+ * 以及额外的 ViewModel 通过 {@link com.wutaodsg.mvvm.core.BaseViewModel#getEventBus()} 获取它。
+ * 这里声明的 event tag 只在这个界面内部传递，界面销毁时一次性丢弃；其他 event tag
+ * 委托给父总线（Fragment 的父总线是它所在 Activity 的作用域总线，Activity 的父总线是全局总线）。
+ * 详细情况参见 {@link com.wutaodsg.mvvm.util.vmeventbus.ViewModelEventBus#newScope(String...)}。
+ * <p>
+ * 例子：<br/>
+ * {@code @LocalEventTags({"login.*", "login.form.**"})
+ *        public class LoginActivity extends BaseMVVMActivity<LoginViewModel, ActivityLoginBinding>}
+ */
+@Inherited
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LocalEventTags {
+
+    /**
+     * 本地 event tag，可以使用通配符。
+     */
+    String[] value();
+}
@@ -26,8 +26,18 @@ public class AndroidViewModelScheduler implements ViewModelScheduler {
     }
 
 
+    /**
+     * 当前线程是否就是这个 ViewModelScheduler 的线程。
+     *
+     * @return 是返回 true，否则返回 false
+     */
+    public boolean isCurrentThread() {
+        return Looper.myLooper() == mHandler.getLooper();
+    }
+
     @Override
     public void schedule(@NonNull Runnable task) {
+        // Message 来自它自己的回收池，Looper 处理完后会回收它，所以这里不会分配新的对象
         Message.obtain(mHandler, task)
                 .sendToTarget();
     }
@@ -0,0 +1,267 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.wutaodsg.mvvm.command.Action1;
+import com.wutaodsg.mvvm.command.Function1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * {@link ViewModelSchedulers#computation()} 的实现类，专门为计算提供线程环境，
+ * 通过 {@link ViewModelSchedulers#computationPool()} 获取。
+ * <p>
+ * Android 5.0（API 21）及以上使用 async 模式的 {@link ForkJoinPool}：每个工作线程有自己的双端队列，
+ * 空闲的线程从其他线程的队列中窃取任务，所有线程不再竞争同一个队列锁；async 模式下本地队列按照先进先出的顺序运行，
+ * 适合事件这种不会 join 的任务。更低的版本没有 ForkJoinPool，使用核心线程数等于 CPU 数量的线程池，
+ * 空闲的线程会被回收。
+ * <p>
+ * 除了调度任务，还可以通过 {@link #map(List, Function1)} 和 {@link #forEach(List, Action1)} 把一个大的转换
+ * 拆分到多个 CPU 上并行运行。它们会阻塞调用者直到所有数据处理完成，所以不要在主线程中调用，
+ * 可以在 computation() 的命令中调用：ForkJoinPool 的工作线程在等待时会去运行其他子任务，不会浪费线程。
+ */
+
+public class ComputationViewModelScheduler implements ViewModelScheduler {
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * 每个线程大约拆分出的子任务数量，子任务略多于线程数可以让窃取平衡不同数据的耗时差异。
+     */
+    private static final int SPLITS_PER_THREAD = 4;
+
+
+    private final int mParallelism;
+    private final ExecutorService mExecutor;
+    private final boolean mForkJoin;
+
+
+    ComputationViewModelScheduler(int parallelism, @NonNull String name) {
+        mParallelism = parallelism;
+        mForkJoin = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        if (mForkJoin) {
+            mExecutor = ForkJoinSupport.newPool(parallelism, name);
+        } else {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ViewModelSchedulers.NameThreadFactory(name));
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+    }
+
+
+    @Override
+    public void schedule(@NonNull Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * 返回并行运行的线程数量。
+     */
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * 并行地把 function 应用到 items 的每一项上，阻塞直到全部完成。
+     * <p>
+     * 返回的列表与 items 一一对应。function 抛出异常时，这个异常会在调用者的线程中重新抛出。
+     *
+     * @param items    数据
+     * @param function 转换函数，会在多个线程中同时调用
+     * @return 转换后的数据
+     */
+    @NonNull
+    public <T, R> List<R> map(@NonNull List<T> items, @NonNull final Function1<? super T, ? extends R> function) {
+        final List<T> input = new ArrayList<>(items);
+        final Object[] output = new Object[input.size()];
+        run(input.size(), new Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    output[i] = function.call(input.get(i));
+                }
+            }
+        });
+
+        @SuppressWarnings("unchecked")
+        List<R> result = (List<R>) Arrays.asList(output);
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 并行地把 action 应用到 items 的每一项上，阻塞直到全部完成。
+     * action 抛出异常时，这个异常会在调用者的线程中重新抛出。
+     *
+     * @param items  数据
+     * @param action 操作，会在多个线程中同时调用
+     */
+    public <T> void forEach(@NonNull List<T> items, @NonNull final Action1<? super T> action) {
+        final List<T> input = new ArrayList<>(items);
+        run(input.size(), new Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    action.execute(input.get(i));
+                }
+            }
+        });
+    }
+
+
+    private void run(int size, @NonNull Range range) {
+        if (size == 0) {
+            return;
+        }
+        int threshold = Math.max(1, size / (mParallelism * SPLITS_PER_THREAD));
+        if (size <= threshold || mParallelism == 1) {
+            range.run(0, size);
+        } else if (mForkJoin) {
+            ForkJoinSupport.invoke(mExecutor, range, size, threshold);
+        } else {
+            runChunks(size, range);
+        }
+    }
+
+    /**
+     * 没有 ForkJoinPool 时，把数据平均分为最多 mParallelism 块，池线程和调用者一起领取并运行。
+     * 调用者自己也会领取，所以即使池线程都在忙（比如调用者本身就是池线程），所有的块也一定能运行完。
+     */
+    private void runChunks(final int size, @NonNull final Range range) {
+        final int chunkCount = Math.min(mParallelism, size);
+        final AtomicInteger nextChunk = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(chunkCount);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                    try {
+                        range.run((int) ((long) size * chunk / chunkCount),
+                                (int) ((long) size * (chunk + 1) / chunkCount));
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }
+        };
+        for (int i = 1; i < chunkCount; i++) {
+            mExecutor.execute(worker);
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = error.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+
+    /**
+     * 处理 [from, to) 范围内的数据。
+     */
+    private interface Range {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * 隔离 ForkJoinPool 相关的类，只有 API 21 及以上才会加载。
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class ForkJoinSupport {
+
+        @NonNull
+        static ForkJoinPool newPool(int parallelism, @NonNull final String name) {
+            final AtomicInteger count = new AtomicInteger(0);
+            ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName(name + "#" + count.getAndIncrement());
+                    return thread;
+                }
+            };
+
+            return new ForkJoinPool(parallelism, factory, null, true);
+        }
+
+        static void invoke(@NonNull ExecutorService executor, @NonNull Range range, int size, int threshold) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            RangeTask task = new RangeTask(range, 0, size, threshold);
+            if (ForkJoinTask.getPool() == pool) {
+                // 已经在这个池的工作线程中，直接运行，子任务进入本地队列
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class RangeTask extends RecursiveAction {
+
+        private final Range mRange;
+        private final int mFrom;
+        private final int mTo;
+        private final int mThreshold;
+
+
+        RangeTask(@NonNull Range range, int from, int to, int threshold) {
+            mRange = range;
+            mFrom = from;
+            mTo = to;
+            mThreshold = threshold;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mThreshold) {
+                mRange.run(mFrom, mTo);
+                return;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new RangeTask(mRange, mFrom, middle, mThreshold),
+                    new RangeTask(mRange, middle, mTo, mThreshold));
+        }
+    }
+}
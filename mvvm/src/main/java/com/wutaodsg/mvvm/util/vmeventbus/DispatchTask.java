@@ -0,0 +1,148 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+
+/**
+ * 把一次事件投递调度到 {@link ViewModelScheduler} 中的任务。
+ * <p>
+ * 与 {@link android.os.Message} 一样，DispatchTask 来自一个全局的回收池：通过
+ * {@link #obtain(ViewModelCommand, Object, boolean)} 获取，运行时先把命令和数据取出，
+ * 然后立即放回池中，再执行命令。所以在稳定的发送速度下，每次调度都不会分配新的对象。
+ * <p>
+ * 一个 DispatchTask 只能被调度一次，调度之后不能再持有它的引用。
+ */
+
+final class DispatchTask implements Runnable {
+
+    private static final int MAX_POOL_SIZE = 50;
+
+    private static final Object sPoolSync = new Object();
+    private static DispatchTask sPool;
+    private static int sPoolSize;
+
+
+    private ViewModelCommand mCommand;
+    private Object mData;
+    private boolean mEach;
+    private PostCompletion mCompletion;
+    /**
+     * 开启运行指标时记录调度的时间，用来计算排队耗时，否则为 0。
+     */
+    private long mEnqueueNanos;
+
+    private DispatchTask mNext;
+
+
+    private DispatchTask() {
+    }
+
+
+    /**
+     * 从回收池中获取一个 DispatchTask，回收池为空时才会创建新的对象。
+     *
+     * @param command 要执行的命令
+     * @param data    数据，参见 {@link ViewModelCommand#deliver(Object)}
+     * @param each    为 true 时 data 是一个列表，命令会依次接受列表中的每个数据
+     * @return DispatchTask 对象
+     */
+    @NonNull
+    static DispatchTask obtain(@NonNull ViewModelCommand command, @NonNull Object data, boolean each) {
+        return obtain(command, data, each, null);
+    }
+
+    /**
+     * 从回收池中获取一个 DispatchTask，命令运行结束后会通知 completion，
+     * 命令抛出的异常也会交给 completion，而不会传播到线程环境中。
+     *
+     * @param command    要执行的命令
+     * @param data       数据
+     * @param each       为 true 时 data 是一个列表，命令会依次接受列表中的每个数据
+     * @param completion 完成句柄，为 null 时不通知
+     * @return DispatchTask 对象
+     */
+    @NonNull
+    static DispatchTask obtain(@NonNull ViewModelCommand command,
+                               @NonNull Object data,
+                               boolean each,
+                               @Nullable PostCompletion completion) {
+        DispatchTask task = null;
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                task = sPool;
+                sPool = task.mNext;
+                task.mNext = null;
+                sPoolSize--;
+            }
+        }
+        if (task == null) {
+            task = new DispatchTask();
+        }
+        task.mCommand = command;
+        task.mData = data;
+        task.mEach = each;
+        task.mCompletion = completion;
+        task.mEnqueueNanos = command.mMetrics != null ? System.nanoTime() : 0;
+
+        return task;
+    }
+
+    @Override
+    public void run() {
+        ViewModelCommand command = mCommand;
+        Object data = mData;
+        boolean each = mEach;
+        PostCompletion completion = mCompletion;
+        long enqueueNanos = mEnqueueNanos;
+        // 先回收再执行，即使命令抛出异常，这个对象也会回到池中
+        recycle();
+
+        if (enqueueNanos != 0) {
+            EventBusMetrics.SubscriberMetrics metrics = command.mMetrics;
+            if (metrics != null) {
+                metrics.recordQueueLatency(System.nanoTime() - enqueueNanos);
+            }
+        }
+        if (completion == null) {
+            deliver(command, data, each);
+            return;
+        }
+
+        Throwable failure = null;
+        try {
+            deliver(command, data, each);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        completion.complete(failure);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(@NonNull ViewModelCommand command, @NonNull Object data, boolean each) {
+        if (each) {
+            command.deliverEach((List) data);
+        } else {
+            command.deliver(data);
+        }
+    }
+
+
+    private void recycle() {
+        mCommand = null;
+        mData = null;
+        mEach = false;
+        mCompletion = null;
+        mEnqueueNanos = 0;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+}
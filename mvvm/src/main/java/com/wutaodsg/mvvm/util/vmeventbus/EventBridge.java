@@ -0,0 +1,401 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.util.log.LogUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * 跨进程的事件桥，在两个进程的 {@link ViewModelEventBus} 之间转发选定 event tag 下的事件。
+ * <p>
+ * 使用 {@link #forward(String, Class, EventSerializer)} 选择需要转发的 event tag 和数据类型，
+ * 两个进程都需要以相同的方式注册。然后一个进程调用 {@link #acceptLocal(String)}，
+ * 另一个进程调用 {@link #connectLocal(String)}，通过 Unix 域套接字（{@link LocalSocket}）连接起来。
+ * 之后在一个进程中广播的事件（包括通过作用域总线发送的事件）都会在另一个进程的总线中以
+ * {@link ViewModelEventBus#post(String, Object)} 的方式发送。定向发送的事件不会被转发。
+ * <p>
+ * 传输的格式是带长度前缀的二进制帧：
+ * <pre>
+ * int    帧的长度
+ * short  event tag 的字节数，之后是 UTF-8 编码的 event tag
+ * short  数据类型名称的字节数，之后是 UTF-8 编码的数据类型名称
+ * byte[] 由 {@link EventSerializer} 序列化的事件数据，直到帧结束
+ * </pre>
+ * 帧在发送者的线程中编码，然后放入一个无锁队列，由写线程批量写入缓冲区，
+ * 每次清空队列之后才刷新一次，所以突发的大量事件只会产生很少的系统调用；
+ * 读线程解码之后直接在总线中发送，注册者应该通过 {@link ViewModelScheduler} 指定运行的线程环境。
+ * <p>
+ * 传输层只依赖 {@link InputStream} 和 {@link OutputStream}，通过 {@link #start(InputStream, OutputStream, Closeable)}
+ * 也可以使用其他的连接，比如在普通的 JVM 中使用 TCP 或 Unix 域套接字进行测试。
+ * 每个事件桥只对应一个连接，连接断开后事件桥就关闭了。
+ */
+
+public final class EventBridge {
+
+    private static final String TAG = "WuT.EventBridge";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+
+    private final ViewModelEventBus mEventBus;
+
+    /**
+     * event tag 对应的注册记录，同一个 event tag 下可能有多种数据类型。
+     */
+    private final ConcurrentHashMap<String, Registration[]> mRegistrations = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<byte[]> mOutgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+    private volatile boolean mClosed;
+    private volatile boolean mWriterWaiting;
+
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    @Nullable
+    private Closeable mConnection;
+    private Thread mReaderThread;
+    private volatile Thread mWriterThread;
+
+    /**
+     * 读线程正在发送的 event tag，用来避免把收到的事件再转发回去，只在读线程中访问。
+     */
+    private String mReceivingTag;
+
+
+    public EventBridge() {
+        this(ViewModelEventBus.getInstance());
+    }
+
+    /**
+     * @param eventBus 收到的事件在这条总线中发送
+     */
+    public EventBridge(@NonNull ViewModelEventBus eventBus) {
+        mEventBus = eventBus;
+    }
+
+
+    /**
+     * 转发 eventTag 下数据类型为 dataClass 的事件。只有数据的运行时类型与 dataClass 完全相同的事件才会被转发。
+     * 必须在连接之前调用。
+     *
+     * @param eventTag   事件标志，不能是通配符 event tag
+     * @param dataClass  数据类型
+     * @param serializer 数据的编解码器
+     * @param <T>        数据类型
+     * @return 这个事件桥
+     */
+    @NonNull
+    public <T> EventBridge forward(@NonNull String eventTag,
+                                   @NonNull Class<T> dataClass,
+                                   @NonNull EventSerializer<T> serializer) {
+        if (TagTrie.isPattern(eventTag)) {
+            throw new IllegalArgumentException("Cannot forward a wildcard event tag: " + eventTag);
+        }
+        if (mStarted.get()) {
+            throw new IllegalStateException("EventBridge is already started");
+        }
+
+        Registration registration = new Registration(eventTag, dataClass, serializer);
+        Registration[] oldRegistrations = mRegistrations.get(eventTag);
+        Registration[] newRegistrations;
+        if (oldRegistrations == null) {
+            newRegistrations = new Registration[]{registration};
+        } else {
+            newRegistrations = new Registration[oldRegistrations.length + 1];
+            System.arraycopy(oldRegistrations, 0, newRegistrations, 0, oldRegistrations.length);
+            newRegistrations[oldRegistrations.length] = registration;
+        }
+        mRegistrations.put(eventTag, newRegistrations);
+
+        return this;
+    }
+
+    /**
+     * 在名为 name 的本地套接字上等待另一个进程连接，连接之后开始转发。这个方法会阻塞直到连接建立。
+     *
+     * @param name 本地套接字的名称（抽象命名空间）
+     * @throws IOException 连接失败
+     */
+    public void acceptLocal(@NonNull String name) throws IOException {
+        LocalServerSocket serverSocket = new LocalServerSocket(name);
+        LocalSocket socket;
+        try {
+            socket = serverSocket.accept();
+        } finally {
+            serverSocket.close();
+        }
+        startLocal(socket);
+    }
+
+    /**
+     * 连接另一个进程中名为 name 的本地套接字，然后开始转发。
+     *
+     * @param name 本地套接字的名称（抽象命名空间）
+     * @throws IOException 连接失败
+     */
+    public void connectLocal(@NonNull String name) throws IOException {
+        LocalSocket socket = new LocalSocket();
+        try {
+            socket.connect(new LocalSocketAddress(name));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        startLocal(socket);
+    }
+
+    /**
+     * 在一个已经建立的连接上开始转发。
+     *
+     * @param inputStream  连接的输入流
+     * @param outputStream 连接的输出流
+     * @param connection   关闭事件桥时需要关闭的连接，可以为 null
+     */
+    public void start(@NonNull InputStream inputStream,
+                      @NonNull OutputStream outputStream,
+                      @Nullable Closeable connection) {
+        if (!mStarted.compareAndSet(false, true)) {
+            throw new IllegalStateException("EventBridge is already started");
+        }
+
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+        mConnection = connection;
+
+        mReaderThread = new Thread(new Reader(), "vm-event-bridge-reader");
+        mReaderThread.setDaemon(true);
+        Thread writerThread = new Thread(new Writer(), "vm-event-bridge-writer");
+        writerThread.setDaemon(true);
+        mWriterThread = writerThread;
+
+        mEventBus.addBridge(this);
+        mReaderThread.start();
+        writerThread.start();
+    }
+
+    /**
+     * 关闭事件桥和它的连接，之后不会再转发事件。
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        mEventBus.removeBridge(this);
+        Thread writerThread = mWriterThread;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+        }
+        closeQuietly(mConnection);
+        closeQuietly(mInputStream);
+        closeQuietly(mOutputStream);
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+
+    /**
+     * 如果 eventTag 需要转发，就把 data 编码为一帧并放入发送队列。由 {@link ViewModelEventBus} 在广播事件时调用。
+     */
+    @SuppressWarnings("unchecked")
+    void send(@NonNull String eventTag, @NonNull Object data) {
+        Registration[] registrations = mRegistrations.get(eventTag);
+        if (registrations == null || mClosed) {
+            return;
+        }
+        if (Thread.currentThread() == mReaderThread && eventTag.equals(mReceivingTag)) {
+            // 这是刚从另一个进程收到的事件
+            return;
+        }
+
+        for (Registration registration : registrations) {
+            if (registration.mDataClass == data.getClass()) {
+                byte[] payload;
+                try {
+                    payload = registration.mSerializer.serialize(data);
+                } catch (IOException | RuntimeException e) {
+                    // 广播先于本地的分发，serializer 的异常不能影响本地的注册者
+                    LogUtils.e(TAG, "Failed to serialize event, frame dropped: " + eventTag, e);
+                    return;
+                }
+
+                byte[] header = registration.mHeader;
+                byte[] frame = new byte[header.length + payload.length];
+                System.arraycopy(header, 0, frame, 0, header.length);
+                System.arraycopy(payload, 0, frame, header.length, payload.length);
+                mOutgoing.add(frame);
+                if (mWriterWaiting) {
+                    LockSupport.unpark(mWriterThread);
+                }
+                return;
+            }
+        }
+    }
+
+
+    private void startLocal(@NonNull final LocalSocket socket) throws IOException {
+        start(socket.getInputStream(), socket.getOutputStream(), new Closeable() {
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        });
+    }
+
+    private void receive(@NonNull byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        int tagLength = buffer.getShort() & 0xffff;
+        String eventTag = new String(frame, buffer.position(), tagLength, JournalSegment.UTF_8);
+        buffer.position(buffer.position() + tagLength);
+        int classNameLength = buffer.getShort() & 0xffff;
+        String className = new String(frame, buffer.position(), classNameLength, JournalSegment.UTF_8);
+        int payloadOffset = buffer.position() + classNameLength;
+
+        Registration[] registrations = mRegistrations.get(eventTag);
+        if (registrations != null) {
+            for (Registration registration : registrations) {
+                if (registration.mClassName.equals(className)) {
+                    Object data;
+                    try {
+                        data = registration.mSerializer.deserialize(frame, payloadOffset,
+                                frame.length - payloadOffset);
+                    } catch (IOException | RuntimeException e) {
+                        LogUtils.e(TAG, "Failed to deserialize event, skipped: " + eventTag, e);
+                        return;
+                    }
+
+                    mReceivingTag = eventTag;
+                    try {
+                        mEventBus.post(eventTag, data);
+                    } finally {
+                        mReceivingTag = null;
+                    }
+                    return;
+                }
+            }
+        }
+        LogUtils.w(TAG, "Received an event that is not forwarded: " + eventTag + ", " + className);
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+
+    private final class Reader implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(mInputStream, BUFFER_SIZE));
+                while (!mClosed) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_FRAME_SIZE) {
+                        throw new IOException("Invalid frame length: " + length);
+                    }
+                    byte[] frame = new byte[length];
+                    in.readFully(frame);
+                    receive(frame);
+                }
+            } catch (EOFException e) {
+                LogUtils.d(TAG, "Connection closed by peer");
+            } catch (IOException e) {
+                if (!mClosed) {
+                    LogUtils.e(TAG, "Failed to read from connection", e);
+                }
+            } finally {
+                close();
+            }
+        }
+    }
+
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mOutputStream, BUFFER_SIZE));
+                while (!mClosed) {
+                    byte[] frame = mOutgoing.poll();
+                    if (frame != null) {
+                        out.writeInt(frame.length);
+                        out.write(frame);
+                        continue;
+                    }
+
+                    // 队列已经清空，把这一批帧一次性写出去，然后等待新的帧
+                    out.flush();
+                    mWriterWaiting = true;
+                    if (mOutgoing.isEmpty() && !mClosed) {
+                        LockSupport.park(this);
+                    }
+                    mWriterWaiting = false;
+                }
+            } catch (IOException e) {
+                if (!mClosed) {
+                    LogUtils.e(TAG, "Failed to write to connection", e);
+                }
+            } finally {
+                close();
+            }
+        }
+    }
+
+    private static final class Registration {
+
+        final Class mDataClass;
+        final String mClassName;
+        final EventSerializer mSerializer;
+        /**
+         * 帧中 event tag 和数据类型名称的部分，每种注册只需要编码一次。
+         */
+        final byte[] mHeader;
+
+
+        Registration(@NonNull String eventTag, @NonNull Class dataClass, @NonNull EventSerializer serializer) {
+            mDataClass = dataClass;
+            mClassName = dataClass.getName();
+            mSerializer = serializer;
+
+            byte[] eventTagBytes = eventTag.getBytes(JournalSegment.UTF_8);
+            byte[] classNameBytes = mClassName.getBytes(JournalSegment.UTF_8);
+            if (eventTagBytes.length > JournalSegment.MAX_STRING_BYTES) {
+                throw new IllegalArgumentException("Event tag is too long: " + eventTag);
+            }
+            mHeader = new byte[2 + eventTagBytes.length + 2 + classNameBytes.length];
+            ByteBuffer.wrap(mHeader)
+                    .putShort((short) eventTagBytes.length)
+                    .put(eventTagBytes)
+                    .putShort((short) classNameBytes.length)
+                    .put(classNameBytes);
+        }
+    }
+}
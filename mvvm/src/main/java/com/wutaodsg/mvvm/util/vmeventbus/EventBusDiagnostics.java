@@ -0,0 +1,453 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ViewModelEventBus} 的诊断工具，通过 {@link ViewModelEventBus#setDiagnosticsEnabled(boolean)} 开启，
+ * 用来在真实负载下找出无效的发送和造成卡顿的注册者：
+ * <p>
+ * 1. 死事件：没有任何注册者接受的事件。每个 event tag 记录总数，并在一个有界的环形缓冲区中
+ * 保存最近的 {@link #RING_CAPACITY} 次记录；<br/>
+ * 2. 慢注册者：命令的运行耗时超过预算（默认 {@link #DEFAULT_BUDGET_MILLIS} 毫秒，也就是一帧）。
+ * 每种注册者记录次数和最大耗时，并同样保存最近的记录。<br/>
+ * <p>
+ * 堆栈是采样获取的，每 {@link #setSampleInterval(int) sampleInterval} 次只获取一次：死事件的堆栈是发送者的调用栈；
+ * 慢注册者的堆栈由共享的定时器线程在命令运行到预算时间时抓取运行命令的线程，所以它指向的正是命令卡住的地方，
+ * 而不是命令结束时的位置。没有被采样的记录只有耗时，没有堆栈。
+ * <p>
+ * 通过 {@link #report()} 获取报告，它的 {@link Report#toString()} 可以直接打印到日志中。
+ */
+
+public final class EventBusDiagnostics {
+
+    public static final long DEFAULT_BUDGET_MILLIS = 16;
+    public static final int DEFAULT_SAMPLE_INTERVAL = 8;
+
+    /**
+     * 每个 event tag 或者每种注册者最多保存的最近记录数量。
+     */
+    public static final int RING_CAPACITY = 16;
+
+    private static final String BUS_PACKAGE = EventBusDiagnostics.class.getPackage().getName() + ".";
+
+
+    private final ConcurrentHashMap<String, Ring> mDeadEvents = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class, Ring> mSlowSubscribers = new ConcurrentHashMap<>();
+
+    private volatile long mBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MILLIS);
+    private volatile int mSampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private final AtomicLong mDeliveryCount = new AtomicLong();
+
+
+    EventBusDiagnostics() {
+    }
+
+
+    /**
+     * 设置命令运行耗时的预算，超过预算的命令会被记录为慢注册者。
+     *
+     * @param budgetMillis 预算（毫秒），必须大于 0
+     */
+    public void setBudget(long budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("budgetMillis must be positive: " + budgetMillis);
+        }
+        mBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    public long getBudgetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mBudgetNanos);
+    }
+
+    /**
+     * 设置堆栈的采样间隔，每 sampleInterval 次只获取一次堆栈，为 1 表示每次都获取。
+     *
+     * @param sampleInterval 采样间隔，必须大于 0
+     */
+    public void setSampleInterval(int sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be positive: " + sampleInterval);
+        }
+        mSampleInterval = sampleInterval;
+    }
+
+    public int getSampleInterval() {
+        return mSampleInterval;
+    }
+
+    /**
+     * 获取当前的诊断报告。死事件按照总数从多到少排列，慢注册者按照次数从多到少排列。
+     *
+     * @return 报告
+     */
+    @NonNull
+    public Report report() {
+        return new Report(snapshot(mDeadEvents), snapshot(mSlowSubscribers));
+    }
+
+    /**
+     * 清空所有记录。
+     */
+    public void reset() {
+        mDeadEvents.clear();
+        mSlowSubscribers.clear();
+    }
+
+
+    /**
+     * 记录 count 个死事件，由 {@link ViewModelEventBus} 在发送者的线程中调用。
+     */
+    void recordDeadEvent(@NonNull String eventTag, int count) {
+        Ring ring = getRing(mDeadEvents, eventTag);
+        long total = ring.mTotal.getAndAdd(count);
+        StackTraceElement[] stackTrace = total % mSampleInterval == 0 ?
+                trimBusFrames(new Throwable().getStackTrace()) : null;
+        ring.add(new Sample(System.currentTimeMillis(), Thread.currentThread().getName(), 0, stackTrace));
+    }
+
+    /**
+     * 返回一种注册者的诊断，由 {@link ViewModelEventBus} 设置到它的命令上。
+     */
+    @NonNull
+    SubscriberDiagnostics forSubscriber(@NonNull Class viewModelClass) {
+        return new SubscriberDiagnostics(this, viewModelClass);
+    }
+
+    /**
+     * 被采样时，返回一个在预算时间抓取当前线程堆栈的看门狗，否则返回 null。
+     */
+    @Nullable
+    private Watchdog startWatchdog() {
+        if (mDeliveryCount.getAndIncrement() % mSampleInterval != 0) {
+            return null;
+        }
+
+        Watchdog watchdog = new Watchdog(Thread.currentThread());
+        watchdog.mScheduledEvent = TimerWheel.getInstance().schedule(watchdog, mBudgetNanos);
+
+        return watchdog;
+    }
+
+    private void recordRunTime(@NonNull Class viewModelClass, long runNanos, @Nullable Watchdog watchdog) {
+        StackTraceElement[] stackTrace = null;
+        if (watchdog != null) {
+            watchdog.mScheduledEvent.cancel();
+            stackTrace = watchdog.mStackTrace;
+        }
+        if (runNanos <= mBudgetNanos) {
+            return;
+        }
+
+        Ring ring = getRing(mSlowSubscribers, viewModelClass);
+        ring.mTotal.incrementAndGet();
+        ring.add(new Sample(System.currentTimeMillis(), Thread.currentThread().getName(), runNanos, stackTrace));
+    }
+
+
+    @NonNull
+    private static <K> Ring getRing(@NonNull ConcurrentHashMap<K, Ring> rings, @NonNull K key) {
+        Ring ring = rings.get(key);
+        if (ring == null) {
+            Ring newRing = new Ring();
+            ring = rings.putIfAbsent(key, newRing);
+            if (ring == null) {
+                ring = newRing;
+            }
+        }
+
+        return ring;
+    }
+
+    @NonNull
+    private static <K> List<Entry<K>> snapshot(@NonNull ConcurrentHashMap<K, Ring> rings) {
+        List<Entry<K>> entries = new ArrayList<>(rings.size());
+        for (Map.Entry<K, Ring> entry : rings.entrySet()) {
+            Ring ring = entry.getValue();
+            entries.add(new Entry<>(entry.getKey(), ring.mTotal.get(), ring.snapshot()));
+        }
+        Collections.sort(entries, new Comparator<Entry<K>>() {
+            @Override
+            public int compare(Entry<K> lhs, Entry<K> rhs) {
+                return lhs.mCount < rhs.mCount ? 1 : (lhs.mCount == rhs.mCount ? 0 : -1);
+            }
+        });
+
+        return entries;
+    }
+
+    /**
+     * 去掉堆栈顶部 ViewModelEventBus 内部的帧，只保留发送者的调用栈。
+     */
+    @NonNull
+    private static StackTraceElement[] trimBusFrames(@NonNull StackTraceElement[] stackTrace) {
+        int start = 0;
+        while (start < stackTrace.length && stackTrace[start].getClassName().startsWith(BUS_PACKAGE)) {
+            start++;
+        }
+
+        return Arrays.copyOfRange(stackTrace, start, stackTrace.length);
+    }
+
+
+    /**
+     * 一种注册者的诊断，{@link ViewModelCommand} 在运行前后分别调用 {@link #start()} 和
+     * {@link #stop(long, Watchdog)}。
+     */
+    static final class SubscriberDiagnostics {
+
+        private final EventBusDiagnostics mDiagnostics;
+        private final Class mViewModelClass;
+
+
+        SubscriberDiagnostics(@NonNull EventBusDiagnostics diagnostics, @NonNull Class viewModelClass) {
+            mDiagnostics = diagnostics;
+            mViewModelClass = viewModelClass;
+        }
+
+
+        /**
+         * @return 被采样时返回看门狗，否则返回 null
+         */
+        @Nullable
+        Watchdog start() {
+            return mDiagnostics.startWatchdog();
+        }
+
+        /**
+         * @param runNanos 命令的运行耗时
+         * @param watchdog {@link #start()} 的返回值
+         */
+        void stop(long runNanos, @Nullable Watchdog watchdog) {
+            mDiagnostics.recordRunTime(mViewModelClass, runNanos, watchdog);
+        }
+    }
+
+    /**
+     * 在预算时间抓取运行命令的线程的堆栈。
+     */
+    static final class Watchdog implements Runnable {
+
+        final Thread mThread;
+        ScheduledEvent mScheduledEvent;
+        volatile StackTraceElement[] mStackTrace;
+
+
+        Watchdog(@NonNull Thread thread) {
+            mThread = thread;
+        }
+
+
+        @Override
+        public void run() {
+            mStackTrace = mThread.getStackTrace();
+        }
+    }
+
+    /**
+     * 保存最近的记录的环形缓冲区。
+     */
+    private static final class Ring {
+
+        final AtomicLong mTotal = new AtomicLong();
+        private final Sample[] mSamples = new Sample[RING_CAPACITY];
+        private int mNext;
+        private int mSize;
+
+
+        synchronized void add(@NonNull Sample sample) {
+            mSamples[mNext] = sample;
+            mNext = (mNext + 1) % mSamples.length;
+            if (mSize < mSamples.length) {
+                mSize++;
+            }
+        }
+
+        /**
+         * 返回保存的记录，由新到旧排列。
+         */
+        @NonNull
+        synchronized List<Sample> snapshot() {
+            List<Sample> samples = new ArrayList<>(mSize);
+            for (int i = 1; i <= mSize; i++) {
+                samples.add(mSamples[(mNext - i + mSamples.length) % mSamples.length]);
+            }
+
+            return samples;
+        }
+    }
+
+
+    /**
+     * 诊断报告。
+     */
+    public static final class Report {
+
+        private final List<Entry<String>> mDeadEvents;
+        private final List<Entry<Class>> mSlowSubscribers;
+
+
+        Report(@NonNull List<Entry<String>> deadEvents, @NonNull List<Entry<Class>> slowSubscribers) {
+            mDeadEvents = Collections.unmodifiableList(deadEvents);
+            mSlowSubscribers = Collections.unmodifiableList(slowSubscribers);
+        }
+
+
+        /**
+         * 返回死事件，键是 event tag，按照总数从多到少排列。
+         */
+        @NonNull
+        public List<Entry<String>> getDeadEvents() {
+            return mDeadEvents;
+        }
+
+        /**
+         * 返回慢注册者，键是 ViewModel 的类型，按照次数从多到少排列。
+         */
+        @NonNull
+        public List<Entry<Class>> getSlowSubscribers() {
+            return mSlowSubscribers;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("EventBusDiagnostics{\n");
+            for (Entry<String> entry : mDeadEvents) {
+                builder.append("  dead event: tag=").append(entry.mKey).append(", count=").append(entry.mCount)
+                        .append('\n');
+                appendFirstStackTrace(builder, entry);
+            }
+            for (Entry<Class> entry : mSlowSubscribers) {
+                builder.append("  slow subscriber: ").append(entry.mKey.getName()).append(", count=")
+                        .append(entry.mCount).append(", maxMs=")
+                        .append(TimeUnit.NANOSECONDS.toMillis(entry.getMaxRunNanos())).append('\n');
+                appendFirstStackTrace(builder, entry);
+            }
+
+            return builder.append('}').toString();
+        }
+
+
+        private static void appendFirstStackTrace(@NonNull StringBuilder builder, @NonNull Entry<?> entry) {
+            for (Sample sample : entry.mSamples) {
+                StackTraceElement[] stackTrace = sample.mStackTrace;
+                if (stackTrace != null) {
+                    for (StackTraceElement element : stackTrace) {
+                        builder.append("      at ").append(element).append('\n');
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个 event tag 的死事件，或者一种注册者的慢运行记录。
+     */
+    public static final class Entry<K> {
+
+        private final K mKey;
+        private final long mCount;
+        private final List<Sample> mSamples;
+
+
+        Entry(@NonNull K key, long count, @NonNull List<Sample> samples) {
+            mKey = key;
+            mCount = count;
+            mSamples = Collections.unmodifiableList(samples);
+        }
+
+
+        @NonNull
+        public K getKey() {
+            return mKey;
+        }
+
+        /**
+         * 返回总数，包括已经被环形缓冲区覆盖的记录。
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * 返回最近的记录，由新到旧排列，最多 {@link #RING_CAPACITY} 个。
+         */
+        @NonNull
+        public List<Sample> getSamples() {
+            return mSamples;
+        }
+
+        /**
+         * 返回最近的记录中最长的运行耗时，死事件总是返回 0。
+         */
+        public long getMaxRunNanos() {
+            long max = 0;
+            for (Sample sample : mSamples) {
+                max = Math.max(max, sample.mRunNanos);
+            }
+
+            return max;
+        }
+    }
+
+    /**
+     * 一次记录。
+     */
+    public static final class Sample {
+
+        private final long mTimeMillis;
+        private final String mThreadName;
+        private final long mRunNanos;
+        @Nullable
+        private final StackTraceElement[] mStackTrace;
+
+
+        Sample(long timeMillis, @NonNull String threadName, long runNanos,
+               @Nullable StackTraceElement[] stackTrace) {
+            mTimeMillis = timeMillis;
+            mThreadName = threadName;
+            mRunNanos = runNanos;
+            mStackTrace = stackTrace;
+        }
+
+
+        /**
+         * 返回记录的时间，与 {@link System#currentTimeMillis()} 相同。
+         */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        @NonNull
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * 返回命令的运行耗时，死事件总是返回 0。
+         */
+        public long getRunNanos() {
+            return mRunNanos;
+        }
+
+        /**
+         * 返回采样的堆栈，没有被采样时返回 null。
+         */
+        @Nullable
+        public StackTraceElement[] getStackTrace() {
+            return mStackTrace != null ? mStackTrace.clone() : null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ViewModelEventBus} 的运行指标，通过 {@link ViewModelEventBus#setMetricsEnabled(boolean)} 开启。
+ * <p>
+ * 对于每个 event tag，记录发送次数、投递次数（也就是扇出的注册者数量之和）和最大扇出；
+ * 对于每个 event tag 下的每种注册者（ViewModel 的类型），记录任务从调度到开始运行的排队耗时，以及命令本身的运行耗时。
+ * 注册者的 event tag 是注册时使用的 event tag，通配符注册者按照通配符 event tag 记录。
+ * <p>
+ * 计数使用 {@link StripedCounter}，耗时使用固定分桶的 {@link LatencyHistogram}，
+ * 记录时都不会加锁，也不会分配对象。通过 {@link #snapshot()} 可以获取某一时刻的快照，
+ * 用于调试界面或测试。
+ */
+
+public final class EventBusMetrics {
+
+    private final ConcurrentHashMap<String, TagMetrics> mTags = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SubscriberKey, SubscriberMetrics> mSubscribers = new ConcurrentHashMap<>();
+
+
+    EventBusMetrics() {
+    }
+
+
+    /**
+     * 获取当前指标的快照。快照是在不加锁的情况下读取的，各个值之间可能存在微小的不一致。
+     *
+     * @return 快照
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        List<TagSnapshot> tags = new ArrayList<>(mTags.size());
+        for (Map.Entry<String, TagMetrics> entry : mTags.entrySet()) {
+            TagMetrics tagMetrics = entry.getValue();
+            tags.add(new TagSnapshot(entry.getKey(), tagMetrics.mPosts.sum(), tagMetrics.mDeliveries.sum(),
+                    tagMetrics.mMaxFanOut.get()));
+        }
+        List<SubscriberSnapshot> subscribers = new ArrayList<>(mSubscribers.size());
+        for (Map.Entry<SubscriberKey, SubscriberMetrics> entry : mSubscribers.entrySet()) {
+            SubscriberKey key = entry.getKey();
+            SubscriberMetrics subscriberMetrics = entry.getValue();
+            subscribers.add(new SubscriberSnapshot(key.mEventTag, key.mViewModelClass,
+                    subscriberMetrics.mQueueLatency.snapshot(), subscriberMetrics.mRunTime.snapshot()));
+        }
+
+        return new Snapshot(tags, subscribers);
+    }
+
+    /**
+     * 清空所有指标。
+     */
+    public void reset() {
+        for (TagMetrics tagMetrics : mTags.values()) {
+            tagMetrics.mPosts.reset();
+            tagMetrics.mDeliveries.reset();
+            tagMetrics.mMaxFanOut.set(0);
+        }
+        for (SubscriberMetrics subscriberMetrics : mSubscribers.values()) {
+            subscriberMetrics.mQueueLatency.reset();
+            subscriberMetrics.mRunTime.reset();
+        }
+    }
+
+
+    /**
+     * 记录 count 次发送。
+     *
+     * @param eventTag 事件标志
+     * @param fanOut   接受每次事件的注册者数量
+     * @param count    发送的事件数量
+     */
+    void recordPosts(@NonNull String eventTag, int fanOut, int count) {
+        TagMetrics tagMetrics = mTags.get(eventTag);
+        if (tagMetrics == null) {
+            TagMetrics newTagMetrics = new TagMetrics();
+            tagMetrics = mTags.putIfAbsent(eventTag, newTagMetrics);
+            if (tagMetrics == null) {
+                tagMetrics = newTagMetrics;
+            }
+        }
+        tagMetrics.record(fanOut, count);
+    }
+
+    /**
+     * 返回 eventTag 下一种注册者的指标，由 {@link ViewModelEventBus} 设置到它的命令上。
+     *
+     * @param eventTag       注册时使用的事件标志
+     * @param viewModelClass ViewModel 的类型
+     */
+    @NonNull
+    SubscriberMetrics forSubscriber(@NonNull String eventTag, @NonNull Class viewModelClass) {
+        SubscriberKey key = new SubscriberKey(eventTag, viewModelClass);
+        SubscriberMetrics subscriberMetrics = mSubscribers.get(key);
+        if (subscriberMetrics == null) {
+            SubscriberMetrics newSubscriberMetrics = new SubscriberMetrics();
+            subscriberMetrics = mSubscribers.putIfAbsent(key, newSubscriberMetrics);
+            if (subscriberMetrics == null) {
+                subscriberMetrics = newSubscriberMetrics;
+            }
+        }
+
+        return subscriberMetrics;
+    }
+
+
+    private static final class TagMetrics {
+
+        final StripedCounter mPosts = new StripedCounter();
+        final StripedCounter mDeliveries = new StripedCounter();
+        final AtomicLong mMaxFanOut = new AtomicLong();
+
+
+        void record(int fanOut, int count) {
+            mPosts.add(count);
+            if (fanOut > 0) {
+                mDeliveries.add((long) fanOut * count);
+                long max;
+                while (fanOut > (max = mMaxFanOut.get())) {
+                    if (mMaxFanOut.compareAndSet(max, fanOut)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class SubscriberKey {
+
+        final String mEventTag;
+        final Class mViewModelClass;
+
+
+        SubscriberKey(@NonNull String eventTag, @NonNull Class viewModelClass) {
+            mEventTag = eventTag;
+            mViewModelClass = viewModelClass;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SubscriberKey)) {
+                return false;
+            }
+
+            SubscriberKey that = (SubscriberKey) o;
+            return mViewModelClass == that.mViewModelClass && mEventTag.equals(that.mEventTag);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mEventTag.hashCode() + mViewModelClass.hashCode();
+        }
+    }
+
+    /**
+     * 一个 event tag 下一种注册者的指标，由 {@link ViewModelCommand} 在运行命令时记录。
+     */
+    static final class SubscriberMetrics {
+
+        final LatencyHistogram mQueueLatency = new LatencyHistogram();
+        final LatencyHistogram mRunTime = new LatencyHistogram();
+
+
+        void recordQueueLatency(long nanos) {
+            mQueueLatency.record(nanos);
+        }
+
+        void recordRunTime(long nanos) {
+            mRunTime.record(nanos);
+        }
+    }
+
+
+    /**
+     * 指标的快照。
+     */
+    public static final class Snapshot {
+
+        private final List<TagSnapshot> mTags;
+        private final List<SubscriberSnapshot> mSubscribers;
+
+
+        Snapshot(@NonNull List<TagSnapshot> tags, @NonNull List<SubscriberSnapshot> subscribers) {
+            mTags = Collections.unmodifiableList(tags);
+            mSubscribers = Collections.unmodifiableList(subscribers);
+        }
+
+
+        @NonNull
+        public List<TagSnapshot> getTags() {
+            return mTags;
+        }
+
+        @NonNull
+        public List<SubscriberSnapshot> getSubscribers() {
+            return mSubscribers;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("EventBusMetrics{\n");
+            for (TagSnapshot tag : mTags) {
+                builder.append("  ").append(tag).append('\n');
+            }
+            for (SubscriberSnapshot subscriber : mSubscribers) {
+                builder.append("  ").append(subscriber).append('\n');
+            }
+
+            return builder.append('}').toString();
+        }
+    }
+
+    /**
+     * 一个 event tag 的指标快照。
+     */
+    public static final class TagSnapshot {
+
+        private final String mEventTag;
+        private final long mPostCount;
+        private final long mDeliveryCount;
+        private final long mMaxFanOut;
+
+
+        TagSnapshot(@NonNull String eventTag, long postCount, long deliveryCount, long maxFanOut) {
+            mEventTag = eventTag;
+            mPostCount = postCount;
+            mDeliveryCount = deliveryCount;
+            mMaxFanOut = maxFanOut;
+        }
+
+
+        @NonNull
+        public String getEventTag() {
+            return mEventTag;
+        }
+
+        public long getPostCount() {
+            return mPostCount;
+        }
+
+        /**
+         * 返回投递次数，也就是每次发送时接受事件的注册者数量之和。
+         */
+        public long getDeliveryCount() {
+            return mDeliveryCount;
+        }
+
+        public long getMaxFanOut() {
+            return mMaxFanOut;
+        }
+
+        public double getAverageFanOut() {
+            return mPostCount == 0 ? 0 : (double) mDeliveryCount / mPostCount;
+        }
+
+        @Override
+        public String toString() {
+            return "tag=" + mEventTag + ", posts=" + mPostCount + ", deliveries=" + mDeliveryCount +
+                    ", maxFanOut=" + mMaxFanOut;
+        }
+    }
+
+    /**
+     * 一个 event tag 下一种注册者的指标快照。
+     */
+    public static final class SubscriberSnapshot {
+
+        private final String mEventTag;
+        private final Class mViewModelClass;
+        private final HistogramSnapshot mQueueLatency;
+        private final HistogramSnapshot mRunTime;
+
+
+        SubscriberSnapshot(@NonNull String eventTag,
+                           @NonNull Class viewModelClass,
+                           @NonNull HistogramSnapshot queueLatency,
+                           @NonNull HistogramSnapshot runTime) {
+            mEventTag = eventTag;
+            mViewModelClass = viewModelClass;
+            mQueueLatency = queueLatency;
+            mRunTime = runTime;
+        }
+
+
+        /**
+         * 返回注册时使用的事件标志，通配符注册者返回通配符 event tag。
+         */
+        @NonNull
+        public String getEventTag() {
+            return mEventTag;
+        }
+
+        @NonNull
+        public Class getViewModelClass() {
+            return mViewModelClass;
+        }
+
+        /**
+         * 返回任务从调度到开始运行的耗时。没有线程环境的命令不会记录排队耗时。
+         */
+        @NonNull
+        public HistogramSnapshot getQueueLatency() {
+            return mQueueLatency;
+        }
+
+        /**
+         * 返回命令本身的运行耗时。
+         */
+        @NonNull
+        public HistogramSnapshot getRunTime() {
+            return mRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return "subscriber=" + mViewModelClass.getName() + ", tag=" + mEventTag +
+                    ", queueLatency={" + mQueueLatency +
+                    "}, runTime={" + mRunTime + "}";
+        }
+    }
+
+    /**
+     * 耗时直方图的快照。
+     */
+    public static final class HistogramSnapshot {
+
+        private final long[] mCounts;
+        private final long mSumNanos;
+        private final long mCount;
+
+
+        HistogramSnapshot(@NonNull long[] counts, long sumNanos) {
+            mCounts = counts;
+            mSumNanos = sumNanos;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mCount = count;
+        }
+
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mSumNanos / mCount;
+        }
+
+        /**
+         * 返回每个桶的上界（纳秒，不包含）。桶的数量比上界的数量多一个，最后一个桶没有上界。
+         *
+         * @return 上界数组
+         */
+        @NonNull
+        public static long[] getBucketBounds() {
+            return LatencyHistogram.BOUNDS.clone();
+        }
+
+        /**
+         * 返回每个桶中记录的数量，参见 {@link #getBucketBounds()}。
+         *
+         * @return 数量数组
+         */
+        @NonNull
+        public long[] getBucketCounts() {
+            return mCounts.clone();
+        }
+
+        /**
+         * 返回百分位数所在的桶的上界，例如 <code>getPercentileNanos(0.99)</code> 返回 p99 的上界。
+         * 如果落在最后一个桶中，返回 {@link Long#MAX_VALUE}。
+         *
+         * @param percentile 百分位数，0 到 1 之间
+         * @return 上界（纳秒），没有记录时返回 0
+         */
+        public long getPercentileNanos(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(mCount * percentile);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= target) {
+                    return i < LatencyHistogram.BOUNDS.length ? LatencyHistogram.BOUNDS[i] : Long.MAX_VALUE;
+                }
+            }
+
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", meanUs=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) +
+                    ", p50Us<" + toMicros(getPercentileNanos(0.5)) +
+                    ", p99Us<" + toMicros(getPercentileNanos(0.99));
+        }
+
+
+        private static String toMicros(long nanos) {
+            return nanos == Long.MAX_VALUE ? "inf" : String.valueOf(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.command.Function1;
+import com.wutaodsg.mvvm.util.log.LogUtils;
+import com.wutaodsg.mvvm.util.vmeventbus.JournalSegment.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * 事件日志，把选定的 event tag 下发送的事件持久化到磁盘，在进程被杀死之后重新启动时，
+ * 把它们重放到 {@link ViewModelEventBus} 中，这样 ViewModel 可以直接从日志中恢复状态，
+ * 而不需要重新访问网络或数据库。
+ * <p>
+ * 使用 {@link #journal(String, Class, EventSerializer, Function1)} 选择需要记录的 event tag，
+ * 然后通过 {@link ViewModelEventBus#attachJournal(EventJournal)} 把日志连接到全局总线上：
+ * 连接时会先重放已有的日志，之后在这些 event tag 下广播的事件都会被追加到日志中。
+ * 推荐在 {@link android.app.Application#onCreate()} 中尽早连接。
+ * <p>
+ * 日志由多个内存映射的日志段组成，每个日志段的大小是固定的，写满之后切换到新的日志段，
+ * 追加一条记录只是一次内存拷贝，参见 {@link JournalSegment}。
+ * <p>
+ * 每条记录都有一个 key（默认就是 event tag 本身），对于相同的 (event tag, key) 只有最新的一条记录是有意义的。
+ * 已经写满的日志段超过 maxSegments 个时，会在 IO 线程中把它们压缩为一个只包含最新记录的日志段，
+ * 所以日志占用的空间与 key 的数量有关，而与事件的数量无关，启动时的重放也只是一次顺序读取。
+ * 重放时同样只会发送每个 key 的最新记录。
+ * <p>
+ * 重放的事件使用 {@link ViewModelEventBus#postSticky(String, Object)} 发送，之后注册的 ViewModel
+ * 也能收到它们。如果一个 event tag 下有多个 key，需要通过
+ * {@link ViewModelEventBus#setStickyPolicy(String, int, long)} 扩大粘性事件的容量。
+ */
+
+public final class EventJournal {
+
+    private static final String TAG = "WuT.EventJournal";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    private final ConcurrentHashMap<String, Registration> mRegistrations = new ConcurrentHashMap<>();
+
+    private final Object mLock = new Object();
+    /**
+     * 已经写满的日志段，按照序号从小到大排列，只在 mLock 锁中访问。
+     */
+    private final List<File> mSealedSegments = new ArrayList<>();
+    private JournalSegment mActiveSegment;
+    private long mNextSequence;
+
+    private final Object mCompactionLock = new Object();
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean();
+
+
+    public EventJournal(@NonNull File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param directory   日志所在的目录，应该只被这一个日志使用
+     * @param segmentSize 每个日志段的大小（字节）
+     * @param maxSegments 触发压缩之前最多保留的已写满的日志段数量
+     */
+    public EventJournal(@NonNull File directory, int segmentSize, int maxSegments) {
+        if (segmentSize <= JournalSegment.HEADER_SIZE + JournalSegment.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxSegments = maxSegments;
+    }
+
+
+    /**
+     * 记录 eventTag 下数据类型为 dataClass 的事件，每个 eventTag 只保留最新的一条记录。
+     *
+     * @param eventTag   事件标志，不能是通配符 event tag
+     * @param dataClass  数据类型，数据类型是它的子类的事件也会被记录
+     * @param serializer 序列化器
+     * @param <T>        数据类型
+     * @return 这个日志
+     */
+    @NonNull
+    public <T> EventJournal journal(@NonNull String eventTag,
+                                    @NonNull Class<T> dataClass,
+                                    @NonNull EventSerializer<T> serializer) {
+        return journal(eventTag, dataClass, serializer, null);
+    }
+
+    /**
+     * 记录 eventTag 下数据类型为 dataClass 的事件，对于 keySelector 返回的每个 key 只保留最新的一条记录。
+     * <p>
+     * 必须在 {@link ViewModelEventBus#attachJournal(EventJournal)} 之前调用，
+     * 否则已有的日志中这个 eventTag 的记录不会被重放。
+     *
+     * @param eventTag    事件标志，不能是通配符 event tag
+     * @param dataClass   数据类型，数据类型是它的子类的事件也会被记录
+     * @param serializer  序列化器
+     * @param keySelector 从事件数据中提取 key，如果为 null 表示 key 就是 eventTag；
+     *                    它返回 null 时这个事件不会被记录
+     * @param <T>         数据类型
+     * @return 这个日志
+     */
+    @NonNull
+    public <T> EventJournal journal(@NonNull String eventTag,
+                                    @NonNull Class<T> dataClass,
+                                    @NonNull EventSerializer<T> serializer,
+                                    @Nullable Function1<T, String> keySelector) {
+        if (TagTrie.isPattern(eventTag)) {
+            throw new IllegalArgumentException("Cannot journal a wildcard event tag: " + eventTag);
+        }
+        byte[] eventTagBytes = eventTag.getBytes(JournalSegment.UTF_8);
+        if (eventTagBytes.length > JournalSegment.MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Event tag is too long: " + eventTag);
+        }
+
+        mRegistrations.put(eventTag, new Registration(eventTagBytes, dataClass, serializer, keySelector));
+
+        return this;
+    }
+
+    public boolean isJournaled(@NonNull String eventTag) {
+        return mRegistrations.containsKey(eventTag);
+    }
+
+    /**
+     * 压缩已经写满的日志段，对于每个 (event tag, key) 只保留最新的一条记录。
+     * <p>
+     * 这个方法会读写磁盘，不应该在主线程中调用。压缩时不会阻塞事件的追加。
+     *
+     * @throws IOException 读写失败
+     */
+    public void compact() throws IOException {
+        synchronized (mCompactionLock) {
+            List<File> segments;
+            synchronized (mLock) {
+                segments = new ArrayList<>(mSealedSegments);
+            }
+            if (segments.isEmpty()) {
+                return;
+            }
+
+            // 已经写满的日志段不会再被修改，可以在锁外读取
+            Map<String, Record> latest = new LinkedHashMap<>();
+            for (File segment : segments) {
+                JournalSegment.read(segment, latest);
+            }
+
+            // 压缩的结果替换最新的已写满的日志段，先写入临时文件再重命名，
+            // 任何时刻被打断，重放的结果都是相同的
+            File target = segments.get(segments.size() - 1);
+            File temp = new File(mDirectory, target.getName() + TEMP_SUFFIX);
+            JournalSegment.write(temp, latest.values());
+            if (!temp.renameTo(target)) {
+                throw new IOException("Failed to rename " + temp + " to " + target);
+            }
+
+            synchronized (mLock) {
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    File segment = segments.get(i);
+                    if (!segment.delete()) {
+                        LogUtils.w(TAG, "Failed to delete " + segment);
+                    }
+                    mSealedSegments.remove(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前日志段同步到磁盘。进程被杀死时不需要调用这个方法，只有需要防止系统掉电时才需要。
+     */
+    public void sync() {
+        synchronized (mLock) {
+            if (mActiveSegment != null) {
+                mActiveSegment.force();
+            }
+        }
+    }
+
+
+    /**
+     * 读取已有的日志，打开一个新的日志段，然后把每个 (event tag, key) 的最新记录重放到 eventBus 中。
+     *
+     * @return 重放的事件数量
+     */
+    int open(@NonNull ViewModelEventBus eventBus) throws IOException {
+        Map<String, Record> latest = new LinkedHashMap<>();
+        synchronized (mLock) {
+            if (mActiveSegment != null) {
+                throw new IllegalStateException("EventJournal is already open");
+            }
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Failed to create " + mDirectory);
+            }
+
+            File[] files = mDirectory.listFiles();
+            List<Long> sequences = new ArrayList<>();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        // 上一次压缩没有完成
+                        if (!file.delete()) {
+                            LogUtils.w(TAG, "Failed to delete " + file);
+                        }
+                    } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                        try {
+                            sequences.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            LogUtils.w(TAG, "Ignore unknown file " + file);
+                        }
+                    }
+                }
+            }
+            Collections.sort(sequences);
+
+            for (long sequence : sequences) {
+                File segment = segmentFile(sequence);
+                JournalSegment.read(segment, latest);
+                mSealedSegments.add(segment);
+            }
+            mNextSequence = sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1) + 1;
+            mActiveSegment = JournalSegment.create(segmentFile(mNextSequence++), mSegmentSize);
+            scheduleCompactionIfNeeded();
+        }
+
+        int count = 0;
+        for (Record record : latest.values()) {
+            Object data = deserialize(record);
+            if (data != null) {
+                eventBus.postSticky(record.mEventTag, data);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 关闭日志，之后发送的事件不会再被记录。
+     */
+    void close() {
+        synchronized (mLock) {
+            if (mActiveSegment != null) {
+                mActiveSegment.force();
+                mActiveSegment = null;
+            }
+            mSealedSegments.clear();
+        }
+    }
+
+    /**
+     * 如果 eventTag 需要记录，就把 data 追加到日志中。由 {@link ViewModelEventBus} 在广播事件时调用，
+     * 失败时（包括 keySelector 或 serializer 抛出异常、keySelector 返回 null）只会打印日志并丢弃这条记录，
+     * 不会影响事件的发送。
+     */
+    @SuppressWarnings("unchecked")
+    void append(@NonNull String eventTag, @NonNull Object data) {
+        Registration registration = mRegistrations.get(eventTag);
+        if (registration == null || !registration.mDataClass.isInstance(data)) {
+            return;
+        }
+
+        byte[] body;
+        try {
+            byte[] key = EMPTY_KEY;
+            if (registration.mKeySelector != null) {
+                String keyString = (String) registration.mKeySelector.call(data);
+                if (keyString == null) {
+                    LogUtils.e(TAG, "Key selector returned null, event dropped: " + eventTag);
+                    return;
+                }
+                key = keyString.getBytes(JournalSegment.UTF_8);
+                if (key.length > JournalSegment.MAX_STRING_BYTES) {
+                    LogUtils.e(TAG, "Key is too long, event dropped: " + eventTag);
+                    return;
+                }
+            }
+            body = Record.encode(registration.mEventTagBytes, key, registration.mSerializer.serialize(data));
+        } catch (IOException | RuntimeException e) {
+            // keySelector 和 serializer 是使用者的代码，它们的异常不能影响事件的发送
+            LogUtils.e(TAG, "Failed to serialize event, event dropped: " + eventTag, e);
+            return;
+        }
+
+        synchronized (mLock) {
+            if (mActiveSegment == null || mActiveSegment.append(body)) {
+                return;
+            }
+
+            try {
+                rotate();
+            } catch (IOException e) {
+                LogUtils.e(TAG, "Failed to create journal segment, event dropped: " + eventTag, e);
+                return;
+            }
+            if (!mActiveSegment.append(body)) {
+                LogUtils.e(TAG, "Event is larger than a journal segment, event dropped: " + eventTag);
+            }
+        }
+    }
+
+
+    /**
+     * 切换到新的日志段。必须在 mLock 锁中调用。
+     */
+    private void rotate() throws IOException {
+        JournalSegment segment = JournalSegment.create(segmentFile(mNextSequence), mSegmentSize);
+        mNextSequence++;
+        mSealedSegments.add(mActiveSegment.getFile());
+        mActiveSegment = segment;
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * 必须在 mLock 锁中调用。
+     */
+    private void scheduleCompactionIfNeeded() {
+        if (mSealedSegments.size() <= mMaxSegments || !mCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        ViewModelSchedulers.io().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCompactionScheduled.set(false);
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LogUtils.e(TAG, "Failed to compact journal", e);
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private Object deserialize(@NonNull Record record) {
+        Registration registration = mRegistrations.get(record.mEventTag);
+        if (registration == null) {
+            return null;
+        }
+
+        try {
+            return registration.mSerializer.deserialize(record.mBody, record.mPayloadOffset,
+                    record.getPayloadLength());
+        } catch (IOException | RuntimeException e) {
+            LogUtils.e(TAG, "Failed to deserialize event, skipped: " + record.mEventTag, e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private File segmentFile(long sequence) {
+        // 序号补齐到相同的长度，文件名的顺序就是日志段的顺序
+        char[] digits = new char[19];
+        Arrays.fill(digits, '0');
+        String value = Long.toString(sequence);
+        value.getChars(0, value.length(), digits, digits.length - value.length());
+
+        return new File(mDirectory, new String(digits) + SEGMENT_SUFFIX);
+    }
+
+
+    private static final class Registration {
+
+        final byte[] mEventTagBytes;
+        final Class mDataClass;
+        final EventSerializer mSerializer;
+        @Nullable
+        final Function1 mKeySelector;
+
+
+        Registration(@NonNull byte[] eventTagBytes,
+                     @NonNull Class dataClass,
+                     @NonNull EventSerializer serializer,
+                     @Nullable Function1 keySelector) {
+            mEventTagBytes = eventTagBytes;
+            mDataClass = dataClass;
+            mSerializer = serializer;
+            mKeySelector = keySelector;
+        }
+    }
+}
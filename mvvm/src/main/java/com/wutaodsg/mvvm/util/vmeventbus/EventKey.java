@@ -0,0 +1,179 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 事件键，由事件标志（event tag）和数据类型组成，代表 {@link ViewModelEventBus} 中的一条事件总线。
+ * <p>
+ * EventKey 是驻留（interned）的：同一个 event tag 和数据类型永远对应同一个 EventKey 对象，
+ * 并且在创建时就会被分配一个唯一的整数 id。ViewModelEventBus 使用这个 id 直接索引订阅者数组，
+ * 所以通过 {@link ViewModelEventBus#post(EventKey, Object)} 或 {@link ViewModelEventBus#post(EventKey)}
+ * 发送事件时不需要进行任何 Map 查找。
+ * <p>
+ * 推荐把 EventKey 声明为常量，例如：
+ * <pre>
+ * EventKey&lt;String&gt; TEXT = EventKey.of(ViewModelEventTags.TEXT, String.class);
+ * </pre>
+ *
+ * @param <T> 数据类型，不接受数据的事件键为 {@link Void}
+ */
+
+public final class EventKey<T> {
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<Class, EventKey>>
+            sKeys = new ConcurrentHashMap<>();
+    private static final AtomicInteger sNextId = new AtomicInteger(0);
+
+
+    private final int mId;
+    private final String mEventTag;
+    private final Class mDataClass;
+    private final boolean mPattern;
+
+
+    private EventKey(int id, @NonNull String eventTag, @NonNull Class dataClass) {
+        mId = id;
+        mEventTag = eventTag;
+        mDataClass = dataClass;
+        mPattern = TagTrie.isPattern(eventTag);
+    }
+
+
+    /**
+     * 获取 event tag 下接受类型为 dataClass 的数据的事件键。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass 数据类型
+     * @param <T>       数据类型
+     * @return 驻留的 EventKey 对象
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static <T> EventKey<T> of(@NonNull String eventTag, @NonNull Class<T> dataClass) {
+        return (EventKey<T>) intern(eventTag, dataClass);
+    }
+
+    /**
+     * 获取 event tag 下不接受数据的事件键。
+     *
+     * @param eventTag 事件标志
+     * @return 驻留的 EventKey 对象
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public static EventKey<Void> of(@NonNull String eventTag) {
+        return (EventKey<Void>) intern(eventTag, NoDataEventType.class);
+    }
+
+
+    /**
+     * 查找已经存在的事件键，不会创建新的 EventKey。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass 数据类型，不接受数据时为 {@link NoDataEventType}
+     * @return 存在返回 EventKey，否则返回 null
+     */
+    @Nullable
+    static EventKey find(@NonNull String eventTag, @NonNull Class dataClass) {
+        ConcurrentHashMap<Class, EventKey> keys = sKeys.get(eventTag);
+        return keys != null ? keys.get(dataClass) : null;
+    }
+
+    /**
+     * 返回 event tag 下已经创建的所有事件键。
+     *
+     * @param eventTag 事件标志
+     * @return 事件键集合
+     */
+    @NonNull
+    static Collection<EventKey> keysOf(@NonNull String eventTag) {
+        ConcurrentHashMap<Class, EventKey> keys = sKeys.get(eventTag);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+
+        return keys.values();
+    }
+
+    @NonNull
+    static EventKey intern(@NonNull String eventTag, @NonNull Class dataClass) {
+        EventKey key = find(eventTag, dataClass);
+        if (key != null) {
+            return key;
+        }
+
+        // 创建 EventKey 的次数很少，加锁保证同一对 event tag 和数据类型只会分配一个 id
+        synchronized (sKeys) {
+            ConcurrentHashMap<Class, EventKey> keys = sKeys.get(eventTag);
+            if (keys == null) {
+                keys = new ConcurrentHashMap<>(2);
+                sKeys.put(eventTag, keys);
+            }
+            key = keys.get(dataClass);
+            if (key == null) {
+                key = new EventKey(sNextId.getAndIncrement(), eventTag, dataClass);
+                keys.put(dataClass, key);
+            }
+
+            return key;
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "EventKey{" + mEventTag + ", " + (hasData() ? mDataClass.getName() : "no data") + "}";
+    }
+
+    @NonNull
+    public String getEventTag() {
+        return mEventTag;
+    }
+
+    /**
+     * 返回这个事件键接受的数据类型。
+     *
+     * @return 数据类型，不接受数据时返回 null
+     */
+    @Nullable
+    public Class getDataClass() {
+        return hasData() ? mDataClass : null;
+    }
+
+    public boolean hasData() {
+        return mDataClass != NoDataEventType.class;
+    }
+
+    /**
+     * event tag 中是否含有通配符，参见 {@link TagTrie}。
+     *
+     * @return 含有返回 true，否则返回 false
+     */
+    public boolean isPattern() {
+        return mPattern;
+    }
+
+
+    int getId() {
+        return mId;
+    }
+
+    @NonNull
+    Class getRawDataClass() {
+        return mDataClass;
+    }
+
+
+    /**
+     * 用来标志不接受数据的事件类型
+     */
+    static final class NoDataEventType {
+    }
+}
@@ -0,0 +1,41 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+
+/**
+ * 事件数据的序列化器，{@link EventJournal} 通过它把事件数据写入日志，并在启动时读取出来。
+ * <p>
+ * 序列化的格式由使用者决定（比如 JSON、Protocol Buffers 或者手写的二进制格式），
+ * 但是同一个 event tag 的格式在版本之间应该保持兼容，否则旧的日志将无法读取。
+ * 无法读取的记录会被跳过。
+ * <p>
+ * 泛型 T 表示事件数据的类型。
+ */
+
+public interface EventSerializer<T> {
+
+    /**
+     * 把事件数据序列化为字节数组。
+     *
+     * @param data 事件数据
+     * @return 字节数组
+     * @throws IOException 序列化失败
+     */
+    @NonNull
+    byte[] serialize(@NonNull T data) throws IOException;
+
+    /**
+     * 从字节数组中反序列化事件数据。
+     *
+     * @param bytes  字节数组
+     * @param offset 数据在 bytes 中的起始位置
+     * @param length 数据的长度
+     * @return 事件数据
+     * @throws IOException 反序列化失败
+     */
+    @NonNull
+    T deserialize(@NonNull byte[] bytes, int offset, int length) throws IOException;
+}
@@ -0,0 +1,91 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ViewModelScheduler} 的实现类，在 Looper 的消息队列空闲时才运行任务，
+ * 适合统计、预热缓存等不紧急的工作，让界面更新等对延迟敏感的任务先运行。
+ * <p>
+ * 每次空闲时最多运行 {@link #MAX_RUN_MILLIS} 毫秒的任务，剩下的任务留到下一次空闲时运行。
+ */
+
+public class IdleViewModelScheduler implements ViewModelScheduler, MessageQueue.IdleHandler {
+
+    /**
+     * 每次空闲时运行任务的时间上限。
+     */
+    private static final long MAX_RUN_MILLIS = 4;
+
+
+    private final Handler mHandler;
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mInstalled = new AtomicBoolean();
+
+    /**
+     * IdleHandler 只能添加到当前线程的消息队列中，所以通过 Handler 切换到 Looper 的线程中添加。
+     * 发送这个任务本身也会让消息队列在处理完它之后再次进入空闲状态。
+     */
+    private final Runnable mInstallTask = new Runnable() {
+        @Override
+        public void run() {
+            Looper.myQueue().addIdleHandler(IdleViewModelScheduler.this);
+        }
+    };
+
+
+    public IdleViewModelScheduler(@NonNull Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+
+    @Override
+    public void schedule(@NonNull Runnable task) {
+        mTasks.offer(task);
+        if (mInstalled.compareAndSet(false, true)) {
+            mHandler.post(mInstallTask);
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        long deadline = SystemClock.uptimeMillis() + MAX_RUN_MILLIS;
+        try {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+                if (SystemClock.uptimeMillis() >= deadline) {
+                    break;
+                }
+            }
+        } finally {
+            // 任务抛出异常时，MessageQueue 会打印异常并移除这个 IdleHandler，
+            // 所以无论如何都要按照剩下的任务决定是否重新添加，否则之后的任务永远不会运行
+            reinstallIfNeeded();
+        }
+
+        return false;
+    }
+
+
+    private void reinstallIfNeeded() {
+        if (!mTasks.isEmpty()) {
+            // 消息队列只会在下一次从非空闲变为空闲时调用 IdleHandler，所以重新发送添加任务，
+            // 而不是返回 true 保留这个 IdleHandler
+            mHandler.post(mInstallTask);
+            return;
+        }
+
+        mInstalled.set(false);
+        // 在释放标志之前加入的任务，可能因为看到标志仍为 true 而没有添加 IdleHandler
+        if (!mTasks.isEmpty() && mInstalled.compareAndSet(false, true)) {
+            mHandler.post(mInstallTask);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * {@link EventJournal} 的一个日志段，对应一个内存映射的文件。
+ * <p>
+ * 文件以 4 字节的魔数开头，之后是一条一条的记录。每条记录的格式为：
+ * <pre>
+ * int    长度（记录体的字节数）
+ * int    记录体的 CRC32
+ * short  event tag 的字节数，之后是 UTF-8 编码的 event tag
+ * short  key 的字节数，之后是 UTF-8 编码的 key
+ * byte[] 序列化后的事件数据，直到记录体结束
+ * </pre>
+ * 新建的日志段会预先映射 segmentSize 字节，未写入的部分全部为 0，所以长度为 0 表示日志段结束。
+ * 写入时先写记录体和校验和，最后写长度，进程在写入途中被杀死也只会留下一条读不到的记录；
+ * 读取时遇到长度越界或者校验和不匹配的记录，就认为这个日志段到此为止。
+ * <p>
+ * 写入只是内存拷贝，由操作系统负责写回磁盘，进程被杀死时已经写入的数据不会丢失；
+ * 如果需要防止系统掉电，需要调用 {@link #force()}。
+ */
+
+final class JournalSegment {
+
+    static final int MAGIC = 0x564d4a31;
+    static final int HEADER_SIZE = 4;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int MAX_STRING_BYTES = 0xffff;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private final File mFile;
+    private final MappedByteBuffer mBuffer;
+
+
+    private JournalSegment(@NonNull File file, @NonNull MappedByteBuffer buffer) {
+        mFile = file;
+        mBuffer = buffer;
+    }
+
+
+    /**
+     * 创建一个新的可写日志段。
+     *
+     * @param file 文件
+     * @param size 日志段的大小（字节）
+     * @return 日志段
+     * @throws IOException 创建失败
+     */
+    @NonNull
+    static JournalSegment create(@NonNull File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // 关闭文件后映射仍然有效
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            return new JournalSegment(file, buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 把 records 写入一个恰好容纳它们的新文件，并同步到磁盘，用于压缩。
+     *
+     * @param file    文件
+     * @param records 记录
+     * @throws IOException 写入失败
+     */
+    static void write(@NonNull File file, @NonNull Collection<Record> records) throws IOException {
+        long size = HEADER_SIZE;
+        for (Record record : records) {
+            size += RECORD_HEADER_SIZE + record.mBody.length;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            for (Record record : records) {
+                buffer.putInt(record.mBody.length);
+                buffer.putInt(crc(record.mBody));
+                buffer.put(record.mBody);
+            }
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 顺序读取一个日志段，把每条记录以 (event tag, key) 为键放入 latest，
+     * 相同键的记录只保留最新的一条，并移动到末尾，所以 latest 按照最后写入的顺序排列。
+     *
+     * @param file   文件
+     * @param latest 读取的记录
+     * @return 读取的记录数量
+     * @throws IOException 读取失败
+     */
+    static int read(@NonNull File file, @NonNull Map<String, Record> latest) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                return 0;
+            }
+
+            int count = 0;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                Record record = crc(body) == crc ? Record.parse(body) : null;
+                if (record == null) {
+                    break;
+                }
+
+                String compositeKey = record.getCompositeKey();
+                latest.remove(compositeKey);
+                latest.put(compositeKey, record);
+                count++;
+            }
+
+            return count;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 把记录体追加到日志段的末尾。
+     *
+     * @param body 记录体，参见 {@link Record#encode(byte[], byte[], byte[])}
+     * @return 追加成功返回 true，空间不足返回 false
+     */
+    boolean append(@NonNull byte[] body) {
+        if (mBuffer.remaining() < RECORD_HEADER_SIZE + body.length) {
+            return false;
+        }
+
+        int start = mBuffer.position();
+        mBuffer.position(start + RECORD_HEADER_SIZE);
+        mBuffer.put(body);
+        mBuffer.putInt(start + 4, crc(body));
+        // 最后写入长度，写入途中被打断的记录不会被读到
+        mBuffer.putInt(start, body.length);
+
+        return true;
+    }
+
+    void force() {
+        mBuffer.force();
+    }
+
+    @NonNull
+    File getFile() {
+        return mFile;
+    }
+
+
+    private static int crc(@NonNull byte[] body) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(body, 0, body.length);
+
+        return (int) crc32.getValue();
+    }
+
+
+    /**
+     * 日志中的一条记录。
+     */
+    static final class Record {
+
+        final String mEventTag;
+        final String mKey;
+        final byte[] mBody;
+        final int mPayloadOffset;
+
+
+        private Record(@NonNull String eventTag, @NonNull String key, @NonNull byte[] body, int payloadOffset) {
+            mEventTag = eventTag;
+            mKey = key;
+            mBody = body;
+            mPayloadOffset = payloadOffset;
+        }
+
+
+        /**
+         * 把 event tag、key 和序列化后的事件数据编码为记录体。
+         */
+        @NonNull
+        static byte[] encode(@NonNull byte[] eventTag, @NonNull byte[] key, @NonNull byte[] payload) {
+            byte[] body = new byte[2 + eventTag.length + 2 + key.length + payload.length];
+            ByteBuffer.wrap(body)
+                    .putShort((short) eventTag.length)
+                    .put(eventTag)
+                    .putShort((short) key.length)
+                    .put(key)
+                    .put(payload);
+
+            return body;
+        }
+
+        @NonNull
+        static String compositeKey(@NonNull String eventTag, @NonNull String key) {
+            return eventTag + '\u0000' + key;
+        }
+
+        @Nullable
+        private static Record parse(@NonNull byte[] body) {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            if (buffer.remaining() < 2) {
+                return null;
+            }
+            int tagLength = buffer.getShort() & 0xffff;
+            if (buffer.remaining() < tagLength + 2) {
+                return null;
+            }
+            String eventTag = new String(body, buffer.position(), tagLength, UTF_8);
+            buffer.position(buffer.position() + tagLength);
+            int keyLength = buffer.getShort() & 0xffff;
+            if (buffer.remaining() < keyLength) {
+                return null;
+            }
+            String key = new String(body, buffer.position(), keyLength, UTF_8);
+
+            return new Record(eventTag, key, body, buffer.position() + keyLength);
+        }
+
+
+        @NonNull
+        String getCompositeKey() {
+            return compositeKey(mEventTag, mKey);
+        }
+
+        int getPayloadLength() {
+            return mBody.length - mPayloadOffset;
+        }
+    }
+}
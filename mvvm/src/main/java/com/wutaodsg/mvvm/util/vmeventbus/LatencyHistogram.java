@@ -0,0 +1,79 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 固定分桶的耗时直方图，供 {@link EventBusMetrics} 使用。
+ * <p>
+ * 桶的上界是固定的，记录一个耗时只需要几次比较和一次原子加法，不会分配对象。
+ * 与 {@link StripedCounter} 一样，不同的线程记录到不同的行中，每一行占用独立的缓存行。
+ */
+
+final class LatencyHistogram {
+
+    /**
+     * 每个桶的上界（纳秒，不包含），最后还有一个没有上界的桶。
+     */
+    static final long[] BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(50),
+            TimeUnit.MICROSECONDS.toNanos(100),
+            TimeUnit.MICROSECONDS.toNanos(250),
+            TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(2),
+            TimeUnit.MILLISECONDS.toNanos(4),
+            TimeUnit.MILLISECONDS.toNanos(8),
+            TimeUnit.MILLISECONDS.toNanos(16),
+            TimeUnit.MILLISECONDS.toNanos(32),
+            TimeUnit.MILLISECONDS.toNanos(64),
+            TimeUnit.MILLISECONDS.toNanos(128)
+    };
+
+    static final int BUCKETS = BOUNDS.length + 1;
+
+    /**
+     * 每一行的长度：所有的桶、耗时总和，再补齐到缓存行的整数倍。
+     */
+    private static final int ROW = (BUCKETS + 1 + StripedCounter.PADDING - 1) /
+            StripedCounter.PADDING * StripedCounter.PADDING;
+    private static final int SUM = BUCKETS;
+
+
+    private final AtomicLongArray mCells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+
+
+    void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && nanos >= BOUNDS[bucket]) {
+            bucket++;
+        }
+        int row = StripedCounter.stripe() * ROW;
+        mCells.getAndIncrement(row + bucket);
+        mCells.getAndAdd(row + SUM, nanos);
+    }
+
+    @NonNull
+    EventBusMetrics.HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            int row = stripe * ROW;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts[bucket] += mCells.get(row + bucket);
+            }
+            sum += mCells.get(row + SUM);
+        }
+
+        return new EventBusMetrics.HistogramSnapshot(counts, sum);
+    }
+
+    void reset() {
+        for (int i = 0; i < mCells.length(); i++) {
+            mCells.set(i, 0);
+        }
+    }
+}
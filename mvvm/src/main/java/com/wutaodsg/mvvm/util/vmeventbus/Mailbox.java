@@ -0,0 +1,185 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * {@link ViewModelCommand} 的有界邮箱，参见 {@link ViewModelCommand#setMailbox(int, OverflowPolicy)}。
+ * <p>
+ * 邮箱是一个无锁的多生产者、多消费者环形队列（每个槽位带有序号，生产者和消费者分别通过 CAS
+ * 推进自己的位置），容量会被向上取整为 2 的幂。邮箱满了以后，按照 {@link OverflowPolicy}
+ * 处理新数据。
+ * <p>
+ * 邮箱会统计当前的队列深度、历史最大深度以及被丢弃的数据数量，可以根据线上数据调整邮箱的大小。
+ */
+
+public final class Mailbox {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+
+    private final OverflowPolicy mOverflowPolicy;
+
+    private final AtomicReferenceArray<Object> mBuffer;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile long mMaxDepth;
+
+
+    Mailbox(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        mOverflowPolicy = overflowPolicy;
+        mBuffer = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+    }
+
+
+    /**
+     * 按照溢出策略放入数据。
+     *
+     * @param item 数据
+     * @return 数据被放入邮箱返回 true，被丢弃返回 false
+     */
+    boolean put(@NonNull Object item) {
+        while (!offer(item)) {
+            switch (mOverflowPolicy) {
+                case DROP_NEWEST:
+                    mDroppedCount.incrementAndGet();
+                    return false;
+
+                case DROP_OLDEST:
+                    if (poll() != null) {
+                        mDroppedCount.incrementAndGet();
+                    }
+                    break;
+
+                case CONFLATE:
+                    while (poll() != null) {
+                        mDroppedCount.incrementAndGet();
+                    }
+                    break;
+
+                case BLOCK_PRODUCER:
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+
+        long depth = getDepth();
+        if (depth > mMaxDepth) {
+            // 只是统计数据，不需要精确
+            mMaxDepth = depth;
+        }
+
+        return true;
+    }
+
+    @Nullable
+    Object poll() {
+        for (; ; ) {
+            long head = mHead.get();
+            int index = (int) (head & mMask);
+            long diff = mSequences.get(index) - (head + 1);
+            if (diff == 0) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    Object item = mBuffer.get(index);
+                    mBuffer.set(index, null);
+                    mSequences.set(index, head + mMask + 1);
+
+                    return item;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    void clear() {
+        while (poll() != null) {
+            // 清空邮箱
+        }
+    }
+
+
+    /**
+     * 返回当前在邮箱中等待运行的数据数量。
+     *
+     * @return 队列深度
+     */
+    public long getDepth() {
+        return Math.max(0, mTail.get() - mHead.get());
+    }
+
+    /**
+     * 返回邮箱出现过的最大队列深度。
+     *
+     * @return 最大队列深度
+     */
+    public long getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * 返回因为邮箱已满而被丢弃的数据数量。
+     *
+     * @return 被丢弃的数据数量
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    @NonNull
+    public OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+
+    private boolean offer(@NonNull Object item) {
+        for (; ; ) {
+            long tail = mTail.get();
+            int index = (int) (tail & mMask);
+            long diff = mSequences.get(index) - tail;
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mBuffer.set(index, item);
+                    mSequences.set(index, tail + 1);
+
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+/**
+ * {@link Mailbox} 满了以后处理新数据的策略。
+ */
+
+public enum OverflowPolicy {
+
+    /**
+     * 丢弃邮箱中最旧的数据，然后放入新数据。
+     */
+    DROP_OLDEST,
+
+    /**
+     * 丢弃新数据。
+     */
+    DROP_NEWEST,
+
+    /**
+     * 阻塞发布事件的线程，直到邮箱有空位。
+     * <p>
+     * 不要在命令的线程环境中向使用这个策略的命令发布事件，否则会因为等待自己而死锁。
+     */
+    BLOCK_PRODUCER,
+
+    /**
+     * 丢弃邮箱中所有还没有运行的数据，只保留新数据。
+     */
+    CONFLATE
+}
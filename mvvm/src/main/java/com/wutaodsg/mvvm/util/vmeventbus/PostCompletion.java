@@ -0,0 +1,186 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 异步发送事件的完成句柄，由 <code>postAsync</code> 方法返回，参见
+ * {@link ViewModelEventBus#postAsync(String, Object)}。
+ * <p>
+ * 当所有接受事件的命令都运行结束后（无论是在发布事件者的线程中直接运行，还是在
+ * {@link ViewModelScheduler} 中运行），这个句柄就完成了。命令抛出的异常不会再传播到线程环境中，
+ * 而是被收集起来，通过 {@link #getFailures()} 获取。
+ * <p>
+ * 等待完成只会阻塞调用 {@link #await(long, TimeUnit)} 的线程；如果不希望阻塞，可以使用
+ * {@link #setOnCompleteListener(OnCompleteListener)}，监听器会在最后一个命令运行结束的线程中回调。
+ */
+
+public final class PostCompletion {
+
+    /**
+     * 没有任何注册者时返回的句柄，它已经完成了。
+     */
+    static final PostCompletion EMPTY = new PostCompletion();
+
+    static {
+        EMPTY.seal();
+    }
+
+
+    /**
+     * 尚未运行结束的命令数量，再加上 1：这个 1 在所有命令都已经分发之后由 {@link #seal()} 减去，
+     * 避免在分发过程中提前完成。
+     */
+    private final AtomicInteger mPending = new AtomicInteger(1);
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    private int mSubscriberCount;
+    private List<Throwable> mFailures;
+    private OnCompleteListener mOnCompleteListener;
+
+
+    PostCompletion() {
+    }
+
+
+    /**
+     * 阻塞当前线程，直到完成或者超时。不要在命令运行的线程环境中调用这个方法，
+     * 否则可能永远等不到完成。
+     *
+     * @param timeout 超时时间
+     * @param unit    超时时间的单位
+     * @return 完成返回 true，超时返回 false
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    /**
+     * 阻塞当前线程，直到完成，参见 {@link #await(long, TimeUnit)}。
+     *
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public void await() throws InterruptedException {
+        mDone.await();
+    }
+
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    /**
+     * 返回接受这个事件的命令数量。
+     *
+     * @return 命令数量
+     */
+    public synchronized int getSubscriberCount() {
+        return mSubscriberCount;
+    }
+
+    /**
+     * 是否已经完成，并且所有命令都没有抛出异常。
+     *
+     * @return 成功返回 true，否则返回 false
+     */
+    public boolean isSuccessful() {
+        return isDone() && getFailures().isEmpty();
+    }
+
+    /**
+     * 返回到目前为止命令抛出的所有异常。
+     *
+     * @return 异常列表
+     */
+    @NonNull
+    public synchronized List<Throwable> getFailures() {
+        return mFailures == null ? Collections.<Throwable>emptyList() : new ArrayList<>(mFailures);
+    }
+
+    /**
+     * 设置完成时的监听器。如果已经完成，监听器会立即在当前线程中回调；
+     * 否则会在最后一个命令运行结束的线程中回调，每个句柄最多回调一次。
+     *
+     * @param onCompleteListener 监听器，为 null 时移除监听器
+     */
+    public void setOnCompleteListener(@Nullable OnCompleteListener onCompleteListener) {
+        synchronized (this) {
+            if (!isDone()) {
+                mOnCompleteListener = onCompleteListener;
+                return;
+            }
+        }
+        if (onCompleteListener != null) {
+            onCompleteListener.onComplete(this);
+        }
+    }
+
+
+    /**
+     * 分发之前调用，记录一个将要运行的命令。
+     */
+    void add() {
+        synchronized (this) {
+            mSubscriberCount++;
+        }
+        mPending.incrementAndGet();
+    }
+
+    /**
+     * 一个命令运行结束时调用。
+     *
+     * @param failure 命令抛出的异常，没有抛出时为 null
+     */
+    void complete(@Nullable Throwable failure) {
+        if (failure != null) {
+            synchronized (this) {
+                if (mFailures == null) {
+                    mFailures = new ArrayList<>(1);
+                }
+                mFailures.add(failure);
+            }
+        }
+        if (mPending.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * 所有命令都已经分发之后调用。
+     */
+    void seal() {
+        if (mPending.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+
+    private void finish() {
+        OnCompleteListener onCompleteListener;
+        synchronized (this) {
+            mDone.countDown();
+            onCompleteListener = mOnCompleteListener;
+            mOnCompleteListener = null;
+        }
+        if (onCompleteListener != null) {
+            onCompleteListener.onComplete(this);
+        }
+    }
+
+
+    /**
+     * 完成时的监听器。
+     */
+    public interface OnCompleteListener {
+
+        void onComplete(@NonNull PostCompletion completion);
+    }
+}
@@ -0,0 +1,165 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.command.Function2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 请求的结果，由 {@link ViewModelEventBus#query(String, Object, Class)} 返回。
+ * <p>
+ * 请求会同时发给所有匹配的应答者，每个应答者在自己的线程环境中运行，应答陆续到达这个对象中。
+ * 可以按照三种方式获取应答：
+ * <p>
+ * 1. {@link #awaitFirst(long, TimeUnit)}：等待第一个不为 null 的应答，不需要等待其他应答者。<br/>
+ * 2. {@link #awaitAll(long, TimeUnit)}：等待所有应答者运行结束，返回所有不为 null 的应答。<br/>
+ * 3. {@link #reduce(Object, Function2)}：把已经到达的应答合并为一个值，一般在全部完成之后调用。<br/>
+ * <p>
+ * 如果不希望阻塞，可以通过 {@link #getCompletion()} 设置完成时的监听器，应答者抛出的异常也记录在其中。
+ * <p>
+ * 泛型 R 表示应答的类型。
+ */
+
+public final class QueryResult<R> {
+
+    private final PostCompletion mCompletion = new PostCompletion();
+    private final CountDownLatch mFirstReply = new CountDownLatch(1);
+    private final List<R> mReplies = new ArrayList<>(2);
+
+
+    QueryResult() {
+    }
+
+
+    /**
+     * 等待第一个不为 null 的应答。如果所有应答者都运行结束了仍然没有应答，也会返回。
+     *
+     * @param timeout 超时时间
+     * @param unit    超时时间的单位
+     * @return 第一个应答，超时或者没有应答时返回 null
+     * @throws InterruptedException 等待时线程被中断
+     */
+    @Nullable
+    public R awaitFirst(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        mFirstReply.await(timeout, unit);
+
+        return getFirstReply();
+    }
+
+    /**
+     * 等待所有应答者运行结束。
+     *
+     * @param timeout 超时时间
+     * @param unit    超时时间的单位
+     * @return 所有不为 null 的应答，按照到达的顺序排列；超时时返回已经到达的应答
+     * @throws InterruptedException 等待时线程被中断
+     */
+    @NonNull
+    public List<R> awaitAll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        mCompletion.await(timeout, unit);
+
+        return getReplies();
+    }
+
+    /**
+     * 把已经到达的应答按照到达的顺序合并为一个值。
+     *
+     * @param initial 初始值
+     * @param reducer 合并函数，第一个参数是目前合并的结果，第二个参数是应答
+     * @param <A>     合并结果的类型
+     * @return 合并结果
+     */
+    public <A> A reduce(A initial, @NonNull Function2<A, R, A> reducer) {
+        A result = initial;
+        for (R reply : getReplies()) {
+            result = reducer.call(result, reply);
+        }
+
+        return result;
+    }
+
+    @Nullable
+    public synchronized R getFirstReply() {
+        return mReplies.isEmpty() ? null : mReplies.get(0);
+    }
+
+    /**
+     * 返回已经到达的所有不为 null 的应答。
+     *
+     * @return 应答列表
+     */
+    @NonNull
+    public synchronized List<R> getReplies() {
+        return new ArrayList<>(mReplies);
+    }
+
+    /**
+     * 返回这次请求的完成句柄，可以通过它判断是否完成、获取应答者抛出的异常，或者设置监听器。
+     *
+     * @return 完成句柄
+     */
+    @NonNull
+    public PostCompletion getCompletion() {
+        return mCompletion;
+    }
+
+
+    /**
+     * 在当前线程中运行一个应答者。
+     */
+    @SuppressWarnings("unchecked")
+    void respond(@NonNull ViewModelResponder responder, @NonNull Object request) {
+        Throwable failure = null;
+        try {
+            R reply = (R) responder.respond(request);
+            if (reply != null) {
+                synchronized (this) {
+                    mReplies.add(reply);
+                }
+                mFirstReply.countDown();
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+        mCompletion.complete(failure);
+        if (mCompletion.isDone()) {
+            mFirstReply.countDown();
+        }
+    }
+
+    /**
+     * 在应答者的线程环境中运行它，如果当前线程就是应答者的线程，直接在当前线程中运行。
+     */
+    void dispatch(@NonNull final ViewModelResponder responder, @NonNull final Object request) {
+        mCompletion.add();
+        ViewModelScheduler viewModelScheduler = responder.getViewModelScheduler();
+        if (viewModelScheduler == null ||
+                viewModelScheduler instanceof AndroidViewModelScheduler &&
+                        ((AndroidViewModelScheduler) viewModelScheduler).isCurrentThread()) {
+            respond(responder, request);
+        } else {
+            viewModelScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    respond(responder, request);
+                }
+            });
+        }
+    }
+
+    /**
+     * 所有应答者都已经分发之后调用。
+     */
+    void seal() {
+        mCompletion.seal();
+        if (mCompletion.isDone()) {
+            mFirstReply.countDown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * {@link ViewModelCommand} 的限流策略，参见 {@link ViewModelCommand#debounce(long)}、
+ * {@link ViewModelCommand#throttleFirst(long)} 和 {@link ViewModelCommand#throttleLatest(long)}。
+ * <p>
+ * 每个命令最多只有一个等待触发的定时任务，并且这个定时任务就是 RateLimiter 自己，
+ * 所以被丢弃或者被覆盖的事件不会分配任何对象，也不会调度任何任务。
+ */
+
+final class RateLimiter implements Runnable {
+
+    static final int DEBOUNCE = 0;
+    static final int THROTTLE_FIRST = 1;
+    static final int THROTTLE_LATEST = 2;
+
+
+    private final ViewModelCommand mCommand;
+    private final int mMode;
+    private final long mWindowNanos;
+
+    /**
+     * 等待在定时任务中运行的最新数据，没有时为 null。
+     */
+    private Object mPending;
+    private boolean mTimerScheduled;
+    private long mLastEventNanos;
+    private long mWindowEndNanos;
+
+
+    RateLimiter(@NonNull ViewModelCommand command, int mode, long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + windowMillis);
+        }
+        mCommand = command;
+        mMode = mode;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+
+    /**
+     * 一个事件到来时调用。
+     *
+     * @param item 数据
+     * @return 需要立即运行这个事件时返回 true，被推迟或者丢弃时返回 false
+     */
+    boolean offer(@NonNull Object item) {
+        long now = System.nanoTime();
+        long delay;
+        synchronized (this) {
+            switch (mMode) {
+                case THROTTLE_FIRST:
+                    if (now - mWindowEndNanos >= 0) {
+                        mWindowEndNanos = now + mWindowNanos;
+                        return true;
+                    }
+                    return false;
+                case THROTTLE_LATEST:
+                    if (!mTimerScheduled && now - mWindowEndNanos >= 0) {
+                        mWindowEndNanos = now + mWindowNanos;
+                        return true;
+                    }
+                    mPending = item;
+                    if (mTimerScheduled) {
+                        return false;
+                    }
+                    delay = mWindowEndNanos - now;
+                    break;
+                default:
+                    mPending = item;
+                    mLastEventNanos = now;
+                    if (mTimerScheduled) {
+                        return false;
+                    }
+                    delay = mWindowNanos;
+                    break;
+            }
+            mTimerScheduled = true;
+        }
+        TimerWheel.getInstance().schedule(this, delay);
+
+        return false;
+    }
+
+    /**
+     * 定时任务触发。
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        Object item;
+        synchronized (this) {
+            if (mMode == DEBOUNCE) {
+                long remaining = mLastEventNanos + mWindowNanos - now;
+                if (remaining > 0) {
+                    // 等待期间又有新的事件，继续等待，仍然只有这一个定时任务
+                    TimerWheel.getInstance().schedule(this, remaining);
+                    return;
+                }
+            } else {
+                mWindowEndNanos = now + mWindowNanos;
+            }
+            item = mPending;
+            mPending = null;
+            mTimerScheduled = false;
+        }
+        if (item != null) {
+            mCommand.executeNow(item);
+        }
+    }
+
+    /**
+     * 丢弃等待中的数据。
+     */
+    synchronized void clear() {
+        mPending = null;
+    }
+}
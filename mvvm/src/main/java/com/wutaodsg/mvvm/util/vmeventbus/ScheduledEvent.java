@@ -0,0 +1,102 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 一个等待在 {@link TimerWheel} 中触发的定时任务，由 {@link ViewModelEventBus#postDelayed(String, Object, long)}、
+ * {@link ViewModelEventBus#postAt(String, Object, long)} 和
+ * {@link ViewModelEventBus#postPeriodically(String, Object, long, long)} 返回。
+ * <p>
+ * 调用 {@link #cancel()} 可以取消它：取消只是修改一个状态，然后把它交给定时器线程从时间轮中摘除，
+ * 开销是 O(1) 的，不会遍历其他定时任务。
+ */
+
+public final class ScheduledEvent {
+
+    static final int STATE_WAITING = 0;
+    static final int STATE_CANCELLED = 1;
+    static final int STATE_EXPIRED = 2;
+
+
+    final Runnable mTask;
+    /**
+     * 触发时间，相对于 {@link TimerWheel} 的启动时间（纳秒）。
+     */
+    long mDeadline;
+    /**
+     * 周期（纳秒），一次性的定时任务为 0。
+     */
+    final long mPeriodNanos;
+    /**
+     * 在时间轮上还需要转过的圈数，只在定时器线程中访问。
+     */
+    long mRemainingRounds;
+
+    /**
+     * 所在的桶以及桶中的双向链表，只在定时器线程中访问。
+     */
+    TimerWheel.Bucket mBucket;
+    ScheduledEvent mPrev;
+    ScheduledEvent mNext;
+
+    private final TimerWheel mTimerWheel;
+    private final AtomicInteger mState = new AtomicInteger(STATE_WAITING);
+
+
+    ScheduledEvent(@NonNull TimerWheel timerWheel, @NonNull Runnable task, long deadline, long periodNanos) {
+        mTimerWheel = timerWheel;
+        mTask = task;
+        mDeadline = deadline;
+        mPeriodNanos = periodNanos;
+    }
+
+
+    /**
+     * 取消这个定时任务。周期性的定时任务取消后不会再触发。
+     *
+     * @return 取消成功返回 true，已经取消或者一次性的定时任务已经触发返回 false
+     */
+    public boolean cancel() {
+        if (!mState.compareAndSet(STATE_WAITING, STATE_CANCELLED)) {
+            return false;
+        }
+
+        mTimerWheel.onCancelled(this);
+
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return mState.get() == STATE_CANCELLED;
+    }
+
+    /**
+     * 一次性的定时任务是否已经触发。周期性的定时任务总是返回 false。
+     *
+     * @return 已经触发返回 true，否则返回 false
+     */
+    public boolean isExpired() {
+        return mState.get() == STATE_EXPIRED;
+    }
+
+    public boolean isPeriodic() {
+        return mPeriodNanos > 0;
+    }
+
+
+    /**
+     * 由定时器线程在触发前调用，一次性的定时任务会进入 {@link #STATE_EXPIRED}。
+     *
+     * @return 仍然需要运行返回 true，已经取消返回 false
+     */
+    boolean expire() {
+        if (mPeriodNanos > 0) {
+            return mState.get() == STATE_WAITING;
+        }
+
+        return mState.compareAndSet(STATE_WAITING, STATE_EXPIRED);
+    }
+}
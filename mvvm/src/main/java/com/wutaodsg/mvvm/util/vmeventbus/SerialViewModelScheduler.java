@@ -0,0 +1,86 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * {@link ViewModelScheduler} 的实现类，在另一个 ViewModelScheduler（通常是线程池）之上提供一条串行通道：
+ * 任务按照调度的顺序依次运行，同一时间最多只有一个任务在运行，但不需要为它单独创建线程。
+ * <p>
+ * 任务先放入一个无锁队列，再用一个计数器记录还没有运行的任务数量。计数器从 0 变为 1 的调度者
+ * 负责把排空任务交给底层的 ViewModelScheduler，排空任务在一个池线程中依次运行队列中的任务，
+ * 直到计数器降为 0。所以空闲的串行通道不占用任何线程，没有竞争时调度一个任务也只需要一次入队和一次原子加法。
+ * <p>
+ * 排空任务每次最多运行 {@link #MAX_TASKS_PER_RUN} 个任务，然后重新调度自己，避免一条繁忙的串行通道长时间
+ * 占用一个池线程。任务抛出异常时，剩余的任务会被重新调度，异常仍然交给底层的线程处理。
+ * <p>
+ * 参见 {@link ViewModelSchedulers#serial(ViewModelScheduler)} 和 {@link ViewModelCommand#setOrdered(boolean)}。
+ */
+
+public class SerialViewModelScheduler implements ViewModelScheduler {
+
+    static final int MAX_TASKS_PER_RUN = 64;
+
+
+    private final ViewModelScheduler mViewModelScheduler;
+
+    private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    /**
+     * 已经调度但还没有运行完的任务数量。
+     */
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+
+    public SerialViewModelScheduler(@NonNull ViewModelScheduler viewModelScheduler) {
+        mViewModelScheduler = viewModelScheduler;
+    }
+
+
+    @Override
+    public void schedule(@NonNull Runnable task) {
+        // 先入队再计数，计数器大于 0 时队列中一定有任务
+        mTasks.offer(task);
+        if (mPendingCount.getAndIncrement() == 0) {
+            mViewModelScheduler.schedule(mDrainTask);
+        }
+    }
+
+    @NonNull
+    public ViewModelScheduler getViewModelScheduler() {
+        return mViewModelScheduler;
+    }
+
+
+    private void drain() {
+        for (int count = 1; ; count++) {
+            Runnable task = mTasks.poll();
+            boolean completed = false;
+            try {
+                task.run();
+                completed = true;
+            } finally {
+                if (!completed && mPendingCount.decrementAndGet() != 0) {
+                    // 不能让一个任务的异常阻塞整条通道
+                    mViewModelScheduler.schedule(mDrainTask);
+                }
+            }
+
+            if (mPendingCount.decrementAndGet() == 0) {
+                return;
+            }
+            if (count == MAX_TASKS_PER_RUN) {
+                mViewModelScheduler.schedule(mDrainTask);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 保存一个 event tag 下最近发送的粘性事件的环形缓冲区，参见
+ * {@link ViewModelEventBus#postSticky(String, Object)}。
+ * <p>
+ * 缓冲区最多保存 capacity 个事件，超出时覆盖最旧的事件；保存时间超过 maxAgeMillis 的事件
+ * 也会被淘汰，所以它占用的内存是有上限的。
+ */
+
+final class StickyBuffer {
+
+    private final Object[] mEvents;
+    private final long[] mTimestamps;
+    private final long mMaxAgeNanos;
+
+    private int mHead;
+    private int mSize;
+
+
+    /**
+     * @param capacity     最多保存的事件数量
+     * @param maxAgeMillis 事件的最长保存时间，小于等于 0 表示不限制
+     */
+    StickyBuffer(int capacity, long maxAgeMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mEvents = new Object[capacity];
+        mTimestamps = new long[capacity];
+        mMaxAgeNanos = maxAgeMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(maxAgeMillis) : 0;
+    }
+
+
+    synchronized void add(@NonNull Object event) {
+        int tail = (mHead + mSize) % mEvents.length;
+        mEvents[tail] = event;
+        mTimestamps[tail] = System.nanoTime();
+        if (mSize < mEvents.length) {
+            mSize++;
+        } else {
+            mHead = (mHead + 1) % mEvents.length;
+        }
+    }
+
+    /**
+     * 返回没有过期的事件，由旧到新排列。
+     *
+     * @return 事件列表
+     */
+    @NonNull
+    synchronized List<Object> snapshot() {
+        evictExpired();
+        List<Object> events = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            events.add(mEvents[(mHead + i) % mEvents.length]);
+        }
+
+        return events;
+    }
+
+
+    private void evictExpired() {
+        if (mMaxAgeNanos <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        while (mSize > 0 && now - mTimestamps[mHead] > mMaxAgeNanos) {
+            mEvents[mHead] = null;
+            mHead = (mHead + 1) % mEvents.length;
+            mSize--;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 分段计数器，供 {@link EventBusMetrics} 使用。
+ * <p>
+ * 不同的线程根据线程 id 累加到不同的段中，每个段独占一个缓存行，避免多个线程同时发送事件时
+ * 竞争同一个变量。读取时把所有段加起来，所以读取的开销比较大，但读取只发生在获取快照时。
+ */
+
+final class StripedCounter {
+
+    /**
+     * 每个段占用的 long 数量，8 个 long 是 64 字节，也就是一个缓存行。
+     */
+    static final int PADDING = 8;
+
+    static final int STRIPES = stripes();
+
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+
+    void add(long x) {
+        mCells.getAndAdd(stripe() * PADDING, x);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * PADDING);
+        }
+
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            mCells.set(i * PADDING, 0);
+        }
+    }
+
+
+    /**
+     * 返回当前线程使用的段。
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+        return (h >>> 16) & (STRIPES - 1);
+    }
+
+    /**
+     * 段的数量是不小于 CPU 数量两倍的 2 的幂，最多 64 个。
+     */
+    private static int stripes() {
+        int n = Math.min(Runtime.getRuntime().availableProcessors() * 2, 64);
+
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 用在 {@link com.wutaodsg.mvvm.core.BaseViewModel} 的方法上，声明这个方法是 event tag 的事件处理方法。
+ * 生成的索引在另一个包中，所以方法和声明它的类都必须是 public 的，方法不能是 static 的，
+ * 并且最多只能有一个参数，参数的类型就是接受的数据类型；
+ * 没有参数的方法接受不需要数据的事件。
+ * <p>
+ * 注解在编译期由 mvvm-compiler 处理，生成一个 {@link SubscriberIndex}，运行时不会使用反射。
+ * 需要在 build.gradle 中通过 <code>mvvmSubscriberIndex</code> 参数指定生成类的完整类名，
+ * 然后调用 {@link ViewModelEventBus#addSubscriberIndex(SubscriberIndex)} 添加这个索引，
+ * 再调用 {@link ViewModelEventBus#registerSubscribers(com.wutaodsg.mvvm.core.BaseViewModel)}
+ * 注册 ViewModel 的所有事件处理方法。
+ * <p>
+ * 例如：<br/>
+ * {@code @Subscribe(tag = ViewModelEventTags.TEXT, scheduler = Subscribe.SchedulerType.MAIN_THREAD)
+ *        public void onText(String text)}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.CLASS)
+public @interface Subscribe {
+
+    /**
+     * 事件标志。
+     */
+    String tag();
+
+    /**
+     * 事件处理方法运行的线程环境，默认运行在发布事件者的线程中。
+     */
+    SchedulerType scheduler() default SchedulerType.POSTING;
+
+    /**
+     * 事件处理方法的优先级，参见 {@link ViewModelCommand#setPriority(int)}。
+     */
+    int priority() default ViewModelCommand.DEFAULT_PRIORITY;
+
+    /**
+     * 是否按照事件发送的顺序依次运行事件处理方法，参见 {@link ViewModelCommand#setOrdered(boolean)}。
+     */
+    boolean ordered() default false;
+
+
+    /**
+     * 事件处理方法运行的线程环境，对应于 {@link ViewModelSchedulers} 中的各个 ViewModelScheduler。
+     */
+    enum SchedulerType {
+
+        /**
+         * 运行在发布事件者的线程中。
+         */
+        POSTING,
+
+        /**
+         * {@link ViewModelSchedulers#mainThread()}
+         */
+        MAIN_THREAD,
+
+        /**
+         * {@link ViewModelSchedulers#computation()}
+         */
+        COMPUTATION,
+
+        /**
+         * {@link ViewModelSchedulers#io()}
+         */
+        IO,
+
+        /**
+         * {@link ViewModelSchedulers#single()}
+         */
+        SINGLE,
+
+        /**
+         * {@link ViewModelSchedulers#idle()}
+         */
+        IDLE
+    }
+}
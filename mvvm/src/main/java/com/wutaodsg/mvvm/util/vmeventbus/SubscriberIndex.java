@@ -0,0 +1,29 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+
+/**
+ * 由 mvvm-compiler 根据 {@link Subscribe} 注解生成的订阅者索引，
+ * 负责把一个 ViewModel 类型中声明的所有事件处理方法注册到 {@link SubscriptionScope} 中。
+ * <p>
+ * 生成的实现直接调用事件处理方法，不使用反射，所有事件处理方法共用一个分发类，
+ * 不会为每个方法生成一个匿名类。
+ */
+
+public interface SubscriberIndex {
+
+    /**
+     * 注册 viewModelClass 中声明的事件处理方法，不包括父类中声明的方法。
+     *
+     * @param viewModelClass 声明事件处理方法的类型，是 viewModel 的类型或它的父类
+     * @param viewModel      ViewModel 对象
+     * @param scope          注册使用的订阅作用域
+     * @return 注册成功的事件处理方法数量，如果这个索引中没有 viewModelClass 返回 -1
+     */
+    int register(@NonNull Class<?> viewModelClass,
+                 @NonNull BaseViewModel viewModel,
+                 @NonNull SubscriptionScope scope);
+}
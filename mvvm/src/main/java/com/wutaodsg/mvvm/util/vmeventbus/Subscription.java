@@ -0,0 +1,133 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+
+/**
+ * 订阅句柄，代表一次 {@link ViewModelEventBus} 的注册记录，由
+ * <code>subscribe</code> 方法返回。
+ * <p>
+ * 调用 {@link #unsubscribe()} 可以直接取消这次注册：订阅句柄持有自己的 {@link EventKey}，
+ * 所以不需要在所有 event tag 和所有命令中进行查找，只会改动这个事件键下的订阅者数组。
+ * <p>
+ * 通过 <code>subscribeWeakly</code> 方法得到的订阅句柄只弱引用命令和 ViewModel，
+ * 参见 {@link ViewModelEventBus#subscribeWeakly(String, Class, ViewModelCommand)}。
+ */
+
+public final class Subscription {
+
+    final ViewModelEventBus mEventBus;
+    final EventKey mEventKey;
+    final Class mViewModelClass;
+    /**
+     * 注册时命令的优先级，之后修改命令的优先级不会影响这次注册。
+     */
+    final int mPriority;
+
+    /**
+     * 强引用模式下持有命令和 ViewModel，弱引用模式下为 null。
+     */
+    @Nullable
+    private final ViewModelCommand mCommand;
+    @Nullable
+    private final BaseViewModel mViewModel;
+
+    /**
+     * 弱引用模式下持有命令和 ViewModel 的弱引用，强引用模式下为 null。
+     */
+    @Nullable
+    private final CommandReference mCommandRef;
+    @Nullable
+    private final WeakReference<BaseViewModel> mViewModelRef;
+
+    volatile boolean mUnsubscribed;
+
+
+    Subscription(@NonNull ViewModelEventBus eventBus,
+                 @NonNull EventKey eventKey,
+                 @NonNull ViewModelCommand command,
+                 @Nullable ReferenceQueue<ViewModelCommand> referenceQueue) {
+        mEventBus = eventBus;
+        mEventKey = eventKey;
+        mViewModelClass = command.getViewModel().getClass();
+        mPriority = command.getPriority();
+        if (referenceQueue == null) {
+            mCommand = command;
+            mViewModel = command.getViewModel();
+            mCommandRef = null;
+            mViewModelRef = null;
+        } else {
+            mCommand = null;
+            mViewModel = null;
+            mCommandRef = new CommandReference(command, referenceQueue, this);
+            mViewModelRef = new WeakReference<>(command.getViewModel());
+        }
+    }
+
+
+    /**
+     * 取消这次注册。
+     *
+     * @return 取消注册成功返回 true，如果已经取消过了返回 false
+     */
+    public boolean unsubscribe() {
+        return !mUnsubscribed && mEventBus.unsubscribe(this);
+    }
+
+    public boolean isUnsubscribed() {
+        return mUnsubscribed;
+    }
+
+    public boolean isWeak() {
+        return mCommandRef != null;
+    }
+
+    @NonNull
+    public EventKey getEventKey() {
+        return mEventKey;
+    }
+
+    /**
+     * 返回注册的 ViewModel。
+     *
+     * @return ViewModel 对象，弱引用模式下 ViewModel 已经被回收时返回 null
+     */
+    @Nullable
+    public BaseViewModel getViewModel() {
+        return mCommandRef == null ? mViewModel : mViewModelRef.get();
+    }
+
+
+    /**
+     * 返回注册的命令。
+     *
+     * @return 命令，弱引用模式下命令已经被回收时返回 null
+     */
+    @Nullable
+    ViewModelCommand getCommand() {
+        return mCommandRef == null ? mCommand : mCommandRef.get();
+    }
+
+
+    /**
+     * 命令的弱引用，被回收后会进入 ViewModelEventBus 的引用队列，通过它找到对应的注册记录。
+     */
+    static final class CommandReference extends WeakReference<ViewModelCommand> {
+
+        final Subscription mSubscription;
+
+
+        CommandReference(@NonNull ViewModelCommand command,
+                         @NonNull ReferenceQueue<ViewModelCommand> referenceQueue,
+                         @NonNull Subscription subscription) {
+            super(command, referenceQueue);
+            mSubscription = subscription;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 订阅作用域，记录通过它进行的所有注册，并可以通过 {@link #releaseAll()} 一次性取消。
+ * <p>
+ * 每个 {@link com.wutaodsg.mvvm.core.BaseViewModel} 都拥有一个订阅作用域，参见
+ * {@link com.wutaodsg.mvvm.core.BaseViewModel#getSubscriptionScope()}。通过它进行的注册会在
+ * ViewModel 的 <code>onDetach</code> 或 <code>onCleared</code> 方法中被自动取消，
+ * 不需要再手动编写成对的取消注册代码。
+ * <p>
+ * 取消注册时只会遍历这个作用域自己的注册列表，并且只获取一次 ViewModelEventBus 的锁，
+ * 不会在 event tag 和命令中进行查找。
+ * <p>
+ * 通过 {@link #registerResponder(String, Class, Class, ViewModelResponder)} 注册的应答者同样会在
+ * {@link #releaseAll()} 时被取消。
+ */
+
+public final class SubscriptionScope {
+
+    private final ViewModelEventBus mEventBus;
+
+    private final List<Subscription> mSubscriptions = new ArrayList<>();
+    /**
+     * 通过这个作用域注册的应答者，在 mSubscriptions 锁中访问。
+     */
+    private final List<ResponderEntry> mResponders = new ArrayList<>();
+
+
+    public SubscriptionScope(@NonNull ViewModelEventBus eventBus) {
+        mEventBus = eventBus;
+    }
+
+
+    /**
+     * 在这个作用域中注册，参见 {@link ViewModelEventBus#subscribe(String, Class, ViewModelCommand)}。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass ViewModel 将会接受的数据的类型
+     * @param command   事件来临时进行的操作
+     * @param <T>       数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribe(@NonNull String eventTag,
+                                      @NonNull Class<T> dataClass,
+                                      @NonNull ViewModelCommand<T> command) {
+        return add(mEventBus.subscribe(eventTag, dataClass, command));
+    }
+
+    /**
+     * 在这个作用域中注册不接受数据的命令，参见 {@link ViewModelEventBus#subscribe(String, ViewModelCommand)}。
+     *
+     * @param eventTag 事件标志
+     * @param command  事件来临时进行的操作
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public Subscription subscribe(@NonNull String eventTag,
+                                  @NonNull ViewModelCommand command) {
+        return add(mEventBus.subscribe(eventTag, command));
+    }
+
+    /**
+     * 在这个作用域中注册，参见 {@link ViewModelEventBus#subscribe(EventKey, ViewModelCommand)}。
+     *
+     * @param eventKey 事件键
+     * @param command  事件来临时进行的操作
+     * @param <T>      数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribe(@NonNull EventKey<T> eventKey,
+                                      @NonNull ViewModelCommand<T> command) {
+        return add(mEventBus.subscribe(eventKey, command));
+    }
+
+    /**
+     * 在这个作用域中注册应答者，参见 {@link ViewModelEventBus#registerResponder(String, Class, Class, ViewModelResponder)}。
+     *
+     * @param eventTag     事件标志
+     * @param requestClass 请求的类型
+     * @param replyClass   应答的类型
+     * @param responder    应答者
+     * @param <T>          请求的类型
+     * @param <R>          应答的类型
+     * @return 注册成功返回 true，如果已经注册了返回 false
+     */
+    public <T, R> boolean registerResponder(@NonNull String eventTag,
+                                            @NonNull Class<T> requestClass,
+                                            @NonNull Class<R> replyClass,
+                                            @NonNull ViewModelResponder<T, R> responder) {
+        if (!mEventBus.registerResponder(eventTag, requestClass, replyClass, responder)) {
+            return false;
+        }
+        synchronized (mSubscriptions) {
+            mResponders.add(new ResponderEntry(eventTag, responder));
+        }
+
+        return true;
+    }
+
+    /**
+     * 将一个已有的注册记录加入这个作用域，它会在 {@link #releaseAll()} 时被取消。
+     *
+     * @param subscription 注册记录，为 null 时什么都不做
+     * @return subscription
+     */
+    @Nullable
+    public Subscription add(@Nullable Subscription subscription) {
+        if (subscription != null) {
+            synchronized (mSubscriptions) {
+                mSubscriptions.add(subscription);
+            }
+        }
+
+        return subscription;
+    }
+
+    /**
+     * 取消这个作用域中的所有注册。
+     *
+     * @return 被取消的注册数量
+     */
+    public int releaseAll() {
+        Subscription[] subscriptions;
+        ResponderEntry[] responders;
+        synchronized (mSubscriptions) {
+            if (mSubscriptions.isEmpty() && mResponders.isEmpty()) {
+                return 0;
+            }
+            subscriptions = mSubscriptions.toArray(new Subscription[mSubscriptions.size()]);
+            mSubscriptions.clear();
+            responders = mResponders.toArray(new ResponderEntry[mResponders.size()]);
+            mResponders.clear();
+        }
+
+        int count = subscriptions.length == 0 ? 0 : mEventBus.unsubscribeAll(subscriptions);
+        for (ResponderEntry entry : responders) {
+            if (mEventBus.unregisterResponder(entry.mEventTag, entry.mResponder)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 返回这个作用域中的注册数量。
+     *
+     * @return 注册数量
+     */
+    public int size() {
+        synchronized (mSubscriptions) {
+            return mSubscriptions.size() + mResponders.size();
+        }
+    }
+
+    @NonNull
+    public ViewModelEventBus getEventBus() {
+        return mEventBus;
+    }
+
+
+    private static final class ResponderEntry {
+
+        final String mEventTag;
+        final ViewModelResponder mResponder;
+
+
+        ResponderEntry(@NonNull String eventTag, @NonNull ViewModelResponder responder) {
+            mEventTag = eventTag;
+            mResponder = responder;
+        }
+    }
+}
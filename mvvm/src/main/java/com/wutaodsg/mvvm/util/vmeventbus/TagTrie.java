@@ -0,0 +1,264 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 通配符 event tag 的字典树索引。
+ * <p>
+ * event tag 按照 '.' 分为多段，例如 <code>user.profile.avatar</code>。通配符 event tag 中：
+ * <p>
+ * 1. <code>*</code> 匹配任意一段，例如 <code>user.*.avatar</code> 匹配 <code>user.profile.avatar</code>；<br/>
+ * 2. <code>**</code> 只能作为最后一段，匹配一段或者多段，例如 <code>user.**</code> 匹配
+ * <code>user.profile</code> 和 <code>user.profile.avatar</code>，但不匹配 <code>user</code>。<br/>
+ * <p>
+ * 字典树中只保存通配符 event tag，按段逐层建立节点，并记录每个通配符 event tag 的注册数量，
+ * 数量降为 0 时移除。修改只在 {@link ViewModelEventBus} 的锁中进行；查找不需要加锁，
+ * 查找的结果由 ViewModelEventBus 按照具体的 event tag 缓存，所以只在注册变化后才会查找。
+ */
+
+final class TagTrie {
+
+    static final char SEPARATOR = '.';
+    static final String SINGLE_WILDCARD = "*";
+    static final String MULTI_WILDCARD = "**";
+
+
+    private final Node mRoot = new Node();
+    private volatile int mPatternCount;
+
+
+    /**
+     * event tag 中是否含有通配符。
+     *
+     * @param eventTag 事件标志
+     * @return 含有返回 true，否则返回 false
+     */
+    static boolean isPattern(@NonNull String eventTag) {
+        return eventTag.indexOf('*') >= 0;
+    }
+
+    /**
+     * 检查通配符 event tag 的格式。
+     *
+     * @param pattern 通配符 event tag
+     * @throws IllegalArgumentException 格式错误
+     */
+    static void checkPattern(@NonNull String pattern) {
+        String[] segments = split(pattern);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Empty segment in event tag: " + pattern);
+            }
+            if (segment.indexOf('*') >= 0 && !SINGLE_WILDCARD.equals(segment) &&
+                    !MULTI_WILDCARD.equals(segment)) {
+                throw new IllegalArgumentException("Wildcard must be a whole segment: " + pattern);
+            }
+            if (MULTI_WILDCARD.equals(segment) && i != segments.length - 1) {
+                throw new IllegalArgumentException("'**' must be the last segment: " + pattern);
+            }
+        }
+    }
+
+    /**
+     * 通配符 event tag 是否匹配具体的 event tag。
+     *
+     * @param pattern  通配符 event tag
+     * @param eventTag 具体的 event tag
+     * @return 匹配返回 true，否则返回 false
+     */
+    static boolean matches(@NonNull String pattern, @NonNull String eventTag) {
+        String[] patternSegments = split(pattern);
+        String[] segments = split(eventTag);
+        for (int i = 0; i < patternSegments.length; i++) {
+            String patternSegment = patternSegments[i];
+            if (MULTI_WILDCARD.equals(patternSegment)) {
+                return segments.length > i;
+            }
+            if (i >= segments.length ||
+                    !SINGLE_WILDCARD.equals(patternSegment) && !patternSegment.equals(segments[i])) {
+                return false;
+            }
+        }
+
+        return patternSegments.length == segments.length;
+    }
+
+
+    boolean isEmpty() {
+        return mPatternCount == 0;
+    }
+
+    /**
+     * 增加一个通配符 event tag 的注册数量。必须在 ViewModelEventBus 的锁中调用。
+     *
+     * @param pattern 已经通过 {@link #checkPattern(String)} 检查的通配符 event tag
+     */
+    void add(@NonNull String pattern) {
+        String[] segments = split(pattern);
+        Node node = mRoot;
+        boolean multi = MULTI_WILDCARD.equals(segments[segments.length - 1]);
+        int depth = multi ? segments.length - 1 : segments.length;
+        for (int i = 0; i < depth; i++) {
+            Node child = node.mChildren.get(segments[i]);
+            if (child == null) {
+                child = new Node();
+                node.mChildren.put(segments[i], child);
+            }
+            node = child;
+        }
+        if (multi) {
+            node.mMultiPattern = pattern;
+            node.mMultiCount++;
+        } else {
+            node.mPattern = pattern;
+            node.mCount++;
+        }
+        mPatternCount++;
+    }
+
+    /**
+     * 减少一个通配符 event tag 的注册数量，降为 0 时移除它。必须在 ViewModelEventBus 的锁中调用。
+     *
+     * @param pattern 通配符 event tag
+     */
+    void remove(@NonNull String pattern) {
+        String[] segments = split(pattern);
+        boolean multi = MULTI_WILDCARD.equals(segments[segments.length - 1]);
+        int depth = multi ? segments.length - 1 : segments.length;
+        Node[] path = new Node[depth + 1];
+        path[0] = mRoot;
+        for (int i = 0; i < depth; i++) {
+            path[i + 1] = path[i].mChildren.get(segments[i]);
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+
+        Node node = path[depth];
+        if (multi) {
+            if (node.mMultiCount == 0) {
+                return;
+            }
+            if (--node.mMultiCount == 0) {
+                node.mMultiPattern = null;
+            }
+        } else {
+            if (node.mCount == 0) {
+                return;
+            }
+            if (--node.mCount == 0) {
+                node.mPattern = null;
+            }
+        }
+        mPatternCount--;
+
+        // 自底向上移除不再需要的节点
+        for (int i = depth; i > 0 && path[i].isUnused(); i--) {
+            path[i - 1].mChildren.remove(segments[i - 1]);
+        }
+    }
+
+    /**
+     * 移除所有通配符 event tag。必须在 ViewModelEventBus 的锁中调用。
+     */
+    void clear() {
+        mRoot.mChildren.clear();
+        mRoot.mPattern = null;
+        mRoot.mCount = 0;
+        mRoot.mMultiPattern = null;
+        mRoot.mMultiCount = 0;
+        mPatternCount = 0;
+    }
+
+    /**
+     * 查找所有匹配具体 event tag 的通配符 event tag。
+     *
+     * @param eventTag 具体的 event tag
+     * @param result   匹配的通配符 event tag 会被添加到这里
+     */
+    void match(@NonNull String eventTag, @NonNull List<String> result) {
+        if (mPatternCount == 0) {
+            return;
+        }
+
+        match(mRoot, split(eventTag), 0, result);
+    }
+
+
+    private static void match(@NonNull Node node,
+                              @NonNull String[] segments,
+                              int index,
+                              @NonNull List<String> result) {
+        if (index == segments.length) {
+            String pattern = node.mPattern;
+            if (pattern != null) {
+                result.add(pattern);
+            }
+            return;
+        }
+
+        String multiPattern = node.mMultiPattern;
+        if (multiPattern != null) {
+            result.add(multiPattern);
+        }
+        Node child = node.mChildren.get(segments[index]);
+        if (child != null) {
+            match(child, segments, index + 1, result);
+        }
+        if (!SINGLE_WILDCARD.equals(segments[index])) {
+            Node wildcard = node.mChildren.get(SINGLE_WILDCARD);
+            if (wildcard != null) {
+                match(wildcard, segments, index + 1, result);
+            }
+        }
+    }
+
+    @NonNull
+    private static String[] split(@NonNull String eventTag) {
+        int count = 1;
+        for (int i = 0; i < eventTag.length(); i++) {
+            if (eventTag.charAt(i) == SEPARATOR) {
+                count++;
+            }
+        }
+
+        String[] segments = new String[count];
+        int start = 0;
+        for (int i = 0; i < count - 1; i++) {
+            int end = eventTag.indexOf(SEPARATOR, start);
+            segments[i] = eventTag.substring(start, end);
+            start = end + 1;
+        }
+        segments[count - 1] = eventTag.substring(start);
+
+        return segments;
+    }
+
+
+    private static final class Node {
+
+        final ConcurrentHashMap<String, Node> mChildren = new ConcurrentHashMap<>(2);
+
+        /**
+         * 在这个节点结束的通配符 event tag 及其注册数量。
+         */
+        volatile String mPattern;
+        int mCount;
+
+        /**
+         * 在这个节点之后以 <code>**</code> 结束的通配符 event tag 及其注册数量。
+         */
+        volatile String mMultiPattern;
+        int mMultiCount;
+
+
+        boolean isUnused() {
+            return mCount == 0 && mMultiCount == 0 && mChildren.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * {@link ViewModelEventBus} 点对点发送事件时使用的缓存，缓存 (event tag, 数据类型, ViewModel 类型)
+ * 到目标注册记录的查找结果。
+ * <p>
+ * 缓存是组相联（set-associative）的：每个键根据哈希值落在一个含有 {@link #WAYS} 个槽位的组中，
+ * 组内使用 CLOCK（second chance）算法淘汰最近没有被访问过的项。所有操作都只使用 CAS，没有锁。
+ * <p>
+ * 每一项都记录了解析它时的订阅者数组。由于注册和取消注册总是会替换掉订阅者数组，
+ * 只要订阅者数组发生了变化，对应的缓存项就会失效，不会返回错误的目标。
+ */
+
+final class TargetedDispatchCache {
+
+    static final int WAYS = 4;
+
+    private static final int DEFAULT_SETS = 16;
+
+
+    private final AtomicReferenceArray<Entry> mEntries;
+    private final int mSetMask;
+
+
+    TargetedDispatchCache() {
+        this(DEFAULT_SETS);
+    }
+
+    /**
+     * @param sets 组的数量，必须是 2 的幂
+     */
+    TargetedDispatchCache(int sets) {
+        if (Integer.bitCount(sets) != 1) {
+            throw new IllegalArgumentException("sets must be a power of two: " + sets);
+        }
+        mEntries = new AtomicReferenceArray<>(sets * WAYS);
+        mSetMask = sets - 1;
+    }
+
+
+    /**
+     * 查找缓存项。
+     *
+     * @param eventKey       事件键
+     * @param viewModelClass ViewModel 的类型
+     * @param subscriptions  当前的订阅者数组
+     * @return 有效的缓存项，不存在或已经失效返回 null
+     */
+    @Nullable
+    Entry get(@NonNull EventKey eventKey,
+              @NonNull Class viewModelClass,
+              @Nullable Subscription[] subscriptions) {
+        int base = setIndex(eventKey, viewModelClass);
+        for (int i = base; i < base + WAYS; i++) {
+            Entry entry = mEntries.get(i);
+            if (entry != null && entry.mEventKey == eventKey && entry.mViewModelClass == viewModelClass) {
+                if (entry.mSource == subscriptions) {
+                    if (!entry.mReferenced) {
+                        entry.mReferenced = true;
+                    }
+
+                    return entry;
+                }
+                // 订阅者数组已经变化，这个缓存项失效了
+                mEntries.compareAndSet(i, entry, null);
+
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 缓存一次查找结果。
+     *
+     * @param eventKey       事件键
+     * @param viewModelClass ViewModel 的类型
+     * @param subscriptions  解析时的订阅者数组
+     * @param target         查找到的注册记录，为 null 表示没有匹配的 ViewModel
+     */
+    void put(@NonNull EventKey eventKey,
+             @NonNull Class viewModelClass,
+             @NonNull Subscription[] subscriptions,
+             @Nullable Subscription target) {
+        Entry newEntry = new Entry(eventKey, viewModelClass, subscriptions, target);
+        int base = setIndex(eventKey, viewModelClass);
+
+        // 优先使用空槽位或者替换同一个键的旧项
+        for (int i = base; i < base + WAYS; i++) {
+            Entry entry = mEntries.get(i);
+            if (entry == null ||
+                    entry.mEventKey == eventKey && entry.mViewModelClass == viewModelClass) {
+                if (mEntries.compareAndSet(i, entry, newEntry)) {
+                    return;
+                }
+            }
+        }
+
+        // CLOCK：清除被访问过的项的引用位，淘汰第一个没有被访问过的项
+        for (int round = 0; round < 2; round++) {
+            for (int i = base; i < base + WAYS; i++) {
+                Entry entry = mEntries.get(i);
+                if (entry == null || !entry.mReferenced) {
+                    if (mEntries.compareAndSet(i, entry, newEntry)) {
+                        return;
+                    }
+                } else {
+                    entry.mReferenced = false;
+                }
+            }
+        }
+        // 竞争激烈时放弃缓存，下一次查找会重新解析
+    }
+
+    /**
+     * 使 eventKey 下的所有缓存项失效，在取消注册时调用，避免缓存继续引用已经被移除的 ViewModel。
+     *
+     * @param eventKey 事件键
+     */
+    void invalidate(@NonNull EventKey eventKey) {
+        for (int i = 0; i < mEntries.length(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry != null && entry.mEventKey == eventKey) {
+                mEntries.compareAndSet(i, entry, null);
+            }
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < mEntries.length(); i++) {
+            mEntries.set(i, null);
+        }
+    }
+
+
+    private int setIndex(@NonNull EventKey eventKey, @NonNull Class viewModelClass) {
+        int h = eventKey.getId() * 31 + System.identityHashCode(viewModelClass);
+        h ^= h >>> 16;
+
+        return (h & mSetMask) * WAYS;
+    }
+
+
+    static final class Entry {
+
+        final EventKey mEventKey;
+        final Class mViewModelClass;
+        final Subscription[] mSource;
+        @Nullable
+        final Subscription mTarget;
+
+        volatile boolean mReferenced = true;
+
+
+        Entry(EventKey eventKey, Class viewModelClass, Subscription[] source, Subscription target) {
+            mEventKey = eventKey;
+            mViewModelClass = viewModelClass;
+            mSource = source;
+            mTarget = target;
+        }
+    }
+}
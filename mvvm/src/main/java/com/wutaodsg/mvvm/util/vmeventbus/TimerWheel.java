@@ -0,0 +1,303 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import com.wutaodsg.mvvm.util.log.LogUtils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * {@link ViewModelEventBus} 共享的哈希时间轮定时器，所有定时工作（延迟发送、周期发送、
+ * 命令的防抖和节流）都在同一个后台线程 "vm-event-timer" 中触发。
+ * <p>
+ * 时间轮有 {@link #WHEEL_SIZE} 个桶，每个桶对应 {@link #TICK_MILLIS} 毫秒。定时任务按照触发时间
+ * 放入对应的桶中，超过一圈的记录剩余圈数。调度时只是把定时任务放入一个无锁队列，
+ * 取消时只是修改状态并放入另一个无锁队列，都是 O(1) 的；定时器线程每一格时间把新的定时任务放入桶中，
+ * 从桶的双向链表中摘除取消的定时任务，然后触发到期的定时任务。所以即使有成千上万个等待中的定时任务，
+ * 调度和取消的开销也不会增加。
+ * <p>
+ * 触发的精度是一格时间。没有等待中的定时任务时，定时器线程会一直休眠，不会空转。
+ * <p>
+ * 定时任务运行在定时器线程中，应该尽快返回，需要较长时间的工作应该调度到其他线程环境中。
+ */
+
+final class TimerWheel {
+
+    private static final String TAG = "WuT.TimerWheel";
+
+    static final long TICK_MILLIS = 10;
+    static final int WHEEL_SIZE = 512;
+
+    /**
+     * 每一格时间最多从队列中取出的新定时任务数量，避免突发的大量调度让定时器线程落后太多。
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final TimerWheel sInstance = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS),
+            WHEEL_SIZE);
+
+
+    private final long mTickNanos;
+    private final Bucket[] mWheel;
+    private final int mMask;
+    private final long mStartNanos = System.nanoTime();
+
+    private final ConcurrentLinkedQueue<ScheduledEvent> mPending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ScheduledEvent> mCancelled = new ConcurrentLinkedQueue<>();
+    /**
+     * 尚未触发或者摘除的定时任务数量，为 0 时定时器线程休眠。
+     */
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+    private volatile Thread mWorkerThread;
+
+    /**
+     * 当前的格数，只在定时器线程中访问。
+     */
+    private long mTick;
+
+
+    /**
+     * @param tickNanos 每一格的时间（纳秒）
+     * @param wheelSize 桶的数量，必须是 2 的幂
+     */
+    TimerWheel(long tickNanos, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+        }
+        mTickNanos = tickNanos;
+        mWheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            mWheel[i] = new Bucket();
+        }
+        mMask = wheelSize - 1;
+    }
+
+
+    @NonNull
+    static TimerWheel getInstance() {
+        return sInstance;
+    }
+
+
+    /**
+     * 在 delayNanos 纳秒之后运行 task。
+     *
+     * @param task       任务
+     * @param delayNanos 延迟时间（纳秒）
+     * @return 定时任务
+     */
+    @NonNull
+    ScheduledEvent schedule(@NonNull Runnable task, long delayNanos) {
+        return schedule(task, delayNanos, 0);
+    }
+
+    /**
+     * 在 delayNanos 纳秒之后运行 task，然后每隔 periodNanos 纳秒运行一次，直到被取消。
+     *
+     * @param task        任务
+     * @param delayNanos  第一次运行的延迟时间（纳秒）
+     * @param periodNanos 周期（纳秒），为 0 表示只运行一次
+     * @return 定时任务
+     */
+    @NonNull
+    ScheduledEvent schedule(@NonNull Runnable task, long delayNanos, long periodNanos) {
+        if (periodNanos < 0) {
+            throw new IllegalArgumentException("period must not be negative: " + periodNanos);
+        }
+
+        long deadline = System.nanoTime() - mStartNanos + Math.max(delayNanos, 0);
+        ScheduledEvent scheduledEvent = new ScheduledEvent(this, task, deadline, periodNanos);
+        mPending.add(scheduledEvent);
+        if (mActiveCount.getAndIncrement() == 0) {
+            // 定时器线程可能正在无限期休眠
+            wakeUp();
+        }
+
+        return scheduledEvent;
+    }
+
+
+    /**
+     * 由 {@link ScheduledEvent#cancel()} 调用，每个定时任务最多调用一次。
+     */
+    void onCancelled(@NonNull ScheduledEvent scheduledEvent) {
+        mCancelled.add(scheduledEvent);
+    }
+
+
+    private void wakeUp() {
+        if (mStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Worker(), "vm-event-timer");
+            thread.setDaemon(true);
+            mWorkerThread = thread;
+            thread.start();
+        } else {
+            Thread thread = mWorkerThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private long elapsedNanos() {
+        return System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * 休眠到下一格时间开始，返回这一格的截止时间。没有定时任务时一直休眠，醒来后跳过休眠期间的空格。
+     */
+    private long waitForNextTick() {
+        while (mActiveCount.get() == 0) {
+            LockSupport.park(this);
+            // 休眠期间所有桶都是空的，直接跳到当前时间
+            mTick = elapsedNanos() / mTickNanos;
+        }
+
+        long deadline = mTickNanos * (mTick + 1);
+        for (; ; ) {
+            long sleepNanos = deadline - elapsedNanos();
+            if (sleepNanos <= 0) {
+                return deadline;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+    }
+
+    private void processCancelled() {
+        ScheduledEvent scheduledEvent;
+        while ((scheduledEvent = mCancelled.poll()) != null) {
+            Bucket bucket = scheduledEvent.mBucket;
+            if (bucket != null) {
+                bucket.remove(scheduledEvent);
+            }
+            // 还在 mPending 中的定时任务会在放入桶时被跳过
+            mActiveCount.decrementAndGet();
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            ScheduledEvent scheduledEvent = mPending.poll();
+            if (scheduledEvent == null) {
+                return;
+            }
+            if (!scheduledEvent.isCancelled()) {
+                place(scheduledEvent, mTick);
+            }
+        }
+    }
+
+    /**
+     * 把定时任务放入对应的桶中，不会早于 minTick。
+     */
+    private void place(@NonNull ScheduledEvent scheduledEvent, long minTick) {
+        long calculated = scheduledEvent.mDeadline / mTickNanos;
+        scheduledEvent.mRemainingRounds = Math.max(calculated - mTick, 0) / mWheel.length;
+        long ticks = Math.max(calculated, minTick);
+        mWheel[(int) (ticks & mMask)].add(scheduledEvent);
+    }
+
+    private void expire(@NonNull Bucket bucket, long deadline) {
+        ScheduledEvent scheduledEvent = bucket.mHead;
+        while (scheduledEvent != null) {
+            ScheduledEvent next = scheduledEvent.mNext;
+            if (scheduledEvent.mRemainingRounds <= 0 && scheduledEvent.mDeadline <= deadline) {
+                bucket.remove(scheduledEvent);
+                run(scheduledEvent);
+            } else if (scheduledEvent.mRemainingRounds > 0) {
+                scheduledEvent.mRemainingRounds--;
+            }
+            scheduledEvent = next;
+        }
+    }
+
+    private void run(@NonNull ScheduledEvent scheduledEvent) {
+        if (!scheduledEvent.expire()) {
+            // 已经取消，由 processCancelled 减少计数
+            return;
+        }
+
+        try {
+            scheduledEvent.mTask.run();
+        } catch (Throwable t) {
+            LogUtils.e(TAG, "Timer task threw an exception", t);
+        }
+
+        if (scheduledEvent.isPeriodic()) {
+            if (!scheduledEvent.isCancelled()) {
+                // 固定频率：下一次的触发时间基于上一次的触发时间，至少放到下一格，避免在这一格中重复触发
+                scheduledEvent.mDeadline += scheduledEvent.mPeriodNanos;
+                place(scheduledEvent, mTick + 1);
+            }
+        } else {
+            mActiveCount.decrementAndGet();
+        }
+    }
+
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            mTick = elapsedNanos() / mTickNanos;
+            for (; ; ) {
+                long deadline = waitForNextTick();
+                processCancelled();
+                transferPending();
+                expire(mWheel[(int) (mTick & mMask)], deadline);
+                mTick++;
+            }
+        }
+    }
+
+    /**
+     * 时间轮上的一个桶，是定时任务的双向链表，只在定时器线程中访问。
+     */
+    static final class Bucket {
+
+        ScheduledEvent mHead;
+        ScheduledEvent mTail;
+
+
+        void add(@NonNull ScheduledEvent scheduledEvent) {
+            scheduledEvent.mBucket = this;
+            scheduledEvent.mPrev = mTail;
+            scheduledEvent.mNext = null;
+            if (mTail == null) {
+                mHead = scheduledEvent;
+            } else {
+                mTail.mNext = scheduledEvent;
+            }
+            mTail = scheduledEvent;
+        }
+
+        void remove(@NonNull ScheduledEvent scheduledEvent) {
+            if (scheduledEvent.mBucket != this) {
+                return;
+            }
+
+            ScheduledEvent prev = scheduledEvent.mPrev;
+            ScheduledEvent next = scheduledEvent.mNext;
+            if (prev == null) {
+                mHead = next;
+            } else {
+                prev.mNext = next;
+            }
+            if (next == null) {
+                mTail = prev;
+            } else {
+                next.mPrev = prev;
+            }
+            scheduledEvent.mBucket = null;
+            scheduledEvent.mPrev = null;
+            scheduledEvent.mNext = null;
+        }
+    }
+}
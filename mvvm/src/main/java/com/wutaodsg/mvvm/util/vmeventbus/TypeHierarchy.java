@@ -0,0 +1,67 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 展开并缓存一个类型的所有父类型，供 {@link ViewModelEventBus} 的类型层次分发使用。
+ * <p>
+ * 展开后的顺序是：类型本身、它的父类（由近到远），然后是所有实现的接口（包括父接口）。
+ */
+
+final class TypeHierarchy {
+
+    private static final ConcurrentHashMap<Class, Class[]> sTypes = new ConcurrentHashMap<>();
+
+
+    private TypeHierarchy() {
+        throw new IllegalStateException("The object of TypeHierarchy cannot be created");
+    }
+
+
+    /**
+     * 返回 type 的所有父类型，包括它自己。返回的数组是共享的，不能修改。
+     *
+     * @param type 类型
+     * @return 展开后的类型数组
+     */
+    @NonNull
+    static Class[] of(@NonNull Class type) {
+        Class[] types = sTypes.get(type);
+        if (types == null) {
+            types = flatten(type);
+            sTypes.put(type, types);
+        }
+
+        return types;
+    }
+
+
+    @NonNull
+    private static Class[] flatten(@NonNull Class type) {
+        Set<Class> result = new LinkedHashSet<>();
+        List<Class> interfaces = new ArrayList<>();
+        for (Class c = type; c != null; c = c.getSuperclass()) {
+            result.add(c);
+            addInterfaces(c, interfaces);
+        }
+        result.addAll(interfaces);
+
+        return result.toArray(new Class[result.size()]);
+    }
+
+    private static void addInterfaces(@NonNull Class type, @NonNull List<Class> interfaces) {
+        for (Class i : type.getInterfaces()) {
+            if (!interfaces.contains(i)) {
+                interfaces.add(i);
+                addInterfaces(i, interfaces);
+            }
+        }
+    }
+}
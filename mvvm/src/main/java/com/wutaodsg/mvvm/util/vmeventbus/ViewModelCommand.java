@@ -7,6 +7,10 @@ import com.wutaodsg.mvvm.command.Action0;
 import com.wutaodsg.mvvm.command.Action1;
 import com.wutaodsg.mvvm.core.BaseViewModel;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 
 /**
  * ViewModel 的命令。一个 ViewModel 对应于一个命令，当调用 {@link #execute()}
@@ -15,15 +19,81 @@ import com.wutaodsg.mvvm.core.BaseViewModel;
  * 可以在构造阶段提供 {@link ViewModelScheduler} 提供命令运行的线程环境。
  * 如果不提供，那么这个命令将会运行在发布事件者的线程环境中。
  * <p>
+ * 使用 {@link #batch(BaseViewModel, Action1, ViewModelScheduler)} 创建的命令会一次性接受
+ * 一批数据，参见 {@link ViewModelEventBus#postBatch(String, java.util.Collection)}。
+ * 无论是哪种命令，{@link #executeBatch(List)} 都只会调度一次任务。
+ * <p>
+ * 对于只关心最新值的命令（比如进度、位置），可以调用 {@link #setConflated(boolean)}
+ * 开启合并模式，这时每个命令最多只有一个等待运行的任务，只会收到最新的值。
+ * <p>
+ * 对于处理速度较慢的命令，可以调用 {@link #setMailbox(int, OverflowPolicy)} 为它设置一个
+ * 有界邮箱：数据先放入邮箱，再由同一时间最多一个的任务依次取出运行，邮箱满了以后按照
+ * {@link OverflowPolicy} 处理，从而限制慢命令占用的内存。合并模式就是容量为 1、
+ * 策略为 {@link OverflowPolicy#CONFLATE} 的邮箱。
+ * <p>
+ * 通过 {@link #setPriority(int)} 可以设置命令的优先级，ViewModelEventBus 会让优先级高的命令先接受事件。
+ * 对于不紧急的命令（比如统计、预热缓存），还可以使用 {@link ViewModelSchedulers#idle()}，
+ * 让它们在主线程空闲时才运行。
+ * <p>
+ * 使用 {@link ViewModelSchedulers#computation()} 或 {@link ViewModelSchedulers#io()} 的命令，
+ * 连续的事件可能在不同的线程中并发运行，并且乱序完成。调用 {@link #setOrdered(boolean)} 开启有序模式后，
+ * 命令会拥有一条自己的串行通道，事件按照发送的顺序依次运行，而不需要在命令中加锁，也不需要独占一个线程。
+ * <p>
+ * 对于高频事件（比如输入、滚动），可以通过 {@link #debounce(long)}、{@link #throttleFirst(long)}
+ * 或 {@link #throttleLatest(long)} 为命令设置限流策略。所有命令共享同一个定时器线程，
+ * 被丢弃或者被覆盖的事件不会调度任何任务。
+ * <p>
  * 更多详细信息参见 {@link ViewModelEventBus}。
  */
 
 public class ViewModelCommand<T> {
 
+    /**
+     * 命令的默认优先级。
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
     private BaseViewModel mViewModel;
     private Action0 mCommandWithoutData;
     private Action1<T> mCommandWithData;
+    private Action1<List<T>> mBatchCommand;
     private ViewModelScheduler mViewModelScheduler;
+    /**
+     * 开启有序模式前的线程环境，没有开启时为 null。
+     */
+    private ViewModelScheduler mUnorderedScheduler;
+    private boolean mOrdered;
+    private int mPriority = DEFAULT_PRIORITY;
+
+    /**
+     * 邮箱任务每次运行最多处理的数据数量，超过后重新调度自己，避免长时间占用线程环境。
+     */
+    private static final int MAX_DRAIN_PER_RUN = 64;
+
+    /**
+     * 不接受数据的命令放入邮箱中的占位对象。
+     */
+    private static final Object NO_DATA = new Object();
+
+
+    private volatile Mailbox mMailbox;
+    private volatile RateLimiter mRateLimiter;
+    /**
+     * 开启运行指标时由 {@link ViewModelEventBus} 设置，关闭时为 null。
+     */
+    volatile EventBusMetrics.SubscriberMetrics mMetrics;
+    /**
+     * 开启诊断时由 {@link ViewModelEventBus} 设置，关闭时为 null。
+     */
+    volatile EventBusDiagnostics.SubscriberDiagnostics mDiagnostics;
+    private volatile long mDrainScheduledNanos;
+    private final AtomicBoolean mDraining = new AtomicBoolean();
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainMailbox();
+        }
+    };
 
 
     public ViewModelCommand(@NonNull BaseViewModel viewModel,
@@ -42,6 +112,12 @@ public class ViewModelCommand<T> {
         mViewModelScheduler = viewModelScheduler;
     }
 
+    private ViewModelCommand(@NonNull BaseViewModel viewModel,
+                             @Nullable ViewModelScheduler viewModelScheduler) {
+        mViewModel = viewModel;
+        mViewModelScheduler = viewModelScheduler;
+    }
+
     public ViewModelCommand(@NonNull BaseViewModel viewModel,
                             @NonNull Action0 commandWithoutData) {
         this(viewModel, commandWithoutData, null);
@@ -53,6 +129,204 @@ public class ViewModelCommand<T> {
     }
 
 
+    /**
+     * 创建一个批量接受数据的命令。发送给它的每一批数据都只会调度一次任务，
+     * 单独发送的数据会被包装成只有一个元素的列表。
+     *
+     * @param viewModel          ViewModel 对象
+     * @param batchCommand       接受一批数据的命令
+     * @param viewModelScheduler 命令运行的线程环境，为 null 表示运行在发布事件者的线程中
+     * @param <T>                数据类型
+     * @return ViewModelCommand 对象
+     */
+    @NonNull
+    public static <T> ViewModelCommand<T> batch(@NonNull BaseViewModel viewModel,
+                                                @NonNull Action1<List<T>> batchCommand,
+                                                @Nullable ViewModelScheduler viewModelScheduler) {
+        ViewModelCommand<T> command = new ViewModelCommand<>(viewModel, viewModelScheduler);
+        command.mBatchCommand = batchCommand;
+
+        return command;
+    }
+
+
+    /**
+     * 设置命令的优先级，数值越大越先接受事件，默认为 {@link #DEFAULT_PRIORITY}。
+     * <p>
+     * 优先级在注册时生效，所以必须在注册之前设置。
+     *
+     * @param priority 优先级
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> setPriority(int priority) {
+        mPriority = priority;
+
+        return this;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 设置是否开启有序模式。
+     * <p>
+     * 开启后，这个命令的所有任务（包括邮箱任务、批量任务和 <code>postAsync</code> 的任务）
+     * 都通过一条串行通道调度：任务仍然运行在原来的线程环境中，但同一时间最多只有一个在运行，
+     * 并且按照事件发送的顺序运行，参见 {@link SerialViewModelScheduler}。
+     * 如果原来的线程环境本身就是串行的（比如主线程），或者命令没有线程环境，开启有序模式不会有任何变化。
+     * <p>
+     * 线程环境在注册时就会被使用，所以必须在注册之前设置。
+     *
+     * @param ordered true 表示开启，false 表示关闭
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> setOrdered(boolean ordered) {
+        if (mOrdered == ordered) {
+            return this;
+        }
+
+        mOrdered = ordered;
+        if (ordered) {
+            mUnorderedScheduler = mViewModelScheduler;
+            if (mViewModelScheduler != null) {
+                mViewModelScheduler = ViewModelSchedulers.serial(mViewModelScheduler);
+            }
+        } else {
+            mViewModelScheduler = mUnorderedScheduler;
+            mUnorderedScheduler = null;
+        }
+
+        return this;
+    }
+
+    public boolean isOrdered() {
+        return mOrdered;
+    }
+
+    /**
+     * 设置是否开启合并模式。
+     * <p>
+     * 开启后，如果这个命令有线程环境，那么在任务运行之前到来的数据只会保留最新的一个，
+     * 并且同一时间最多只有一个等待运行的任务。无论发布事件的速度有多快，
+     * 线程环境中的任务队列里这个命令最多只占一个位置，界面也不会渲染过时的中间值。
+     * <p>
+     * 合并模式相当于 <code>setMailbox(1, OverflowPolicy.CONFLATE)</code>，关闭合并模式会移除邮箱。
+     *
+     * @param conflated true 表示开启，false 表示关闭
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> setConflated(boolean conflated) {
+        return conflated ? setMailbox(1, OverflowPolicy.CONFLATE) : removeMailbox();
+    }
+
+    public boolean isConflated() {
+        Mailbox mailbox = mMailbox;
+
+        return mailbox != null && mailbox.getCapacity() == 1 &&
+                mailbox.getOverflowPolicy() == OverflowPolicy.CONFLATE;
+    }
+
+    /**
+     * 为这个命令设置有界邮箱。
+     * <p>
+     * 邮箱只在命令有线程环境时起作用：发送给命令的数据会先放入邮箱，同一时间最多只有一个任务
+     * 在线程环境中依次取出并运行它们，所以数据总是按照放入的顺序被处理。邮箱满了以后，
+     * 按照 overflowPolicy 处理新数据。可以通过 {@link #getMailbox()} 获取邮箱的统计数据。
+     *
+     * @param capacity       邮箱容量，会被向上取整为 2 的幂
+     * @param overflowPolicy 邮箱满了以后的处理策略
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> setMailbox(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        mMailbox = new Mailbox(capacity, overflowPolicy);
+
+        return this;
+    }
+
+    /**
+     * 移除这个命令的邮箱，还没有运行的数据会被丢弃。
+     *
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> removeMailbox() {
+        Mailbox mailbox = mMailbox;
+        mMailbox = null;
+        if (mailbox != null) {
+            mailbox.clear();
+        }
+
+        return this;
+    }
+
+    @Nullable
+    public Mailbox getMailbox() {
+        return mMailbox;
+    }
+
+    /**
+     * 防抖：事件到来后等待 windowMillis 毫秒，如果期间没有新的事件，才执行最后一个事件；
+     * 否则重新开始等待。适用于搜索框输入等场景。
+     * <p>
+     * 限流策略只对 {@link #execute()} 和 {@link #execute(Object)} 起作用，
+     * 批量执行和 <code>postAsync</code> 的执行不会被限流。被推迟的事件在共享的定时器线程中触发，
+     * 然后按照正常的流程执行，所以这时的命令应该提供 {@link ViewModelScheduler}。
+     *
+     * @param windowMillis 等待时间（毫秒），必须大于 0
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> debounce(long windowMillis) {
+        return setRateLimiter(new RateLimiter(this, RateLimiter.DEBOUNCE, windowMillis));
+    }
+
+    /**
+     * 节流，保留第一个：执行一个事件之后的 windowMillis 毫秒内，丢弃所有新的事件。
+     * 适用于防止按钮重复点击等场景。被丢弃的事件不会调度任何任务。
+     * <p>
+     * 其他说明参见 {@link #debounce(long)}。
+     *
+     * @param windowMillis 窗口时间（毫秒），必须大于 0
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> throttleFirst(long windowMillis) {
+        return setRateLimiter(new RateLimiter(this, RateLimiter.THROTTLE_FIRST, windowMillis));
+    }
+
+    /**
+     * 节流，保留最新的：窗口之外到来的事件会立即执行，并开始一个 windowMillis 毫秒的窗口；
+     * 窗口之内到来的事件只保留最新的一个，在窗口结束时执行。适用于进度、位置等场景。
+     * <p>
+     * 其他说明参见 {@link #debounce(long)}。
+     *
+     * @param windowMillis 窗口时间（毫秒），必须大于 0
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> throttleLatest(long windowMillis) {
+        return setRateLimiter(new RateLimiter(this, RateLimiter.THROTTLE_LATEST, windowMillis));
+    }
+
+    /**
+     * 移除这个命令的限流策略，还没有执行的事件会被丢弃。
+     *
+     * @return 这个命令
+     */
+    @NonNull
+    public ViewModelCommand<T> removeRateLimit() {
+        return setRateLimiter(null);
+    }
+
+    public boolean isRateLimited() {
+        return mRateLimiter != null;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof ViewModelCommand && mViewModel != null && mViewModel.equals(obj);
@@ -74,40 +348,264 @@ public class ViewModelCommand<T> {
         return mCommandWithData;
     }
 
+    @Nullable
+    public Action1<List<T>> getBatchCommand() {
+        return mBatchCommand;
+    }
+
     public void execute() {
         if (mCommandWithoutData != null) {
-            if (mViewModelScheduler != null) {
-                mViewModelScheduler.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCommandWithoutData.execute();
-                    }
-                });
-            } else {
-                mCommandWithoutData.execute();
+            RateLimiter rateLimiter = mRateLimiter;
+            if (rateLimiter == null || rateLimiter.offer(NO_DATA)) {
+                executeNow(NO_DATA);
             }
         }
     }
 
-    public void execute(@NonNull final T t) {
-        if (mCommandWithData != null) {
-            if (mViewModelScheduler != null) {
-                mViewModelScheduler.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCommandWithData.execute(t);
-                    }
-                });
+    public void execute(@NonNull T t) {
+        if (mBatchCommand != null) {
+            executeBatch(Collections.singletonList(t));
+        } else if (mCommandWithData != null) {
+            RateLimiter rateLimiter = mRateLimiter;
+            if (rateLimiter == null || rateLimiter.offer(t)) {
+                executeNow(t);
+            }
+        }
+    }
+
+    /**
+     * 执行一批数据。批量命令会一次性接受整个列表；普通命令会在同一个任务中依次接受每个数据。
+     *
+     * @param batch 数据列表，调用者不能再修改它
+     */
+    public void executeBatch(@NonNull List<T> batch) {
+        Action1<List<T>> batchCommand = mBatchCommand;
+        if (batchCommand == null && mCommandWithData == null) {
+            return;
+        }
+        Mailbox mailbox = mMailbox;
+        // 只读取一次，clear() 可能在其他线程中同时把它置为 null
+        ViewModelScheduler viewModelScheduler = mViewModelScheduler;
+        if (mailbox != null && viewModelScheduler != null) {
+            // 批量命令把整批数据作为一项放入邮箱，普通命令把每个数据分别放入邮箱，
+            // 两种情况都最多只会调度一次邮箱任务
+            if (batchCommand != null) {
+                enqueue(mailbox, batch);
             } else {
-                mCommandWithData.execute(t);
+                for (T t : batch) {
+                    if (mailbox.put(t)) {
+                        scheduleDrain();
+                    }
+                }
             }
+
+            return;
+        }
+
+        if (viewModelScheduler != null) {
+            viewModelScheduler.schedule(DispatchTask.obtain(this, batch, batchCommand == null));
+        } else if (batchCommand != null) {
+            deliver(batch);
+        } else {
+            deliverEach(batch);
         }
     }
 
     public void clear() {
+        removeMailbox();
+        removeRateLimit();
         mViewModel = null;
         mCommandWithoutData = null;
         mCommandWithData = null;
+        mBatchCommand = null;
         mViewModelScheduler = null;
+        mUnorderedScheduler = null;
+    }
+
+
+    /**
+     * 执行命令，运行结束后通知 completion，参见 {@link ViewModelEventBus#postAsync(String)}。
+     * <p>
+     * 为了让每一次执行都能被追踪，这里不会经过邮箱，也不会被合并。
+     */
+    void executeTracked(@NonNull PostCompletion completion) {
+        if (mCommandWithoutData != null) {
+            scheduleTracked(NO_DATA, completion);
+        }
+    }
+
+    /**
+     * 执行命令，运行结束后通知 completion，参见 {@link ViewModelEventBus#postAsync(String, Object)}。
+     * <p>
+     * 为了让每一次执行都能被追踪，这里不会经过邮箱，也不会被合并。
+     */
+    void executeTracked(@NonNull T t, @NonNull PostCompletion completion) {
+        if (mBatchCommand != null) {
+            scheduleTracked(Collections.singletonList(t), completion);
+        } else if (mCommandWithData != null) {
+            scheduleTracked(t, completion);
+        }
+    }
+
+    /**
+     * 在当前线程中执行一项数据：NO_DATA 交给不接受数据的命令，批量命令接受整个列表，
+     * 其他情况交给接受数据的命令。命令已经被清除时什么都不做。
+     */
+    @SuppressWarnings("unchecked")
+    void deliver(@NonNull Object item) {
+        EventBusMetrics.SubscriberMetrics metrics = mMetrics;
+        EventBusDiagnostics.SubscriberDiagnostics diagnostics = mDiagnostics;
+        EventBusDiagnostics.Watchdog watchdog = diagnostics != null ? diagnostics.start() : null;
+        long start = metrics != null || diagnostics != null ? System.nanoTime() : 0;
+        try {
+            if (item == NO_DATA) {
+                Action0 commandWithoutData = mCommandWithoutData;
+                if (commandWithoutData != null) {
+                    commandWithoutData.execute();
+                }
+            } else {
+                Action1<List<T>> batchCommand = mBatchCommand;
+                Action1<T> commandWithData = mCommandWithData;
+                if (batchCommand != null) {
+                    batchCommand.execute((List<T>) item);
+                } else if (commandWithData != null) {
+                    commandWithData.execute((T) item);
+                }
+            }
+        } finally {
+            // 命令抛出异常时也要记录运行时间并取消看门狗，否则看门狗会把之后无关的工作当作这个命令的堆栈
+            if (metrics != null || diagnostics != null) {
+                long runNanos = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.recordRunTime(runNanos);
+                }
+                if (diagnostics != null) {
+                    diagnostics.stop(runNanos, watchdog);
+                }
+            }
+        }
+    }
+
+    /**
+     * 不经过限流策略执行一项数据：有邮箱时放入邮箱，有线程环境时调度任务，否则在当前线程中执行。
+     * 命令已经被清除时什么都不做。
+     */
+    void executeNow(@NonNull Object item) {
+        if (item == NO_DATA ? mCommandWithoutData == null : mCommandWithData == null) {
+            return;
+        }
+        Mailbox mailbox = mMailbox;
+        ViewModelScheduler viewModelScheduler = mViewModelScheduler;
+        if (mailbox != null && viewModelScheduler != null) {
+            enqueue(mailbox, item);
+        } else if (viewModelScheduler != null) {
+            viewModelScheduler.schedule(DispatchTask.obtain(this, item, false));
+        } else {
+            deliver(item);
+        }
+    }
+
+    /**
+     * 在当前线程中让接受数据的命令依次接受 batch 中的每个数据。
+     */
+    void deliverEach(@NonNull List<T> batch) {
+        for (T t : batch) {
+            if (mCommandWithData == null) {
+                return;
+            }
+            deliver(t);
+        }
+    }
+
+    private void scheduleTracked(@NonNull Object item, @NonNull PostCompletion completion) {
+        completion.add();
+        DispatchTask task = DispatchTask.obtain(this, item, false, completion);
+        ViewModelScheduler viewModelScheduler = mViewModelScheduler;
+        if (viewModelScheduler != null) {
+            viewModelScheduler.schedule(task);
+        } else {
+            task.run();
+        }
+    }
+
+    @NonNull
+    private ViewModelCommand<T> setRateLimiter(@Nullable RateLimiter rateLimiter) {
+        RateLimiter old = mRateLimiter;
+        mRateLimiter = rateLimiter;
+        if (old != null) {
+            old.clear();
+        }
+
+        return this;
+    }
+
+    private void enqueue(@NonNull Mailbox mailbox, @NonNull Object item) {
+        if (mailbox.put(item)) {
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        ViewModelScheduler viewModelScheduler = mViewModelScheduler;
+        if (viewModelScheduler != null && mDraining.compareAndSet(false, true)) {
+            if (mMetrics != null) {
+                mDrainScheduledNanos = System.nanoTime();
+            }
+            viewModelScheduler.schedule(mDrainTask);
+        }
+    }
+
+    private void drainMailbox() {
+        EventBusMetrics.SubscriberMetrics metrics = mMetrics;
+        long scheduled = mDrainScheduledNanos;
+        if (metrics != null && scheduled != 0) {
+            metrics.recordQueueLatency(System.nanoTime() - scheduled);
+        }
+        for (; ; ) {
+            Mailbox mailbox = mMailbox;
+            if (mailbox == null) {
+                mDraining.set(false);
+                return;
+            }
+
+            int drained = 0;
+            Object item;
+            while (drained < MAX_DRAIN_PER_RUN && (item = mailbox.poll()) != null) {
+                drained++;
+                boolean completed = false;
+                try {
+                    deliver(item);
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        // 不能让一个命令的异常使 mDraining 永远为 true，否则邮箱再也不会被处理
+                        mDraining.set(false);
+                        if (!mailbox.isEmpty()) {
+                            scheduleDrain();
+                        }
+                    }
+                }
+            }
+
+            if (drained == MAX_DRAIN_PER_RUN) {
+                // 让出线程环境，mDraining 保持为 true，由新调度的任务继续处理
+                ViewModelScheduler viewModelScheduler = mViewModelScheduler;
+                if (viewModelScheduler != null) {
+                    if (metrics != null) {
+                        mDrainScheduledNanos = System.nanoTime();
+                    }
+                    viewModelScheduler.schedule(mDrainTask);
+                } else {
+                    mDraining.set(false);
+                }
+                return;
+            }
+
+            mDraining.set(false);
+            // 在释放标志之后放入的数据，可能因为看到标志仍为 true 而没有调度任务
+            if (mailbox.isEmpty() || !mDraining.compareAndSet(false, true)) {
+                return;
+            }
+        }
     }
 }
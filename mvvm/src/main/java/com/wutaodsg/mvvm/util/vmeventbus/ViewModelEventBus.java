@@ -1,14 +1,30 @@
 package com.wutaodsg.mvvm.util.vmeventbus;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.wutaodsg.mvvm.core.BaseViewModel;
-
-import java.lang.ref.WeakReference;
+import com.wutaodsg.mvvm.util.vmeventbus.EventKey.NoDataEventType;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
@@ -25,17 +41,72 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * 相应的操作。
  * <p>
  * ViewModelEventBus 提供了一系列的 <code>unregister</code> 方法来帮助你
- * 细粒度的进行取消注册操作。
+ * 细粒度的进行取消注册操作。如果使用 <code>subscribe</code> 方法注册，
+ * 还会得到一个 {@link Subscription} 句柄，通过它可以直接取消这次注册；
+ * 也可以使用 {@link #unregisterAll(BaseViewModel)} 一次性取消一个 ViewModel 的所有注册。
  * <p>
  * 在注册之后，通过调用 {@link #post(String, Object)} 方法，你可以向
  * 这个 event tag 下接受该数据类型的注册者发送数据；也可以使用 {@link #post(String)}
  * 方法向这个 event tag 下不需要数据的注册者发送信号，要求他们进行操作。<br/>
  * 此外，你也可以使用其他 <code>post</code> 方法细粒度的发送事件。
  * <p>
+ * 对于发送频率很高的事件，推荐使用 {@link EventKey} 和 {@link #post(EventKey, Object)}、
+ * {@link #post(EventKey)} 方法。EventKey 在创建时就已经解析为一个整数 id，发送事件时只需要
+ * 读取一次不可变的订阅者数组，然后遍历它，不会进行 Map 查找，也不会分配任何对象。
+ * <p>
+ * 默认情况下，只有注册的数据类型与事件数据的类型完全相同时，ViewModel 才会接受事件。
+ * 通过 {@link #setTypeHierarchyDispatch(boolean)} 可以开启类型层次分发，这时为事件数据的
+ * 父类或接口注册的 ViewModel 也会接受事件。
+ * <p>
+ * 对于突发的大量事件，可以使用 {@link #postBatch(String, Collection)} 一次性发送一批数据，
+ * 每个注册者只会被调度一次，参见 {@link ViewModelCommand#batch(BaseViewModel, com.wutaodsg.mvvm.command.Action1,
+ * ViewModelScheduler)}。
+ * <p>
+ * 同一个 event tag 下的注册者按照 {@link ViewModelCommand#setPriority(int)} 设置的优先级从高到低
+ * 接受事件，优先级相同的按照注册顺序接受。订阅者数组在注册时就已经排好序，发送事件时没有额外开销。
+ * <p>
+ * 通过 {@link #setMetricsEnabled(boolean)} 可以开启运行指标，查看哪些 event tag 发送得最频繁、
+ * 哪些注册者运行得最慢，参见 {@link EventBusMetrics}。通过 {@link #setDiagnosticsEnabled(boolean)}
+ * 可以记录没有注册者接受的死事件和运行超过预算的慢注册者，参见 {@link EventBusDiagnostics}。
+ * <p>
+ * 如果需要知道所有注册者什么时候运行结束，可以使用 {@link #postAsync(String, Object)}，
+ * 它返回一个 {@link PostCompletion} 句柄。
+ * <p>
+ * 如果一个 ViewModel 需要另一个 ViewModel 的数据，可以让后者通过
+ * {@link #registerResponder(String, Class, Class, ViewModelResponder)} 注册一个应答者，
+ * 然后使用 {@link #query(String, Object, Class)} 发送请求并异步获取应答。
+ * <p>
+ * event tag 可以按照 '.' 分段命名，例如 <code>user.profile.avatar</code>。注册时可以使用通配符 event tag：
+ * <code>user.*</code> 匹配 <code>user</code> 下一级的所有 event tag，<code>user.**</code> 匹配
+ * <code>user</code> 下任意层级的 event tag。通配符 event tag 保存在字典树中，每个具体的 event tag
+ * 匹配到的订阅者在第一次发送时解析，然后被缓存起来，直到下一次注册或取消注册，
+ * 所以之后的开销与精确匹配相同，参见 {@link TagTrie}。发送事件不会为具体的 event tag 创建 {@link EventKey}，
+ * 这些 event tag 的解析结果保存在一个大小固定的缓存中，发送大量不同的 event tag（比如带有 id 的 event tag）
+ * 不会让内存增长。
+ * <p>
+ * 使用 {@link #postSticky(String, Object)} 发送的粘性事件会被保存下来，之后注册的 ViewModel
+ * 会在注册时立即收到这些事件，参见 {@link #setStickyPolicy(String, int, long)}。
+ * <p>
+ * 使用 {@link #postDelayed(String, Object, long)}、{@link #postAt(String, Object, long)} 和
+ * {@link #postPeriodically(String, Object, long, long)} 可以定时发送事件，而不需要自己创建线程或 Handler。
+ * 它们返回的 {@link ScheduledEvent} 可以用来取消发送，参见 {@link TimerWheel}。
+ * <p>
+ * 通过 {@link #attachJournal(EventJournal)} 可以把选定 event tag 下的事件持久化到磁盘，
+ * 进程被杀死后重新启动时再重放出来，参见 {@link EventJournal}；通过 {@link EventBridge}
+ * 可以在两个进程的总线之间转发事件。
+ * <p>
+ * 除了全局的单例之外，还可以通过 {@link #newScope(String...)} 创建作用域总线。作用域总线只保存
+ * 声明为本地的 event tag 的注册者，其他 event tag 的注册和发送都委托给父总线。界面销毁时调用
+ * {@link #destroy()}，就可以一次性丢弃作用域中的所有注册，而不需要逐个取消注册。
+ * {@link com.wutaodsg.mvvm.core.ViewProxy} 会为每个 Activity 和 Fragment 创建一个作用域总线，
+ * 通过 {@link BaseViewModel#getEventBus()} 获取，参见
+ * {@link com.wutaodsg.mvvm.core.annotation.LocalEventTags}。
+ * <p>
  * 需要注意的是，ViewModel 的注册和取消注册必须是成对操作，也就是说在
  * 注册一个 ViewModel 之后，必须在将来某个时间取消注册这个 ViewModel，
  * 避免出现内存泄漏的问题。推荐在 {@link BaseViewModel#onAttach(Context)}
  * 方法中注册，然后在 {@link BaseViewModel#onCleared()} 方法中取消注册。
+ * 如果担心忘记取消注册，可以使用 <code>subscribeWeakly</code> 方法进行弱引用注册。
  * <p>
  * <strong>为了更好的管理 event tag，我推荐你使用一个专门的接口（比如叫 ViewModelEventTags），
  * 在这个接口中声明所有的 event tag，这样就好管理它们。</strong>
@@ -46,14 +117,131 @@ public class ViewModelEventBus {
     private static final String TAG = "WuT.ViewModelEventBus";
 
 
-    private final ConcurrentHashMap<String, ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>>
-            mEventBus = new ConcurrentHashMap<>();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int DEFAULT_STICKY_CAPACITY = 1;
+
+    /**
+     * 按具体 event tag 缓存解析结果的槽位数量，必须是 2 的幂。
+     */
+    private static final int RESOLVED_TAG_SLOTS = 64;
+
+    /**
+     * 作用域总线最多缓存的 event tag 路由结果数量，超过之后不再缓存，每次重新匹配本地 event tag。
+     */
+    private static final int MAX_LOCAL_TAG_CACHE_SIZE = 256;
+
+    private static final Comparator<Subscription> PRIORITY_ORDER = new Comparator<Subscription>() {
+        @Override
+        public int compare(Subscription lhs, Subscription rhs) {
+            return lhs.mPriority < rhs.mPriority ? 1 : (lhs.mPriority == rhs.mPriority ? 0 : -1);
+        }
+    };
+
+
+    /**
+     * 以 {@link EventKey} 的 id 为下标的订阅者数组。数组中的每一项都是不可变的，
+     * 注册和取消注册时会在 mLock 锁中复制出新的数组并原子地替换掉旧数组，
+     * 所以发送事件时不需要加锁。
+     */
+    private volatile AtomicReferenceArray<Subscription[]> mSubscribers =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private final Object mLock = new Object();
+
+    /**
+     * ViewModel 到它的所有注册记录的反向索引，只在 mLock 锁中访问。
+     * 使用弱引用的 Map，弱引用注册的 ViewModel 被回收后，对应的索引也会被移除。
+     */
+    private final WeakHashMap<BaseViewModel, List<Subscription>> mViewModelSubscriptions =
+            new WeakHashMap<>();
+
+    /**
+     * 弱引用注册的命令被回收后会进入这个队列，在注册和发送事件时清理。
+     */
+    private final ReferenceQueue<ViewModelCommand> mCollectedCommands = new ReferenceQueue<>();
+    private final AtomicInteger mWeakSubscriptionCount = new AtomicInteger();
+    private final AtomicLong mPurgedCount = new AtomicLong();
+
+    private final TargetedDispatchCache mTargetedCache = new TargetedDispatchCache();
+
+    private volatile boolean mTypeHierarchyDispatch;
+    /**
+     * 通配符 event tag 的索引，只在 mLock 锁中修改。
+     */
+    private final TagTrie mTagTrie = new TagTrie();
+    /**
+     * 以 {@link EventKey} 的 id 为下标，缓存类型层次分发和通配符匹配时解析出的订阅者。
+     * 每次注册和取消注册都会增加 mVersion，使这些缓存失效。
+     */
+    private volatile AtomicReferenceArray<ResolvedSubscriptions> mResolved =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    /**
+     * 没有驻留事件键的具体 event tag 的解析缓存，直接映射：每个 (event tag, 数据类型) 根据哈希值落在一个槽位中，
+     * 冲突时直接覆盖。发送事件时不会驻留事件键，所以发送大量不同的 event tag 也不会让内存无限增长。
+     */
+    private final AtomicReferenceArray<ResolvedSubscriptions> mResolvedTags =
+            new AtomicReferenceArray<>(RESOLVED_TAG_SLOTS);
+    private volatile int mVersion;
+
+    private final ConcurrentHashMap<String, StickyBuffer> mStickyEvents = new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<SubscriberIndex> mSubscriberIndexes = new CopyOnWriteArrayList<>();
+
+    /**
+     * 运行指标，没有开启时为 null。
+     */
+    private volatile EventBusMetrics mMetrics;
+
+    /**
+     * 诊断，没有开启时为 null。
+     */
+    private volatile EventBusDiagnostics mDiagnostics;
+
+    /**
+     * 以 {@link EventKey} 的 id 为下标的应答者数组，与 mSubscribers 一样在 mLock 锁中写时复制。
+     */
+    private volatile AtomicReferenceArray<ResponderRegistration[]> mResponders =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    /**
+     * ViewModel 到它的所有应答者注册记录的反向索引，只在 mLock 锁中访问，参见 mViewModelSubscriptions。
+     */
+    private final WeakHashMap<BaseViewModel, List<ResponderRegistration>> mViewModelResponders =
+            new WeakHashMap<>();
+
+    /**
+     * 作用域总线的父总线，全局总线为 null。
+     */
+    @Nullable
+    private final ViewModelEventBus mParent;
+    /**
+     * 作用域总线中本地 event tag 的列表，可以使用通配符，参见 {@link TagTrie}。
+     */
+    private final String[] mLocalTags;
+    /**
+     * 缓存每个 event tag 是否是本地 event tag，本地 event tag 的列表不会改变，所以缓存不会失效。
+     * 缓存的大小有上限，发送大量不同的 event tag 不会让它无限增长。
+     */
+    private final ConcurrentHashMap<String, Boolean> mLocalTagCache = new ConcurrentHashMap<>();
+    private volatile boolean mDestroyed;
 
-    private final ViewModelCommandCache mCacheWithData = new ViewModelCommandCache();
-    private final ViewModelCommandCache mCacheWithoutData = new ViewModelCommandCache();
+    /**
+     * 事件日志，只有全局总线才会有，参见 {@link #attachJournal(EventJournal)}。
+     */
+    @Nullable
+    private volatile EventJournal mJournal;
+    /**
+     * 跨进程的事件桥，只有全局总线才会有，参见 {@link EventBridge}。
+     */
+    private final CopyOnWriteArrayList<EventBridge> mBridges = new CopyOnWriteArrayList<>();
 
 
     private ViewModelEventBus() {
+        this(null, new String[0]);
+    }
+
+    private ViewModelEventBus(@Nullable ViewModelEventBus parent, @NonNull String[] localTags) {
+        mParent = parent;
+        mLocalTags = localTags;
     }
 
 
@@ -67,6 +255,99 @@ public class ViewModelEventBus {
     }
 
 
+    /**
+     * 创建一个以这个总线为父总线的作用域总线。
+     * <p>
+     * localTags 中的 event tag（可以使用通配符，例如 <code>login.**</code>）的注册者只保存在作用域总线中，
+     * 在作用域总线上发送的这些事件也只会分发给作用域中的注册者，不会到达父总线。
+     * 其他 event tag 的所有操作都会委托给父总线，所以在作用域总线上注册和发送全局事件与直接使用父总线相同。
+     * <p>
+     * 作用域总线不再使用时必须调用 {@link #destroy()}。
+     *
+     * @param localTags 本地 event tag
+     * @return 作用域总线
+     */
+    @NonNull
+    public ViewModelEventBus newScope(@NonNull String... localTags) {
+        for (String localTag : localTags) {
+            TagTrie.checkPattern(localTag);
+        }
+
+        return new ViewModelEventBus(this, localTags.clone());
+    }
+
+    /**
+     * 销毁作用域总线：在一次加锁中丢弃所有本地注册者、应答者和粘性事件，并清除它们的命令。
+     * 委托给父总线的注册不受影响，它们应该由 ViewModel 的订阅作用域取消，参见
+     * {@link BaseViewModel#getSubscriptionScope()}。
+     * <p>
+     * 销毁后，在这个作用域总线上发送本地事件不会有任何注册者响应，注册本地事件会抛出异常。
+     *
+     * @throws IllegalStateException 如果这是全局总线
+     */
+    public void destroy() {
+        if (mParent == null) {
+            throw new IllegalStateException("The global ViewModelEventBus cannot be destroyed");
+        }
+
+        synchronized (mLock) {
+            if (mDestroyed) {
+                return;
+            }
+            mDestroyed = true;
+
+            AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+            for (int id = 0; id < subscribers.length(); id++) {
+                Subscription[] subscriptions = subscribers.get(id);
+                if (subscriptions != null) {
+                    for (Subscription subscription : subscriptions) {
+                        subscription.mUnsubscribed = true;
+                        ViewModelCommand command = subscription.getCommand();
+                        if (command != null) {
+                            command.clear();
+                        }
+                    }
+                }
+            }
+            AtomicReferenceArray<ResponderRegistration[]> responders = mResponders;
+            for (int id = 0; id < responders.length(); id++) {
+                ResponderRegistration[] registrations = responders.get(id);
+                if (registrations != null) {
+                    for (ResponderRegistration registration : registrations) {
+                        registration.mResponder.clear();
+                    }
+                }
+            }
+
+            // 直接替换掉整个数组，而不是逐个移除注册记录
+            mSubscribers = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+            mResponders = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+            mResolved = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+            mViewModelSubscriptions.clear();
+            mViewModelResponders.clear();
+            mTagTrie.clear();
+            mWeakSubscriptionCount.set(0);
+            mVersion++;
+        }
+        mTargetedCache.clear();
+        mStickyEvents.clear();
+    }
+
+    public boolean isDestroyed() {
+        return mDestroyed;
+    }
+
+    /**
+     * 返回作用域总线的父总线。
+     *
+     * @return 父总线，全局总线返回 null
+     */
+    @Nullable
+    public ViewModelEventBus getParent() {
+        return mParent;
+    }
+
+
     /**
      * 注册一个 ViewModel。
      * <p>
@@ -89,31 +370,7 @@ public class ViewModelEventBus {
     public <T> boolean register(@NonNull String eventTag,
                                 @NonNull Class<T> dataClass,
                                 @NonNull ViewModelCommand<T> command) {
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dataClass);
-            if (viewModelCommands != null) {
-                if (!viewModelCommands.contains(command)) {
-                    viewModelCommands.add(command);
-                } else {
-                    // 已经存在返回 false
-                    return false;
-                }
-            } else {
-                viewModelCommands = new CopyOnWriteArrayList<>();
-                viewModelCommands.add(command);
-                eventMap.put(dataClass, viewModelCommands);
-            }
-        } else {
-            eventMap = new ConcurrentHashMap<>(2);
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = new CopyOnWriteArrayList<>();
-            viewModelCommands.add(command);
-            eventMap.put(dataClass, viewModelCommands);
-            mEventBus.put(eventTag, eventMap);
-        }
-
-        return true;
+        return addSubscription(EventKey.of(eventTag, dataClass), command, false) != null;
     }
 
     /**
@@ -134,30 +391,130 @@ public class ViewModelEventBus {
      */
     public boolean register(@NonNull String eventTag,
                             @NonNull ViewModelCommand command) {
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(NoDataEventType.class);
-            if (viewModelCommands != null) {
-                if (!viewModelCommands.contains(command)) {
-                    viewModelCommands.add(command);
-                } else {
-                    return false;
-                }
-            } else {
-                viewModelCommands = new CopyOnWriteArrayList<>();
-                viewModelCommands.add(command);
-                eventMap.put(NoDataEventType.class, viewModelCommands);
-            }
-        } else {
-            eventMap = new ConcurrentHashMap<>(2);
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = new CopyOnWriteArrayList<>();
-            viewModelCommands.add(command);
-            eventMap.put(NoDataEventType.class, viewModelCommands);
-            mEventBus.put(eventTag, eventMap);
-        }
+        return addSubscription(EventKey.of(eventTag), command, false) != null;
+    }
 
-        return true;
+    /**
+     * 注册一个 ViewModel，参见 {@link #register(String, Class, ViewModelCommand)}
+     * 和 {@link #register(String, ViewModelCommand)}。
+     *
+     * @param eventKey 事件键
+     * @param command  事件来临时进行的操作
+     * @param <T>      数据类型
+     * @return 注册成功返回 true，如果已经注册了返回 false
+     */
+    public <T> boolean register(@NonNull EventKey<T> eventKey,
+                                @NonNull ViewModelCommand<T> command) {
+        return addSubscription(eventKey, command, false) != null;
+    }
+
+    /**
+     * 注册一个 ViewModel，参见 {@link #register(String, Class, ViewModelCommand)}。
+     * <p>
+     * 与 <code>register</code> 方法不同，这个方法会返回代表这次注册的 {@link Subscription}，
+     * 调用 {@link Subscription#unsubscribe()} 即可取消注册，不需要进行任何查找。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass ViewModel 将会接受的数据的类型
+     * @param command   事件来临时进行的操作
+     * @param <T>       数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribe(@NonNull String eventTag,
+                                      @NonNull Class<T> dataClass,
+                                      @NonNull ViewModelCommand<T> command) {
+        return addSubscription(EventKey.of(eventTag, dataClass), command, false);
+    }
+
+    /**
+     * 注册一个不接受数据的 ViewModel，参见 {@link #register(String, ViewModelCommand)}
+     * 和 {@link #subscribe(String, Class, ViewModelCommand)}。
+     *
+     * @param eventTag 事件标志
+     * @param command  事件来临时进行的操作
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public Subscription subscribe(@NonNull String eventTag,
+                                  @NonNull ViewModelCommand command) {
+        return addSubscription(EventKey.of(eventTag), command, false);
+    }
+
+    /**
+     * 注册一个 ViewModel，参见 {@link #subscribe(String, Class, ViewModelCommand)}。
+     *
+     * @param eventKey 事件键
+     * @param command  事件来临时进行的操作
+     * @param <T>      数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribe(@NonNull EventKey<T> eventKey,
+                                      @NonNull ViewModelCommand<T> command) {
+        return addSubscription(eventKey, command, false);
+    }
+
+    /**
+     * 以弱引用的方式注册一个 ViewModel，参见 {@link #subscribe(String, Class, ViewModelCommand)}。
+     * <p>
+     * ViewModelEventBus 只会弱引用 command 和它的 ViewModel，所以即使忘记取消注册，
+     * 也不会阻止 ViewModel 被回收。命令被回收后，对应的注册记录会在下一次注册或发送事件时
+     * 被清理，参见 {@link #getPurgedSubscriberCount()}。
+     * <p>
+     * <strong>调用者必须强引用 command（比如保存在 ViewModel 的字段中），否则命令会被提前回收，
+     * 不再接受事件。</strong>
+     *
+     * @param eventTag  事件标志
+     * @param dataClass ViewModel 将会接受的数据的类型
+     * @param command   事件来临时进行的操作
+     * @param <T>       数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribeWeakly(@NonNull String eventTag,
+                                            @NonNull Class<T> dataClass,
+                                            @NonNull ViewModelCommand<T> command) {
+        return addSubscription(EventKey.of(eventTag, dataClass), command, true);
+    }
+
+    /**
+     * 以弱引用的方式注册一个不接受数据的 ViewModel，
+     * 参见 {@link #subscribeWeakly(String, Class, ViewModelCommand)}。
+     *
+     * @param eventTag 事件标志
+     * @param command  事件来临时进行的操作
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public Subscription subscribeWeakly(@NonNull String eventTag,
+                                        @NonNull ViewModelCommand command) {
+        return addSubscription(EventKey.of(eventTag), command, true);
+    }
+
+    /**
+     * 以弱引用的方式注册一个 ViewModel，参见 {@link #subscribeWeakly(String, Class, ViewModelCommand)}。
+     *
+     * @param eventKey 事件键
+     * @param command  事件来临时进行的操作
+     * @param <T>      数据类型
+     * @return 注册成功返回 Subscription，如果已经注册了返回 null
+     */
+    @Nullable
+    public <T> Subscription subscribeWeakly(@NonNull EventKey<T> eventKey,
+                                            @NonNull ViewModelCommand<T> command) {
+        return addSubscription(eventKey, command, true);
+    }
+
+    /**
+     * 返回因为命令被回收而被清理掉的弱引用注册记录的数量。
+     * <p>
+     * 这个数字持续增长，说明有 ViewModel 没有取消注册，可以用来发现泄漏。
+     *
+     * @return 被清理的注册记录数量
+     */
+    public long getPurgedSubscriberCount() {
+        return mPurgedCount.get();
     }
 
     /**
@@ -167,29 +524,17 @@ public class ViewModelEventBus {
      * @return 取消注册成功返回 true，原来没有注册过返回 false
      */
     public boolean unregister(@NonNull String eventTag) {
-        if (mCacheWithData.equals(eventTag)) {
-            mCacheWithData.clear();
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.unregister(eventTag);
         }
-        if (mCacheWithoutData.equals(eventTag)) {
-            mCacheWithoutData.clear();
-        }
-
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            for (CopyOnWriteArrayList<ViewModelCommand> viewModelCommands : eventMap.values()) {
-                for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                    viewModelCommand.clear();
-                }
-                viewModelCommands.clear();
-            }
-            eventMap.clear();
-            mEventBus.remove(eventTag);
 
-            return true;
+        boolean result = false;
+        for (EventKey eventKey : EventKey.keysOf(eventTag)) {
+            result |= removeSubscriptions(eventKey);
         }
 
-        return false;
+        return result;
     }
 
     /**
@@ -202,34 +547,19 @@ public class ViewModelEventBus {
      */
     public <T> boolean unregister(@NonNull String eventTag,
                                   @Nullable Class<T> dataClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.unregister(eventTag, dataClass);
+        }
+
         Class dc = dataClass;
         if (dc == null) {
             dc = NoDataEventType.class;
         }
 
-        if (mCacheWithData.equals(eventTag, true, dc)) {
-            mCacheWithData.clear();
-        }
-        if (mCacheWithoutData.equals(eventTag, true, dc)) {
-            mCacheWithoutData.clear();
-        }
-
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dc);
-            if (viewModelCommands != null) {
-                for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                    viewModelCommand.clear();
-                }
-                viewModelCommands.clear();
-                eventMap.remove(dc);
-
-                return true;
-            }
-        }
+        EventKey eventKey = EventKey.find(eventTag, dc);
 
-        return false;
+        return eventKey != null && removeSubscriptions(eventKey);
     }
 
     /**
@@ -241,25 +571,19 @@ public class ViewModelEventBus {
      */
     public boolean unregister(@NonNull String eventTag,
                               @NonNull BaseViewModel viewModel) {
-        if (mCacheWithData.equals(eventTag, false, viewModel.getClass())) {
-            mCacheWithData.clear();
-        }
-        if (mCacheWithoutData.equals(eventTag, false, viewModel.getClass())) {
-            mCacheWithoutData.clear();
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.unregister(eventTag, viewModel);
         }
 
         boolean result = false;
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            for (CopyOnWriteArrayList<ViewModelCommand> viewModelCommands : eventMap.values()) {
-                int size = viewModelCommands.size();
-                for (int i = 0; i < size; i++) {
-                    ViewModelCommand viewModelCommand = viewModelCommands.get(i);
-                    if (viewModelCommand.getViewModel().equals(viewModel)) {
-                        viewModelCommand.clear();
-                        viewModelCommands.remove(i);
-                        result = true;
+        synchronized (mLock) {
+            List<Subscription> subscriptions = mViewModelSubscriptions.get(viewModel);
+            if (subscriptions != null) {
+                // 复制一份，因为 removeSubscription 会修改反向索引
+                for (Subscription subscription : subscriptions.toArray(new Subscription[subscriptions.size()])) {
+                    if (subscription.mEventKey.getEventTag().equals(eventTag)) {
+                        result |= removeSubscription(subscription);
                     }
                 }
             }
@@ -280,31 +604,25 @@ public class ViewModelEventBus {
     public <T> boolean unregister(@NonNull String eventTag,
                                   @Nullable Class<T> dataClass,
                                   @NonNull BaseViewModel viewModel) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.unregister(eventTag, dataClass, viewModel);
+        }
+
         Class dc = dataClass;
         if (dc == null) {
             dc = NoDataEventType.class;
         }
 
-        if (mCacheWithData.equals(eventTag, dc, viewModel.getClass())) {
-            mCacheWithData.clear();
-        }
-        if (mCacheWithoutData.equals(eventTag, dc, viewModel.getClass())) {
-            mCacheWithoutData.clear();
-        }
-
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dc);
-            if (viewModelCommands != null) {
-                int size = viewModelCommands.size();
-                for (int i = 0; i < size; i++) {
-                    ViewModelCommand viewModelCommand = viewModelCommands.get(i);
-                    if (viewModelCommand.getViewModel().equals(viewModel)) {
-                        viewModelCommand.clear();
-                        viewModelCommands.remove(i);
-
-                        return true;
+        EventKey eventKey = EventKey.find(eventTag, dc);
+        if (eventKey != null) {
+            synchronized (mLock) {
+                List<Subscription> subscriptions = mViewModelSubscriptions.get(viewModel);
+                if (subscriptions != null) {
+                    for (Subscription subscription : subscriptions) {
+                        if (subscription.mEventKey == eventKey) {
+                            return removeSubscription(subscription);
+                        }
                     }
                 }
             }
@@ -314,319 +632,1809 @@ public class ViewModelEventBus {
     }
 
     /**
-     * ViewModelEventBus 中是否含有事件标志为 eventTag 的事件总线。
+     * 取消 viewModel 在所有 event tag 下的注册记录。
+     * <p>
+     * 这个方法使用 ViewModel 到注册记录的反向索引，开销只与这个 ViewModel 的注册数量有关，
+     * 而与总线中的 event tag 和其他注册者的数量无关。
      *
-     * @param eventTag 事件标志
-     * @return 如果存在返回 true，否则返回 false
+     * @param viewModel 注册过的 ViewModel 对象
+     * @return 取消注册成功返回 true，原来没有注册过返回 false
      */
-    public boolean contains(@NonNull String eventTag) {
-        return mEventBus.containsKey(eventTag);
+    public boolean unregisterAll(@NonNull BaseViewModel viewModel) {
+        boolean result = false;
+        synchronized (mLock) {
+            List<Subscription> subscriptions = mViewModelSubscriptions.remove(viewModel);
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    removeFromSubscribers(subscription);
+                }
+                result = true;
+            }
+        }
+        // 作用域总线中委托给父总线的注册也要取消
+        if (mParent != null) {
+            result |= mParent.unregisterAll(viewModel);
+        }
+
+        return result;
     }
 
     /**
-     * ViewModelEventBus 中是否含有事件标志为 eventTag 且接受类型为 dataClass
-     * 的事件总线。如果参数 dataClass 为 null 表示不接受数据的事件总线。
+     * 添加一个由 mvvm-compiler 生成的订阅者索引，参见 {@link Subscribe}。
+     * 一般在 Application 的 onCreate 方法中调用。
      *
-     * @param eventTag  事件标志
-     * @param dataClass 接受数据的类型，如果为 null 表示不接受数据的事件总线。
-     * @param <T>       数据类型
-     * @return 如果存在返回 true，否则返回 false
+     * @param subscriberIndex 订阅者索引
      */
-    public <T> boolean contains(@NonNull String eventTag,
-                                @Nullable Class<T> dataClass) {
-        Class dc = dataClass;
-        if (dc == null) {
-            dc = NoDataEventType.class;
+    public void addSubscriberIndex(@NonNull SubscriberIndex subscriberIndex) {
+        // 订阅者索引是全局的，保存在全局总线中
+        if (mParent != null) {
+            mParent.addSubscriberIndex(subscriberIndex);
+            return;
         }
 
-        return mEventBus.containsKey(eventTag) && mEventBus.get(eventTag).containsKey(dc);
+        mSubscriberIndexes.addIfAbsent(subscriberIndex);
     }
 
     /**
-     * ViewModelEventBus 中是否含有事件标志为 eventTag 、接受类型为 dataClass，
-     * 且类型为 viewModelClass 的 ViewModel 对象。如果参数 dataClass 为 null 表示不接受数据
-     * 的 ViewModel 对象。
+     * 注册 viewModel 中所有使用 {@link Subscribe} 注解的事件处理方法，包括父类中声明的方法。
+     * <p>
+     * 注册记录会加入 viewModel 的订阅作用域（也就是 viewModel 使用的总线），在 {@link BaseViewModel#onDetach()} 和
+     * {@link BaseViewModel#onCleared()} 时自动取消，所以推荐在
+     * {@link BaseViewModel#onAttach(Context)} 中调用这个方法。
      *
-     * @param eventTag       事件标志
-     * @param dataClass      接受数据的类型，如果为 null 表示不接受数据的 ViewModel 对象。
-     * @param viewModelClass ViewModel 的类型
-     * @param <T>            数据类型
-     * @return 如果存在返回 true，否则返回 false
+     * @param viewModel ViewModel 对象
+     * @return 注册成功的事件处理方法数量
+     * @throws IllegalStateException 如果没有任何订阅者索引包含 viewModel 的类型
      */
-    public <T> boolean contains(@NonNull String eventTag,
-                                @Nullable Class<T> dataClass,
-                                @NonNull Class<? extends BaseViewModel> viewModelClass) {
-        Class dc = dataClass;
-        if (dc == null) {
-            dc = NoDataEventType.class;
+    public int registerSubscribers(@NonNull BaseViewModel viewModel) {
+        if (mParent != null) {
+            return mParent.registerSubscribers(viewModel);
         }
 
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dc);
-            if (viewModelCommands != null) {
-                for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                    if (viewModelCommand.getViewModel().getClass().equals(viewModelClass)) {
-                        return true;
-                    }
+        SubscriptionScope scope = viewModel.getSubscriptionScope();
+        boolean found = false;
+        int count = 0;
+        for (Class c = viewModel.getClass(); c != BaseViewModel.class; c = c.getSuperclass()) {
+            for (SubscriberIndex subscriberIndex : mSubscriberIndexes) {
+                int registered = subscriberIndex.register(c, viewModel, scope);
+                if (registered >= 0) {
+                    found = true;
+                    count += registered;
+                    break;
                 }
             }
         }
+        if (!found) {
+            throw new IllegalStateException("No SubscriberIndex contains " + viewModel.getClass().getName() +
+                    ", did you add the index generated by mvvm-compiler?");
+        }
 
-        return false;
+        return count;
     }
 
     /**
-     * 发送事件。
-     * <p>
-     * 这个方法所发送的事件面向这个 eventTag 下注册的所有 ViewModel 对象。
-     * 而只有那些不接受数据的 ViewModel 对象会接受事件，并回调命令。
+     * 注册一个应答者，它会应答 eventTag 下类型为 requestClass 的请求，
+     * 参见 {@link #query(String, Object, Class)}。
      * <p>
-     * 这种发送事件的方式相当于广播。
+     * 应答者的注册和取消注册也必须是成对操作，参见 {@link #unregisterResponder(String, ViewModelResponder)}
+     * 和 {@link #unregisterResponders(BaseViewModel)}。通过 ViewModel 的订阅作用域
+     * {@link SubscriptionScope#registerResponder(String, Class, Class, ViewModelResponder)} 注册时，
+     * 会在 ViewModel 的 onDetach 或 onCleared 中自动取消。
      *
-     * @param eventTag 事件标志
-     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     * @param eventTag     事件标志
+     * @param requestClass 请求的类型
+     * @param replyClass   应答的类型
+     * @param responder    应答者
+     * @param <T>          请求的类型
+     * @param <R>          应答的类型
+     * @return 注册成功返回 true，如果已经注册了返回 false
      */
-    public boolean post(@NonNull String eventTag) {
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(NoDataEventType.class);
-            if (viewModelCommands != null) {
-                for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                    viewModelCommand.execute();
-                }
-
-                return true;
+    public <T, R> boolean registerResponder(@NonNull String eventTag,
+                                            @NonNull Class<T> requestClass,
+                                            @NonNull Class<R> replyClass,
+                                            @NonNull ViewModelResponder<T, R> responder) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.registerResponder(eventTag, requestClass, replyClass, responder);
+        }
+        if (mDestroyed) {
+            throw new IllegalStateException("This ViewModelEventBus has been destroyed: " + eventTag);
+        }
+
+        int id = EventKey.intern(eventTag, requestClass).getId();
+        synchronized (mLock) {
+            AtomicReferenceArray<ResponderRegistration[]> responders = mResponders;
+            if (id >= responders.length()) {
+                mResponders = responders = grow(responders, id);
+            }
+
+            ResponderRegistration registration = new ResponderRegistration(id, responder, replyClass);
+            ResponderRegistration[] oldRegistrations = responders.get(id);
+            ResponderRegistration[] newRegistrations;
+            if (oldRegistrations == null) {
+                newRegistrations = new ResponderRegistration[]{registration};
+            } else {
+                for (ResponderRegistration oldRegistration : oldRegistrations) {
+                    if (oldRegistration.mResponder == responder) {
+                        return false;
+                    }
+                }
+                newRegistrations = new ResponderRegistration[oldRegistrations.length + 1];
+                System.arraycopy(oldRegistrations, 0, newRegistrations, 0, oldRegistrations.length);
+                newRegistrations[oldRegistrations.length] = registration;
+            }
+            responders.set(id, newRegistrations);
+
+            BaseViewModel viewModel = responder.getViewModel();
+            List<ResponderRegistration> viewModelResponders = mViewModelResponders.get(viewModel);
+            if (viewModelResponders == null) {
+                viewModelResponders = new ArrayList<>(1);
+                mViewModelResponders.put(viewModel, viewModelResponders);
             }
+            viewModelResponders.add(registration);
+
+            return true;
         }
+    }
 
-        return false;
+    /**
+     * 取消 eventTag 下 responder 的注册，并清除 responder。
+     *
+     * @param eventTag  事件标志
+     * @param responder 应答者
+     * @return 取消注册成功返回 true，原来没有注册过返回 false
+     */
+    public boolean unregisterResponder(@NonNull String eventTag, @NonNull ViewModelResponder responder) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.unregisterResponder(eventTag, responder);
+        }
+
+        boolean result = false;
+        synchronized (mLock) {
+            for (EventKey eventKey : EventKey.keysOf(eventTag)) {
+                result |= removeResponders(eventKey.getId(), responder, null);
+            }
+        }
+
+        return result;
     }
 
     /**
-     * 发送事件。
-     * <p>
-     * 这个方法所发送的事件面向这个 eventTag 下注册的所有 ViewModel 对象。
-     * 而只有那些接收数据且数据类型与 data 相同的 ViewModel 对象会接受事件，并回调命令。
-     * <p>
-     * 这种发送事件的方式相当于广播。
+     * 取消 viewModel 在所有 event tag 下注册的应答者。只会访问 viewModel 自己的注册记录，
+     * 不会遍历所有的 event tag。
      *
-     * @param eventTag 事件标志
-     * @param data     数据
-     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     * @param viewModel ViewModel 对象
+     * @return 取消注册成功返回 true，原来没有注册过返回 false
      */
-    @SuppressWarnings("unchecked")
-    public <T> boolean post(@NonNull String eventTag, @NonNull T data) {
-        Class dataClass = data.getClass();
-        ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                eventMap = mEventBus.get(eventTag);
-        if (eventMap != null) {
-            CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dataClass);
-            if (viewModelCommands != null) {
-                for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                    viewModelCommand.execute(data);
+    public boolean unregisterResponders(@NonNull BaseViewModel viewModel) {
+        boolean result = false;
+        synchronized (mLock) {
+            List<ResponderRegistration> viewModelResponders = mViewModelResponders.remove(viewModel);
+            if (viewModelResponders != null) {
+                for (ResponderRegistration registration : viewModelResponders) {
+                    result |= removeResponders(registration.mId, null, viewModel);
                 }
-
-                return true;
             }
         }
+        if (mParent != null) {
+            result |= mParent.unregisterResponders(viewModel);
+        }
 
-        return false;
+        return result;
     }
 
     /**
-     * 发送事件。
-     * <p>
-     * 这个方法所发送的事件面向这个 eventTag 下注册类型为 viewModelClass，
-     * 并且接受数据类型与 data 相同的 viewModel。只有这个 viewModel 会接受事件并回调命令。
-     * <p>
-     * 这种发送命令的方式相当于点对点传播。
+     * 向 eventTag 下所有应答 request 类型的请求、并且应答类型是 replyClass 或其子类的应答者发送请求。
      * <p>
-     * 这个方法还会缓存上一次的事件，如果这一次所发送的事件与上一次相同，
-     * 就无需再次进行查找操作，而是从缓存中读取数据并进行操作。
+     * 每个应答者都在自己的线程环境中运行；如果应答者没有线程环境，或者当前线程就是它的线程，
+     * 那么会在当前线程中直接运行，不会进行调度。所有应答都会收集到返回的 {@link QueryResult} 中，
+     * 可以获取第一个应答、所有应答，或者把它们合并为一个值。
      *
-     * @param eventTag       事件标志
-     * @param data           数据
-     * @param viewModelClass 指定 ViewModel 的类型
-     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     * @param eventTag   事件标志
+     * @param request    请求
+     * @param replyClass 应答的类型
+     * @param <T>        请求的类型
+     * @param <R>        应答的类型
+     * @return 请求的结果，没有应答者时返回一个已经完成的结果
      */
-    @SuppressWarnings("unchecked")
-    public <T> boolean post(@NonNull String eventTag,
-                            @NonNull T data,
-                            @NonNull Class<? extends BaseViewModel> viewModelClass) {
-        Class dataClass = data.getClass();
-        if (mCacheWithData.cached(eventTag, dataClass, viewModelClass)) {
-            mCacheWithData.getCache().execute(data);
+    @NonNull
+    public <T, R> QueryResult<R> query(@NonNull String eventTag,
+                                       @NonNull T request,
+                                       @NonNull Class<R> replyClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.query(eventTag, request, replyClass);
+        }
 
-            return true;
-        } else {
-            ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                    eventMap = mEventBus.get(eventTag);
-            if (eventMap != null) {
-                CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(dataClass);
-                if (viewModelCommands != null) {
-                    for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                        if (viewModelCommand.getViewModel().getClass().equals(viewModelClass)) {
-                            viewModelCommand.execute(data);
-                            mCacheWithData.setCache(viewModelCommand);
-
-                            return true;
-                        }
+        QueryResult<R> result = new QueryResult<>();
+        EventKey eventKey = EventKey.find(eventTag, request.getClass());
+        if (eventKey != null) {
+            AtomicReferenceArray<ResponderRegistration[]> responders = mResponders;
+            int id = eventKey.getId();
+            ResponderRegistration[] registrations = id < responders.length() ? responders.get(id) : null;
+            if (registrations != null) {
+                for (ResponderRegistration registration : registrations) {
+                    if (replyClass.isAssignableFrom(registration.mReplyClass)) {
+                        result.dispatch(registration.mResponder, request);
                     }
                 }
             }
+        }
+        result.seal();
+
+        return result;
+    }
+
+    /**
+     * 批量发送事件。
+     * <p>
+     * 这个方法相当于对 events 中的每个数据调用 {@link #post(String, Object)}，但是每个注册者
+     * 只会收到一次调用：批量命令一次性接受整批数据，普通命令在同一个调度任务中依次接受每个数据。
+     * 这样向 {@link ViewModelSchedulers#mainThread()} 上的注册者发送 500 个数据只需要一次调度。
+     * <p>
+     * events 中运行时类型不同的数据会被分组，分别发送给接受对应类型的注册者。
+     *
+     * @param eventTag 事件标志
+     * @param events   数据集合
+     * @return 当有 ViewModel 响应这些事件时返回 true，否则返回 false
+     */
+    public <T> boolean postBatch(@NonNull String eventTag, @NonNull Collection<T> events) {
+        if (events.isEmpty()) {
+            return false;
+        }
+
+        Class dataClass = null;
+        boolean sameClass = true;
+        for (T event : events) {
+            if (dataClass == null) {
+                dataClass = event.getClass();
+            } else if (event.getClass() != dataClass) {
+                sameClass = false;
+                break;
+            }
+        }
+
+        if (sameClass) {
+            return dispatchBatch(eventTag, dataClass, new ArrayList<Object>(events));
+        }
+
+        Map<Class, List<Object>> groups = new LinkedHashMap<>();
+        for (T event : events) {
+            List<Object> group = groups.get(event.getClass());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(event.getClass(), group);
+            }
+            group.add(event);
+        }
+        boolean result = false;
+        for (Map.Entry<Class, List<Object>> group : groups.entrySet()) {
+            result |= dispatchBatch(eventTag, group.getKey(), group.getValue());
+        }
+
+        return result;
+    }
 
+    /**
+     * 批量发送事件，参见 {@link #postBatch(String, Collection)}。
+     * events 中的数据都会发送给在 eventKey 下注册的 ViewModel。
+     *
+     * @param eventKey 事件键
+     * @param events   数据集合
+     * @return 当有 ViewModel 响应这些事件时返回 true，否则返回 false
+     */
+    public <T> boolean postBatch(@NonNull EventKey<T> eventKey, @NonNull Collection<? extends T> events) {
+        if (events.isEmpty()) {
             return false;
         }
+
+        return dispatchBatch(eventKey.getEventTag(), findSubscriptions(eventKey), new ArrayList<Object>(events));
     }
 
     /**
-     * 发送事件。
-     * <p>
-     * 这个方法所发送的事件面向这个 eventTag 下注册类型为 viewModelClass，
-     * 并且不接受任何数据的 viewModel。只有这个 viewModel 会接受事件并回调命令。
+     * 发送粘性事件。
      * <p>
-     * 这种发送命令的方式相当于点对点传播。
+     * 这个方法会像 {@link #post(String, Object)} 一样发送事件，同时把 data 保存在这个 eventTag
+     * 的粘性事件缓冲区中。之后在这个 eventTag 下注册的、接受 data 类型的 ViewModel
+     * 会在注册时立即收到缓冲区中没有过期的事件。
      * <p>
-     * 这个方法还会缓存上一次的事件，如果这一次所发送的事件与上一次相同，
-     * 就无需再次进行查找操作，而是从缓存中读取数据并进行操作。
+     * 默认每个 eventTag 只保存最新的一个粘性事件，并且不会过期，可以使用
+     * {@link #setStickyPolicy(String, int, long)} 修改。
      *
-     * @param eventTag       事件标志
-     * @param viewModelClass 指定 ViewModel 的类型
+     * @param eventTag 事件标志
+     * @param data     数据
      * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
      */
-    public <T> boolean post(@NonNull String eventTag,
-                            @NonNull Class<? extends BaseViewModel> viewModelClass) {
-        if (mCacheWithoutData.cached(eventTag, NoDataEventType.class, viewModelClass)) {
-            mCacheWithoutData.getCache().execute();
-
-            return true;
-        } else {
-            ConcurrentHashMap<Class, CopyOnWriteArrayList<ViewModelCommand>>
-                    eventMap = mEventBus.get(eventTag);
-            if (eventMap != null) {
-                CopyOnWriteArrayList<ViewModelCommand> viewModelCommands = eventMap.get(NoDataEventType.class);
-                if (viewModelCommands != null) {
-                    for (ViewModelCommand viewModelCommand : viewModelCommands) {
-                        if (viewModelCommand.getViewModel().getClass().equals(viewModelClass)) {
-                            viewModelCommand.execute();
-                            mCacheWithoutData.setCache(viewModelCommand);
-
-                            return true;
-                        }
-                    }
-                }
-            }
+    public <T> boolean postSticky(@NonNull String eventTag, @NonNull T data) {
+        ViewModelEventBus eventBus = route(eventTag);
+        Subscription[] subscriptions;
+        // 与注册互斥：注册者要么在订阅者快照中，要么在重放时收到这个事件，不会两次都收到
+        synchronized (eventBus.mLock) {
+            eventBus.getStickyBuffer(eventTag).add(data);
+            subscriptions = eventBus.findSubscriptions(eventTag, data.getClass());
         }
 
-        return false;
+        return dispatch(eventTag, subscriptions, data);
     }
 
+    /**
+     * 发送粘性事件，参见 {@link #postSticky(String, Object)}。
+     *
+     * @param eventKey 事件键
+     * @param data     数据
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public <T> boolean postSticky(@NonNull EventKey<T> eventKey, @NonNull T data) {
+        ViewModelEventBus eventBus = route(eventKey.getEventTag());
+        Subscription[] subscriptions;
+        synchronized (eventBus.mLock) {
+            eventBus.getStickyBuffer(eventKey.getEventTag()).add(data);
+            subscriptions = eventBus.findSubscriptions(eventKey);
+        }
 
-    private static final class Holder {
-        private static final ViewModelEventBus INSTANCE = new ViewModelEventBus();
+        return dispatch(eventKey.getEventTag(), subscriptions, data);
     }
 
     /**
-     * 用来标志不接受数据的事件类型
+     * 在 delayMillis 毫秒之后发送事件，效果与那时调用 {@link #post(String, Object)} 相同。
+     * <p>
+     * 所有定时发送都由同一个哈希时间轮线程触发，调度和取消的开销是 O(1) 的，精度为
+     * {@link TimerWheel#TICK_MILLIS} 毫秒，参见 {@link TimerWheel}。事件在定时器线程中发送，
+     * 注册者应该通过 {@link ViewModelScheduler} 指定运行的线程环境。
+     * <p>
+     * 如果触发时这条总线已经被 {@link #destroy()}，事件不会被发送。
+     *
+     * @param eventTag    事件标志
+     * @param data        数据
+     * @param delayMillis 延迟时间（毫秒）
+     * @return 定时任务，可以用来取消这次发送
+     */
+    @NonNull
+    public <T> ScheduledEvent postDelayed(@NonNull String eventTag, @NonNull T data, long delayMillis) {
+        return schedule(eventTag, data, delayMillis, 0);
+    }
+
+    /**
+     * 在 delayMillis 毫秒之后向不需要数据的注册者发送信号，参见 {@link #postDelayed(String, Object, long)}。
+     *
+     * @param eventTag    事件标志
+     * @param delayMillis 延迟时间（毫秒）
+     * @return 定时任务，可以用来取消这次发送
      */
-    private static final class NoDataEventType {
+    @NonNull
+    public ScheduledEvent postDelayed(@NonNull String eventTag, long delayMillis) {
+        return schedule(eventTag, null, delayMillis, 0);
     }
 
+    /**
+     * 在 uptimeMillis 时刻发送事件，时间基准与 {@link android.os.Handler#postAtTime(Runnable, long)}
+     * 相同，也就是 {@link SystemClock#uptimeMillis()}，参见 {@link #postDelayed(String, Object, long)}。
+     *
+     * @param eventTag     事件标志
+     * @param data         数据
+     * @param uptimeMillis 发送的时刻
+     * @return 定时任务，可以用来取消这次发送
+     */
+    @NonNull
+    public <T> ScheduledEvent postAt(@NonNull String eventTag, @NonNull T data, long uptimeMillis) {
+        return schedule(eventTag, data, uptimeMillis - SystemClock.uptimeMillis(), 0);
+    }
 
-    private static final class ViewModelCommandCache {
+    /**
+     * 在 uptimeMillis 时刻向不需要数据的注册者发送信号，参见 {@link #postAt(String, Object, long)}。
+     *
+     * @param eventTag     事件标志
+     * @param uptimeMillis 发送的时刻
+     * @return 定时任务，可以用来取消这次发送
+     */
+    @NonNull
+    public ScheduledEvent postAt(@NonNull String eventTag, long uptimeMillis) {
+        return schedule(eventTag, null, uptimeMillis - SystemClock.uptimeMillis(), 0);
+    }
 
-        private String mEventTag;
-        private Class mDataClass;
-        private Class<? extends BaseViewModel> mViewModelClass;
+    /**
+     * 在 initialDelayMillis 毫秒之后发送事件，然后每隔 periodMillis 毫秒发送一次，直到定时任务被取消
+     * 或者这条总线被 {@link #destroy()}。
+     * <p>
+     * 周期是固定频率的：每次的发送时间基于上一次预定的发送时间计算，不会因为发送的耗时而漂移，
+     * 参见 {@link #postDelayed(String, Object, long)}。
+     *
+     * @param eventTag           事件标志
+     * @param data               数据
+     * @param initialDelayMillis 第一次发送的延迟时间（毫秒）
+     * @param periodMillis       周期（毫秒），必须大于 0
+     * @return 定时任务，可以用来停止发送
+     */
+    @NonNull
+    public <T> ScheduledEvent postPeriodically(@NonNull String eventTag,
+                                               @NonNull T data,
+                                               long initialDelayMillis,
+                                               long periodMillis) {
+        checkPeriod(periodMillis);
+
+        return schedule(eventTag, data, initialDelayMillis, periodMillis);
+    }
 
-        private WeakReference<ViewModelCommand> mViewModelCommandRef;
+    /**
+     * 周期性地向不需要数据的注册者发送信号，参见 {@link #postPeriodically(String, Object, long, long)}。
+     *
+     * @param eventTag           事件标志
+     * @param initialDelayMillis 第一次发送的延迟时间（毫秒）
+     * @param periodMillis       周期（毫秒），必须大于 0
+     * @return 定时任务，可以用来停止发送
+     */
+    @NonNull
+    public ScheduledEvent postPeriodically(@NonNull String eventTag, long initialDelayMillis, long periodMillis) {
+        checkPeriod(periodMillis);
 
+        return schedule(eventTag, null, initialDelayMillis, periodMillis);
+    }
 
-        public void setKey(String eventTag, Class dataClass, Class<? extends BaseViewModel> viewModelClass) {
-            synchronized (this) {
-                mEventTag = eventTag;
-                mDataClass = dataClass;
-                mViewModelClass = viewModelClass;
-            }
+    /**
+     * 设置 eventTag 下粘性事件的保存策略，已经保存的粘性事件会被清除。
+     *
+     * @param eventTag     事件标志
+     * @param capacity     最多保存的粘性事件数量，超出时淘汰最旧的事件
+     * @param maxAgeMillis 粘性事件最长的保存时间（毫秒），小于等于 0 表示不会过期
+     */
+    public void setStickyPolicy(@NonNull String eventTag, int capacity, long maxAgeMillis) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            eventBus.setStickyPolicy(eventTag, capacity, maxAgeMillis);
+            return;
         }
 
-        public boolean cached(String eventTag, Class dataClass, Class<? extends BaseViewModel> viewModelClass) {
-            synchronized (this) {
-                if (equals(mEventTag, eventTag) &&
-                        equals(mDataClass, dataClass) &&
-                        equals(mViewModelClass, mViewModelClass) &&
-                        mViewModelCommandRef != null &&
-                        mViewModelCommandRef.get() != null) {
-                    return true;
-                } else {
-                    setKey(eventTag, dataClass, viewModelClass);
+        mStickyEvents.put(eventTag, new StickyBuffer(capacity, maxAgeMillis));
+    }
 
-                    return false;
+    /**
+     * 获取 eventTag 下最新的、类型为 dataClass 的粘性事件。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass 数据类型
+     * @param <T>       数据类型
+     * @return 粘性事件，不存在返回 null
+     */
+    @Nullable
+    public <T> T getStickyEvent(@NonNull String eventTag, @NonNull Class<T> dataClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.getStickyEvent(eventTag, dataClass);
+        }
+
+        StickyBuffer stickyBuffer = mStickyEvents.get(eventTag);
+        if (stickyBuffer != null) {
+            List<Object> events = stickyBuffer.snapshot();
+            for (int i = events.size() - 1; i >= 0; i--) {
+                if (dataClass.isInstance(events.get(i))) {
+                    return dataClass.cast(events.get(i));
                 }
             }
         }
 
-        public ViewModelCommand getCache() {
-            synchronized (this) {
-                return mViewModelCommandRef != null ? mViewModelCommandRef.get() : null;
+        return null;
+    }
+
+    /**
+     * 清除 eventTag 下保存的所有粘性事件。
+     *
+     * @param eventTag 事件标志
+     * @return 清除成功返回 true，原来没有粘性事件返回 false
+     */
+    public boolean removeStickyEvents(@NonNull String eventTag) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.removeStickyEvents(eventTag);
+        }
+
+        return mStickyEvents.remove(eventTag) != null;
+    }
+
+    /**
+     * 开启或关闭类型层次分发。
+     * <p>
+     * 开启后，发送数据时，不仅注册的数据类型与数据的运行时类型相同的 ViewModel 会接受事件，
+     * 注册的数据类型是它的父类或接口的 ViewModel 也会接受事件。
+     * <p>
+     * 每种运行时类型匹配的订阅者只会在第一次发送时解析，然后被缓存起来，
+     * 直到下一次注册或取消注册，所以之后的开销与精确类型分发相同。
+     *
+     * @param enabled true 表示开启，false 表示关闭
+     */
+    public void setTypeHierarchyDispatch(boolean enabled) {
+        synchronized (mLock) {
+            if (mTypeHierarchyDispatch != enabled) {
+                mTypeHierarchyDispatch = enabled;
+                // 解析缓存中的结果与是否开启类型层次分发有关
+                mVersion++;
             }
         }
+    }
 
-        public void setCache(ViewModelCommand viewModelCommand) {
-            synchronized (this) {
-                if (mViewModelCommandRef == null) {
-                    mViewModelCommandRef = new WeakReference<>(viewModelCommand);
-                } else {
-                    mViewModelCommandRef.clear();
-                    mViewModelCommandRef = new WeakReference<>(viewModelCommand);
+    public boolean isTypeHierarchyDispatch() {
+        return mTypeHierarchyDispatch;
+    }
+
+    /**
+     * 开启或关闭运行指标，默认关闭，参见 {@link EventBusMetrics}。
+     * <p>
+     * 开启后会记录每个 event tag 的发送次数和扇出，以及每个 event tag 下每种注册者的排队耗时和运行耗时。
+     * 关闭后不再记录，也不会有额外的开销。重新开启时会从零开始记录。
+     *
+     * @param enabled true 表示开启，false 表示关闭
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (enabled == (mMetrics != null)) {
+                return;
+            }
+
+            EventBusMetrics metrics = enabled ? new EventBusMetrics() : null;
+            mMetrics = metrics;
+            AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+            for (int id = 0; id < subscribers.length(); id++) {
+                Subscription[] subscriptions = subscribers.get(id);
+                if (subscriptions != null) {
+                    for (Subscription subscription : subscriptions) {
+                        attachMetrics(metrics, subscription);
+                    }
                 }
             }
         }
+    }
+
+    public boolean isMetricsEnabled() {
+        return mMetrics != null;
+    }
+
+    /**
+     * 返回运行指标，没有开启时返回 null。
+     *
+     * @return 运行指标
+     */
+    @Nullable
+    public EventBusMetrics getMetrics() {
+        return mMetrics;
+    }
 
-        public boolean equals(@NonNull String eventTag) {
-            synchronized (this) {
-                return eventTag.equals(mEventTag);
+    /**
+     * 开启或关闭诊断，默认关闭，参见 {@link EventBusDiagnostics}。
+     * <p>
+     * 开启后会记录每个 event tag 的死事件，以及运行耗时超过预算的注册者，并采样获取堆栈。
+     * 关闭后不再记录，也不会有额外的开销。重新开启时会从零开始记录。
+     *
+     * @param enabled true 表示开启，false 表示关闭
+     */
+    public void setDiagnosticsEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (enabled == (mDiagnostics != null)) {
+                return;
             }
-        }
 
-        public boolean equals(@NonNull String eventTag,
-                              boolean isDataClass,
-                              @NonNull Class dataClass) {
-            synchronized (this) {
-                if (isDataClass) {
-                    return eventTag.equals(mEventTag) && dataClass.equals(mDataClass);
-                } else {
-                    return eventTag.equals(mEventTag) && dataClass.equals(mViewModelClass);
+            EventBusDiagnostics diagnostics = enabled ? new EventBusDiagnostics() : null;
+            mDiagnostics = diagnostics;
+            AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+            for (int id = 0; id < subscribers.length(); id++) {
+                Subscription[] subscriptions = subscribers.get(id);
+                if (subscriptions != null) {
+                    for (Subscription subscription : subscriptions) {
+                        attachDiagnostics(diagnostics, subscription);
+                    }
                 }
             }
         }
+    }
 
-        public boolean equals(@NonNull String eventTag,
-                              @NonNull Class dataClass,
-                              @NonNull Class<? extends BaseViewModel> viewModelClass) {
-            synchronized (this) {
-                return eventTag.equals(mEventTag) &&
-                        dataClass.equals(mDataClass) &&
-                        viewModelClass.equals(mViewModelClass);
-            }
+    public boolean isDiagnosticsEnabled() {
+        return mDiagnostics != null;
+    }
+
+    /**
+     * 返回诊断，没有开启时返回 null。
+     *
+     * @return 诊断
+     */
+    @Nullable
+    public EventBusDiagnostics getDiagnostics() {
+        return mDiagnostics;
+    }
+
+    /**
+     * 把事件日志连接到全局总线上，参见 {@link EventJournal}。
+     * <p>
+     * 连接时会先把日志中每个 (event tag, key) 的最新记录作为粘性事件重放到总线中，
+     * 之后在日志选定的 event tag 下广播的事件（包括通过作用域总线发送的事件）都会被追加到日志中。
+     * 定向发送的事件不会被记录。
+     * <p>
+     * 这个方法会读取磁盘，推荐在 {@link android.app.Application#onCreate()} 中，
+     * 在创建任何 ViewModel 之前调用。
+     *
+     * @param journal 事件日志
+     * @return 重放的事件数量
+     * @throws IOException 读取日志失败
+     */
+    public int attachJournal(@NonNull EventJournal journal) throws IOException {
+        if (mParent != null) {
+            throw new IllegalStateException("A journal can only be attached to the global ViewModelEventBus");
+        }
+        if (mJournal != null) {
+            throw new IllegalStateException("A journal is already attached");
+        }
+
+        // 先重放再连接，重放的事件不会被重复记录
+        int count = journal.open(this);
+        mJournal = journal;
+
+        return count;
+    }
+
+    /**
+     * 断开并关闭事件日志，之后发送的事件不会再被记录。
+     */
+    public void detachJournal() {
+        EventJournal journal = mJournal;
+        mJournal = null;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Nullable
+    public EventJournal getJournal() {
+        return mJournal;
+    }
+
+    /**
+     * 由 {@link EventBridge#start(java.io.InputStream, java.io.OutputStream, java.io.Closeable)} 调用，
+     * 事件桥总是连接到全局总线上。
+     */
+    void addBridge(@NonNull EventBridge bridge) {
+        getRoot().mBridges.add(bridge);
+    }
+
+    void removeBridge(@NonNull EventBridge bridge) {
+        getRoot().mBridges.remove(bridge);
+    }
+
+    /**
+     * ViewModelEventBus 中是否含有事件标志为 eventTag 的事件总线。
+     *
+     * @param eventTag 事件标志
+     * @return 如果存在返回 true，否则返回 false
+     */
+    public boolean contains(@NonNull String eventTag) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.contains(eventTag);
         }
 
-        public void clear() {
-            mEventTag = null;
-            mDataClass = null;
-            mViewModelClass = null;
-            if (mViewModelCommandRef != null) {
-                mViewModelCommandRef.clear();
+        for (EventKey eventKey : EventKey.keysOf(eventTag)) {
+            if (getSubscriptions(eventKey) != null) {
+                return true;
             }
-            mViewModelCommandRef = null;
         }
 
+        return false;
+    }
 
-        private <T> boolean equals(@Nullable T t1, @Nullable T t2) {
-            return t1 == null && t2 == null || t1 != null && t2 != null && t1.equals(t2);
+    /**
+     * ViewModelEventBus 中是否含有事件标志为 eventTag 且接受类型为 dataClass
+     * 的事件总线。如果参数 dataClass 为 null 表示不接受数据的事件总线。
+     *
+     * @param eventTag  事件标志
+     * @param dataClass 接受数据的类型，如果为 null 表示不接受数据的事件总线。
+     * @param <T>       数据类型
+     * @return 如果存在返回 true，否则返回 false
+     */
+    public <T> boolean contains(@NonNull String eventTag,
+                                @Nullable Class<T> dataClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.contains(eventTag, dataClass);
         }
+
+        Class dc = dataClass;
+        if (dc == null) {
+            dc = NoDataEventType.class;
+        }
+
+        EventKey eventKey = EventKey.find(eventTag, dc);
+
+        return eventKey != null && getSubscriptions(eventKey) != null;
+    }
+
+    /**
+     * ViewModelEventBus 中是否含有事件标志为 eventTag 、接受类型为 dataClass，
+     * 且类型为 viewModelClass 的 ViewModel 对象。如果参数 dataClass 为 null 表示不接受数据
+     * 的 ViewModel 对象。
+     *
+     * @param eventTag       事件标志
+     * @param dataClass      接受数据的类型，如果为 null 表示不接受数据的 ViewModel 对象。
+     * @param viewModelClass ViewModel 的类型
+     * @param <T>            数据类型
+     * @return 如果存在返回 true，否则返回 false
+     */
+    public <T> boolean contains(@NonNull String eventTag,
+                                @Nullable Class<T> dataClass,
+                                @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.contains(eventTag, dataClass, viewModelClass);
+        }
+
+        Class dc = dataClass;
+        if (dc == null) {
+            dc = NoDataEventType.class;
+        }
+
+        EventKey eventKey = EventKey.find(eventTag, dc);
+        Subscription[] subscriptions = eventKey != null ? getSubscriptions(eventKey) : null;
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.mViewModelClass == viewModelClass) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向这个 eventTag 下注册的所有 ViewModel 对象。
+     * 而只有那些不接受数据的 ViewModel 对象会接受事件，并回调命令。
+     * <p>
+     * 这种发送事件的方式相当于广播。
+     *
+     * @param eventTag 事件标志
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public boolean post(@NonNull String eventTag) {
+        return dispatch(eventTag, findSubscriptions(eventTag, NoDataEventType.class));
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向这个 eventTag 下注册的所有 ViewModel 对象。
+     * 而只有那些接收数据且数据类型与 data 相同的 ViewModel 对象会接受事件，并回调命令。
+     * 如果开启了类型层次分发，数据类型是 data 的父类或接口的 ViewModel 对象也会接受事件，
+     * 参见 {@link #setTypeHierarchyDispatch(boolean)}。
+     * <p>
+     * 这种发送事件的方式相当于广播。
+     *
+     * @param eventTag 事件标志
+     * @param data     数据
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    @SuppressWarnings("unchecked")
+    public <T> boolean post(@NonNull String eventTag, @NonNull T data) {
+        return dispatch(eventTag, findSubscriptions(eventTag, data.getClass()), data);
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向在 eventKey 下注册的所有 ViewModel 对象，
+     * 它们都会接受事件，并回调命令。
+     * <p>
+     * 与 {@link #post(String, Object)} 不同，这个方法不会根据 data 的运行时类型查找事件总线，
+     * 而是直接使用 eventKey 的 id 读取订阅者数组，所以发送事件的开销只有一次数组读取和一次遍历。
+     * 开启类型层次分发后，为 eventKey 数据类型的父类型注册的 ViewModel 也会接受事件。
+     *
+     * @param eventKey 事件键
+     * @param data     数据
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public <T> boolean post(@NonNull EventKey<T> eventKey, @NonNull T data) {
+        return dispatch(eventKey.getEventTag(), findSubscriptions(eventKey), data);
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向在 eventKey 下注册的所有不接受数据的 ViewModel 对象，
+     * 参见 {@link #post(EventKey, Object)}。
+     *
+     * @param eventKey 事件键
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public boolean post(@NonNull EventKey<Void> eventKey) {
+        return dispatch(eventKey.getEventTag(), findSubscriptions(eventKey));
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向这个 eventTag 下注册类型为 viewModelClass，
+     * 并且接受数据类型与 data 相同的 viewModel。只有这个 viewModel 会接受事件并回调命令。
+     * <p>
+     * 这种发送命令的方式相当于点对点传播。
+     * <p>
+     * 这个方法会缓存查找的结果，缓存以 (eventTag, 数据类型, viewModelClass) 为键，
+     * 可以同时保存多个目标。如果这一次所发送的事件已经被缓存，就无需再次进行查找操作，
+     * 而是直接从缓存中取出目标并进行操作。注册和取消注册会使相应的缓存失效。
+     *
+     * @param eventTag       事件标志
+     * @param data           数据
+     * @param viewModelClass 指定 ViewModel 的类型
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public <T> boolean post(@NonNull String eventTag,
+                            @NonNull T data,
+                            @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        EventKey eventKey = EventKey.find(eventTag, data.getClass());
+
+        if (eventKey == null) {
+            return dispatchTo(eventTag, findSubscriptions(eventTag, data.getClass()), data, viewModelClass);
+        }
+
+        return dispatchTo(eventKey, data, viewModelClass);
+    }
+
+    /**
+     * 发送事件。
+     * <p>
+     * 这个方法所发送的事件面向这个 eventTag 下注册类型为 viewModelClass，
+     * 并且不接受任何数据的 viewModel。只有这个 viewModel 会接受事件并回调命令。
+     * <p>
+     * 这种发送命令的方式相当于点对点传播。
+     * <p>
+     * 这个方法会缓存查找的结果，参见 {@link #post(String, Object, Class)}。
+     *
+     * @param eventTag       事件标志
+     * @param viewModelClass 指定 ViewModel 的类型
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public <T> boolean post(@NonNull String eventTag,
+                            @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        EventKey eventKey = EventKey.find(eventTag, NoDataEventType.class);
+
+        if (eventKey == null) {
+            return dispatchTo(eventTag, findSubscriptions(eventTag, NoDataEventType.class), null, viewModelClass);
+        }
+
+        return dispatchTo(eventKey, null, viewModelClass);
+    }
+
+    /**
+     * 发送事件，参见 {@link #post(String, Object, Class)}。
+     *
+     * @param eventKey       事件键
+     * @param data           数据
+     * @param viewModelClass 指定 ViewModel 的类型
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public <T> boolean post(@NonNull EventKey<T> eventKey,
+                            @NonNull T data,
+                            @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        return dispatchTo(eventKey, data, viewModelClass);
+    }
+
+    /**
+     * 发送事件，参见 {@link #post(String, Class)}。
+     *
+     * @param eventKey       事件键
+     * @param viewModelClass 指定 ViewModel 的类型
+     * @return 当有 ViewModel 响应这个事件时返回 true，否则返回 false
+     */
+    public boolean post(@NonNull EventKey<Void> eventKey,
+                        @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        return dispatchTo(eventKey, null, viewModelClass);
+    }
+
+
+    /**
+     * 异步发送事件，并返回一个完成句柄。
+     * <p>
+     * 接受事件的 ViewModel 与 {@link #post(String, Object)} 相同。当所有命令都运行结束后，
+     * 返回的 {@link PostCompletion} 就完成了，命令抛出的异常会被收集到其中。
+     * 为了追踪每一次执行，这次发送不会经过命令的邮箱，也不会被合并。
+     *
+     * @param eventTag 事件标志
+     * @param data     数据
+     * @return 完成句柄，没有 ViewModel 响应这个事件时返回一个已经完成的句柄
+     */
+    @NonNull
+    public <T> PostCompletion postAsync(@NonNull String eventTag, @NonNull T data) {
+        return dispatchAsync(eventTag, findSubscriptions(eventTag, data.getClass()), data);
+    }
+
+    /**
+     * 异步发送事件，参见 {@link #postAsync(String, Object)} 和 {@link #post(EventKey, Object)}。
+     *
+     * @param eventKey 事件键
+     * @param data     数据
+     * @return 完成句柄，没有 ViewModel 响应这个事件时返回一个已经完成的句柄
+     */
+    @NonNull
+    public <T> PostCompletion postAsync(@NonNull EventKey<T> eventKey, @NonNull T data) {
+        return dispatchAsync(eventKey.getEventTag(), findSubscriptions(eventKey), data);
+    }
+
+    /**
+     * 异步发送不需要数据的事件，参见 {@link #postAsync(String, Object)} 和 {@link #post(String)}。
+     *
+     * @param eventTag 事件标志
+     * @return 完成句柄，没有 ViewModel 响应这个事件时返回一个已经完成的句柄
+     */
+    @NonNull
+    public PostCompletion postAsync(@NonNull String eventTag) {
+        return dispatchAsync(eventTag, findSubscriptions(eventTag, NoDataEventType.class), null);
+    }
+
+    /**
+     * 异步发送不需要数据的事件，参见 {@link #postAsync(String)}。
+     *
+     * @param eventKey 事件键
+     * @return 完成句柄，没有 ViewModel 响应这个事件时返回一个已经完成的句柄
+     */
+    @NonNull
+    public PostCompletion postAsync(@NonNull EventKey<Void> eventKey) {
+        return dispatchAsync(eventKey.getEventTag(), findSubscriptions(eventKey), null);
+    }
+
+
+    /**
+     * 返回负责 eventTag 的总线：全局总线和本地 event tag 返回这个总线，其他情况返回父总线负责的总线。
+     */
+    @NonNull
+    private ViewModelEventBus route(@NonNull String eventTag) {
+        if (mParent == null) {
+            return this;
+        }
+        if (mLocalTags.length == 0) {
+            return mParent.route(eventTag);
+        }
+
+        Boolean local = mLocalTagCache.get(eventTag);
+        if (local == null) {
+            local = false;
+            for (String localTag : mLocalTags) {
+                if (localTag.equals(eventTag) || TagTrie.matches(localTag, eventTag)) {
+                    local = true;
+                    break;
+                }
+            }
+            if (mLocalTagCache.size() < MAX_LOCAL_TAG_CACHE_SIZE) {
+                mLocalTagCache.put(eventTag, local);
+            }
+        }
+
+        return local ? this : mParent.route(eventTag);
+    }
+
+    @Nullable
+    private Subscription[] getSubscriptions(@NonNull EventKey eventKey) {
+        AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+        int id = eventKey.getId();
+
+        return id < subscribers.length() ? subscribers.get(id) : null;
+    }
+
+    /**
+     * 查找 eventKey 下接受事件的订阅者。没有开启类型层次分发，也没有通配符注册时，
+     * 直接读取订阅者数组；否则读取解析缓存，参见 {@link #resolve(EventKey)}。
+     */
+    @Nullable
+    private Subscription[] findSubscriptions(@NonNull EventKey eventKey) {
+        ViewModelEventBus eventBus = route(eventKey.getEventTag());
+        if (eventBus != this) {
+            return eventBus.findSubscriptions(eventKey);
+        }
+
+        if (mTypeHierarchyDispatch || !mTagTrie.isEmpty()) {
+            return resolve(eventKey);
+        }
+
+        return getSubscriptions(eventKey);
+    }
+
+    /**
+     * 查找 (eventTag, dataClass) 下接受事件的订阅者。已经驻留了事件键时与 {@link #findSubscriptions(EventKey)}
+     * 相同；否则只有需要解析时才可能有订阅者，解析结果缓存在 mResolvedTags 中，参见 {@link #resolve(String, Class)}。
+     */
+    @Nullable
+    private Subscription[] findSubscriptions(@NonNull String eventTag, @NonNull Class dataClass) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.findSubscriptions(eventTag, dataClass);
+        }
+
+        EventKey eventKey = EventKey.find(eventTag, dataClass);
+        if (mTypeHierarchyDispatch || !mTagTrie.isEmpty()) {
+            return eventKey != null ? resolve(eventKey) : resolve(eventTag, dataClass);
+        }
+
+        return eventKey != null ? getSubscriptions(eventKey) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean dispatch(@NonNull String eventTag,
+                             @Nullable Subscription[] subscriptions,
+                             @NonNull Object data) {
+        purgeCollectedSubscriptions();
+        recordPosts(eventTag, subscriptions, 1);
+        onBroadcast(eventTag, data);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                ViewModelCommand command = subscription.getCommand();
+                if (command != null) {
+                    command.execute(data);
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @NonNull
+    @SuppressWarnings("unchecked")
+    private PostCompletion dispatchAsync(@NonNull String eventTag,
+                                         @Nullable Subscription[] subscriptions,
+                                         @Nullable Object data) {
+        purgeCollectedSubscriptions();
+        recordPosts(eventTag, subscriptions, 1);
+        if (data != null) {
+            onBroadcast(eventTag, data);
+        }
+        if (subscriptions == null) {
+            return PostCompletion.EMPTY;
+        }
+
+        PostCompletion completion = new PostCompletion();
+        for (Subscription subscription : subscriptions) {
+            ViewModelCommand command = subscription.getCommand();
+            if (command != null) {
+                if (data != null) {
+                    command.executeTracked(data, completion);
+                } else {
+                    command.executeTracked(completion);
+                }
+            }
+        }
+        completion.seal();
+
+        return completion;
+    }
+
+    private boolean dispatchTo(@NonNull EventKey eventKey,
+                               @Nullable Object data,
+                               @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        purgeCollectedSubscriptions();
+        Subscription[] subscriptions = findSubscriptions(eventKey);
+        if (subscriptions == null) {
+            recordPosts(eventKey.getEventTag(), null, 1);
+            return false;
+        }
+
+        Subscription target;
+        TargetedDispatchCache.Entry entry = mTargetedCache.get(eventKey, viewModelClass, subscriptions);
+        if (entry != null) {
+            target = entry.mTarget;
+        } else {
+            target = findTarget(subscriptions, viewModelClass);
+            mTargetedCache.put(eventKey, viewModelClass, subscriptions, target);
+        }
+
+        return dispatchTo(eventKey.getEventTag(), target, data);
+    }
+
+    /**
+     * 没有驻留事件键的 event tag 只能通过通配符或类型层次接受事件，这种情况很少见，不使用点对点缓存。
+     */
+    private boolean dispatchTo(@NonNull String eventTag,
+                               @Nullable Subscription[] subscriptions,
+                               @Nullable Object data,
+                               @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        purgeCollectedSubscriptions();
+        if (subscriptions == null) {
+            recordPosts(eventTag, null, 1);
+            return false;
+        }
+
+        return dispatchTo(eventTag, findTarget(subscriptions, viewModelClass), data);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean dispatchTo(@NonNull String eventTag, @Nullable Subscription target, @Nullable Object data) {
+        ViewModelCommand command = target != null ? target.getCommand() : null;
+        recordPosts(eventTag, command != null ? 1 : 0, 1);
+        if (command == null) {
+            return false;
+        }
+        if (data != null) {
+            command.execute(data);
+        } else {
+            command.execute();
+        }
+
+        return true;
+    }
+
+    @Nullable
+    private static Subscription findTarget(@NonNull Subscription[] subscriptions,
+                                           @NonNull Class<? extends BaseViewModel> viewModelClass) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.mViewModelClass == viewModelClass) {
+                return subscription;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean dispatchBatch(@NonNull String eventTag,
+                                  @NonNull Class dataClass,
+                                  @NonNull List<Object> events) {
+        return dispatchBatch(eventTag, findSubscriptions(eventTag, dataClass), events);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean dispatchBatch(@NonNull String eventTag,
+                                  @Nullable Subscription[] subscriptions,
+                                  @NonNull List<Object> events) {
+        purgeCollectedSubscriptions();
+        recordPosts(eventTag, subscriptions, events.size());
+        for (Object event : events) {
+            onBroadcast(eventTag, event);
+        }
+        if (subscriptions != null) {
+            // 所有注册者共享同一个不可变的列表
+            List<Object> batch = Collections.unmodifiableList(events);
+            for (Subscription subscription : subscriptions) {
+                ViewModelCommand command = subscription.getCommand();
+                if (command != null) {
+                    command.executeBatch(batch);
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean dispatch(@NonNull String eventTag, @Nullable Subscription[] subscriptions) {
+        purgeCollectedSubscriptions();
+        recordPosts(eventTag, subscriptions, 1);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                ViewModelCommand command = subscription.getCommand();
+                if (command != null) {
+                    command.execute();
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Nullable
+    private Subscription addSubscription(@NonNull EventKey eventKey,
+                                         @NonNull ViewModelCommand command,
+                                         boolean weak) {
+        ViewModelEventBus eventBus = route(eventKey.getEventTag());
+        if (eventBus != this) {
+            return eventBus.addSubscription(eventKey, command, weak);
+        }
+
+        if (mDestroyed) {
+            throw new IllegalStateException("This ViewModelEventBus has been destroyed: " + eventKey);
+        }
+
+        purgeCollectedSubscriptions();
+        Subscription subscription;
+        List<Object> stickyEvents = null;
+        // 插入注册记录和读取粘性事件必须与 postSticky 互斥，参见 postSticky
+        synchronized (mLock) {
+            subscription = insertSubscription(eventKey, command, weak);
+            if (subscription != null && eventKey.hasData() && !mStickyEvents.isEmpty()) {
+                stickyEvents = collectStickyEvents(subscription);
+            }
+        }
+        if (stickyEvents != null) {
+            replayStickyEvents(subscription, stickyEvents);
+        }
+
+        return subscription;
+    }
+
+    @Nullable
+    private Subscription insertSubscription(@NonNull EventKey eventKey,
+                                            @NonNull ViewModelCommand command,
+                                            boolean weak) {
+        int id = eventKey.getId();
+        boolean pattern = eventKey.isPattern();
+        if (pattern) {
+            TagTrie.checkPattern(eventKey.getEventTag());
+        }
+        synchronized (mLock) {
+            AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+            if (id >= subscribers.length()) {
+                mSubscribers = subscribers = grow(subscribers, id);
+            }
+
+            Subscription subscription = new Subscription(this, eventKey, command,
+                    weak ? mCollectedCommands : null);
+            Subscription[] oldSubscriptions = subscribers.get(id);
+            Subscription[] newSubscriptions;
+            if (oldSubscriptions == null) {
+                newSubscriptions = new Subscription[]{subscription};
+            } else {
+                for (Subscription oldSubscription : oldSubscriptions) {
+                    if (oldSubscription.getCommand() == command) {
+                        // 已经存在返回 null
+                        return null;
+                    }
+                }
+                // 订阅者数组按优先级从高到低排列，相同优先级的按注册顺序排列，
+                // 所以新的注册记录插入到最后一个优先级不低于它的注册记录之后
+                int index = oldSubscriptions.length;
+                while (index > 0 && oldSubscriptions[index - 1].mPriority < subscription.mPriority) {
+                    index--;
+                }
+                newSubscriptions = new Subscription[oldSubscriptions.length + 1];
+                System.arraycopy(oldSubscriptions, 0, newSubscriptions, 0, index);
+                newSubscriptions[index] = subscription;
+                System.arraycopy(oldSubscriptions, index, newSubscriptions, index + 1,
+                        oldSubscriptions.length - index);
+            }
+            subscribers.set(id, newSubscriptions);
+            if (pattern) {
+                mTagTrie.add(eventKey.getEventTag());
+            }
+            mVersion++;
+            if (mMetrics != null) {
+                attachMetrics(mMetrics, subscription);
+            }
+            if (mDiagnostics != null) {
+                attachDiagnostics(mDiagnostics, subscription);
+            }
+
+            BaseViewModel viewModel = command.getViewModel();
+            List<Subscription> viewModelSubscriptions = mViewModelSubscriptions.get(viewModel);
+            if (viewModelSubscriptions == null) {
+                viewModelSubscriptions = new ArrayList<>(2);
+                mViewModelSubscriptions.put(viewModel, viewModelSubscriptions);
+            }
+            viewModelSubscriptions.add(subscription);
+            if (weak) {
+                mWeakSubscriptionCount.incrementAndGet();
+            }
+
+            return subscription;
+        }
+    }
+
+    boolean unsubscribe(@NonNull Subscription subscription) {
+        synchronized (mLock) {
+            return removeSubscription(subscription);
+        }
+    }
+
+    /**
+     * 在一次加锁中取消多条注册记录，参见 {@link SubscriptionScope#releaseAll()}。
+     *
+     * @return 被取消的注册数量
+     */
+    int unsubscribeAll(@NonNull Subscription[] subscriptions) {
+        int count = 0;
+        boolean delegated = false;
+        synchronized (mLock) {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.mEventBus != this) {
+                    delegated = true;
+                } else if (removeSubscription(subscription)) {
+                    count++;
+                }
+            }
+        }
+        // 作用域总线中委托给父总线的注册记录属于父总线
+        if (delegated) {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.mEventBus != this && subscription.mEventBus.unsubscribe(subscription)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 移除一条注册记录，同时更新反向索引。必须在 mLock 锁中调用。
+     */
+    private boolean removeSubscription(@NonNull Subscription subscription) {
+        if (!removeFromSubscribers(subscription)) {
+            return false;
+        }
+
+        BaseViewModel viewModel = subscription.getViewModel();
+        List<Subscription> viewModelSubscriptions = viewModel != null ?
+                mViewModelSubscriptions.get(viewModel) : null;
+        if (viewModelSubscriptions != null) {
+            viewModelSubscriptions.remove(subscription);
+            if (viewModelSubscriptions.isEmpty()) {
+                mViewModelSubscriptions.remove(viewModel);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 移除 eventKey 下的所有注册记录。
+     */
+    private boolean removeSubscriptions(@NonNull EventKey eventKey) {
+        synchronized (mLock) {
+            Subscription[] subscriptions = getSubscriptions(eventKey);
+            if (subscriptions == null) {
+                return false;
+            }
+
+            for (Subscription subscription : subscriptions) {
+                removeSubscription(subscription);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * 从订阅者数组中移除一条注册记录，并清空它的命令，不会更新反向索引。
+     * 必须在 mLock 锁中调用。
+     */
+    private boolean removeFromSubscribers(@NonNull Subscription subscription) {
+        if (subscription.mUnsubscribed) {
+            return false;
+        }
+
+        AtomicReferenceArray<Subscription[]> subscribers = mSubscribers;
+        int id = subscription.mEventKey.getId();
+        Subscription[] oldSubscriptions = id < subscribers.length() ? subscribers.get(id) : null;
+        if (oldSubscriptions == null) {
+            return false;
+        }
+
+        int index = -1;
+        for (int i = 0; i < oldSubscriptions.length; i++) {
+            if (oldSubscriptions[i] == subscription) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+
+        if (oldSubscriptions.length == 1) {
+            subscribers.set(id, null);
+        } else {
+            Subscription[] newSubscriptions = new Subscription[oldSubscriptions.length - 1];
+            System.arraycopy(oldSubscriptions, 0, newSubscriptions, 0, index);
+            System.arraycopy(oldSubscriptions, index + 1, newSubscriptions, index,
+                    oldSubscriptions.length - index - 1);
+            subscribers.set(id, newSubscriptions);
+        }
+        if (subscription.mEventKey.isPattern()) {
+            mTagTrie.remove(subscription.mEventKey.getEventTag());
+        }
+        mVersion++;
+        subscription.mUnsubscribed = true;
+        if (subscription.isWeak()) {
+            mWeakSubscriptionCount.decrementAndGet();
+        }
+        ViewModelCommand command = subscription.getCommand();
+        if (command != null) {
+            command.clear();
+        }
+        mTargetedCache.invalidate(subscription.mEventKey);
+
+        return true;
+    }
+
+
+    /**
+     * 清理命令已经被回收的弱引用注册记录。没有弱引用注册时，这个方法只读取一次计数器。
+     */
+    private void purgeCollectedSubscriptions() {
+        if (mWeakSubscriptionCount.get() == 0) {
+            return;
+        }
+
+        Reference<? extends ViewModelCommand> reference;
+        while ((reference = mCollectedCommands.poll()) != null) {
+            if (unsubscribe(((Subscription.CommandReference) reference).mSubscription)) {
+                mPurgedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 收集 event tag 下保存的、应该重放给新的注册者的粘性事件。必须在 mLock 锁中调用。
+     */
+    @NonNull
+    private List<Object> collectStickyEvents(@NonNull Subscription subscription) {
+        List<Object> stickyEvents = new ArrayList<>();
+        String eventTag = subscription.mEventKey.getEventTag();
+        if (!subscription.mEventKey.isPattern()) {
+            StickyBuffer stickyBuffer = mStickyEvents.get(eventTag);
+            if (stickyBuffer != null) {
+                collectStickyEvents(subscription, stickyBuffer, stickyEvents);
+            }
+            return stickyEvents;
+        }
+
+        // 通配符注册者会收到所有匹配的 event tag 下的粘性事件
+        for (Map.Entry<String, StickyBuffer> entry : mStickyEvents.entrySet()) {
+            if (TagTrie.matches(eventTag, entry.getKey())) {
+                collectStickyEvents(subscription, entry.getValue(), stickyEvents);
+            }
+        }
+
+        return stickyEvents;
+    }
+
+    private void collectStickyEvents(@NonNull Subscription subscription,
+                                     @NonNull StickyBuffer stickyBuffer,
+                                     @NonNull List<Object> stickyEvents) {
+        Class dataClass = subscription.mEventKey.getRawDataClass();
+        boolean typeHierarchy = mTypeHierarchyDispatch;
+        for (Object event : stickyBuffer.snapshot()) {
+            if (event.getClass() == dataClass || typeHierarchy && dataClass.isInstance(event)) {
+                stickyEvents.add(event);
+            }
+        }
+    }
+
+    /**
+     * 将粘性事件重放给新的注册者，在锁外调用，命令的调度不会阻塞其他注册和发送。
+     */
+    @SuppressWarnings("unchecked")
+    private static void replayStickyEvents(@NonNull Subscription subscription, @NonNull List<Object> stickyEvents) {
+        ViewModelCommand command = subscription.getCommand();
+        if (command == null) {
+            return;
+        }
+
+        for (Object event : stickyEvents) {
+            command.execute(event);
+        }
+    }
+
+    /**
+     * 解析 eventKey 下接受事件的所有订阅者：开启类型层次分发时包括数据类型的所有父类型，
+     * 有通配符注册时包括所有匹配的通配符 event tag。结果会被缓存，直到下一次注册或取消注册。
+     */
+    @Nullable
+    private Subscription[] resolve(@NonNull EventKey eventKey) {
+        int id = eventKey.getId();
+        int version = mVersion;
+        AtomicReferenceArray<ResolvedSubscriptions> resolved = mResolved;
+        ResolvedSubscriptions cached = id < resolved.length() ? resolved.get(id) : null;
+        if (cached != null && cached.mVersion == version) {
+            return cached.mSubscriptions;
+        }
+
+        Subscription[] subscriptions = resolve(eventKey.getEventTag(), eventKey.getRawDataClass(),
+                eventKey.isPattern());
+
+        if (id >= resolved.length()) {
+            synchronized (mLock) {
+                resolved = mResolved;
+                if (id >= resolved.length()) {
+                    mResolved = resolved = grow(resolved, id);
+                }
+            }
+        }
+        // 解析期间如果发生了注册或取消注册，version 已经过期，下一次发送时会重新解析
+        resolved.set(id, new ResolvedSubscriptions(version, subscriptions));
+
+        return subscriptions;
+    }
+
+    /**
+     * 解析没有驻留事件键的具体 event tag，结果缓存在 mResolvedTags 中，同样在 mVersion 变化时失效。
+     */
+    @Nullable
+    private Subscription[] resolve(@NonNull String eventTag, @NonNull Class dataClass) {
+        int version = mVersion;
+        int hash = eventTag.hashCode() * 31 + dataClass.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (RESOLVED_TAG_SLOTS - 1);
+        ResolvedSubscriptions cached = mResolvedTags.get(slot);
+        if (cached != null && cached.mVersion == version && cached.mDataClass == dataClass &&
+                eventTag.equals(cached.mEventTag)) {
+            return cached.mSubscriptions;
+        }
+
+        Subscription[] subscriptions = resolve(eventTag, dataClass, false);
+        mResolvedTags.set(slot, new ResolvedSubscriptions(version, subscriptions, eventTag, dataClass));
+
+        return subscriptions;
+    }
+
+    @Nullable
+    private Subscription[] resolve(@NonNull String eventTag, @NonNull Class dataClass, boolean pattern) {
+        List<String> eventTags = new ArrayList<>(2);
+        eventTags.add(eventTag);
+        if (!pattern) {
+            mTagTrie.match(eventTag, eventTags);
+        }
+        Class[] types = mTypeHierarchyDispatch && dataClass != NoDataEventType.class ?
+                TypeHierarchy.of(dataClass) : new Class[]{dataClass};
+
+        List<Subscription> result = new ArrayList<>();
+        for (String tag : eventTags) {
+            for (Class type : types) {
+                EventKey typeKey = EventKey.find(tag, type);
+                Subscription[] subscriptions = typeKey != null ? getSubscriptions(typeKey) : null;
+                if (subscriptions != null) {
+                    Collections.addAll(result, subscriptions);
+                }
+            }
+        }
+        // 来自不同数据类型和 event tag 的注册记录需要重新按优先级排列，Collections.sort 是稳定的
+        Collections.sort(result, PRIORITY_ORDER);
+
+        return result.isEmpty() ? null : result.toArray(new Subscription[result.size()]);
+    }
+
+    @NonNull
+    private StickyBuffer getStickyBuffer(@NonNull String eventTag) {
+        ViewModelEventBus eventBus = route(eventTag);
+        if (eventBus != this) {
+            return eventBus.getStickyBuffer(eventTag);
+        }
+
+        StickyBuffer stickyBuffer = mStickyEvents.get(eventTag);
+        if (stickyBuffer == null) {
+            StickyBuffer newStickyBuffer = new StickyBuffer(DEFAULT_STICKY_CAPACITY, 0);
+            stickyBuffer = mStickyEvents.putIfAbsent(eventTag, newStickyBuffer);
+            if (stickyBuffer == null) {
+                stickyBuffer = newStickyBuffer;
+            }
+        }
+
+        return stickyBuffer;
+    }
+
+    /**
+     * 移除 id 下的应答者为 responder，或者 ViewModel 为 viewModel 的注册记录。必须在 mLock 锁中调用。
+     */
+    private boolean removeResponders(int id,
+                                     @Nullable ViewModelResponder responder,
+                                     @Nullable BaseViewModel viewModel) {
+        AtomicReferenceArray<ResponderRegistration[]> responders = mResponders;
+        ResponderRegistration[] oldRegistrations = id < responders.length() ? responders.get(id) : null;
+        if (oldRegistrations == null) {
+            return false;
+        }
+
+        List<ResponderRegistration> newRegistrations = new ArrayList<>(oldRegistrations.length);
+        List<ResponderRegistration> removed = new ArrayList<>(1);
+        for (ResponderRegistration registration : oldRegistrations) {
+            if (registration.mResponder == responder ||
+                    viewModel != null && registration.mResponder.getViewModel() == viewModel) {
+                removed.add(registration);
+            } else {
+                newRegistrations.add(registration);
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+
+        responders.set(id, newRegistrations.isEmpty() ? null :
+                newRegistrations.toArray(new ResponderRegistration[newRegistrations.size()]));
+        for (ResponderRegistration registration : removed) {
+            BaseViewModel owner = registration.mResponder.getViewModel();
+            List<ResponderRegistration> viewModelResponders = owner != null ?
+                    mViewModelResponders.get(owner) : null;
+            if (viewModelResponders != null) {
+                viewModelResponders.remove(registration);
+                if (viewModelResponders.isEmpty()) {
+                    mViewModelResponders.remove(owner);
+                }
+            }
+            registration.mResponder.clear();
+        }
+
+        return true;
+    }
+
+    @NonNull
+    private ScheduledEvent schedule(@NonNull String eventTag,
+                                    @Nullable Object data,
+                                    long delayMillis,
+                                    long periodMillis) {
+        DelayedPost delayedPost = new DelayedPost(this, eventTag, data);
+        ScheduledEvent scheduledEvent = TimerWheel.getInstance().schedule(delayedPost,
+                TimeUnit.MILLISECONDS.toNanos(delayMillis), TimeUnit.MILLISECONDS.toNanos(periodMillis));
+        delayedPost.mScheduledEvent = scheduledEvent;
+
+        return scheduledEvent;
+    }
+
+    private static void checkPeriod(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+        }
+    }
+
+    /**
+     * 把广播的事件交给全局总线上连接的事件日志和事件桥。
+     */
+    private void onBroadcast(@NonNull String eventTag, @NonNull Object data) {
+        ViewModelEventBus root = getRoot();
+        EventJournal journal = root.mJournal;
+        if (journal != null) {
+            journal.append(eventTag, data);
+        }
+        if (!root.mBridges.isEmpty()) {
+            for (EventBridge bridge : root.mBridges) {
+                bridge.send(eventTag, data);
+            }
+        }
+    }
+
+    @NonNull
+    private ViewModelEventBus getRoot() {
+        ViewModelEventBus root = this;
+        while (root.mParent != null) {
+            root = root.mParent;
+        }
+
+        return root;
+    }
+
+    private void recordPosts(@NonNull String eventTag, @Nullable Subscription[] subscriptions, int count) {
+        recordPosts(eventTag, subscriptions != null ? subscriptions.length : 0, count);
+    }
+
+    /**
+     * 把发送记录到负责 eventTag 的总线上：作用域总线发送的全局事件记录在父总线的指标和诊断中。
+     *
+     * @param fanOut 接受事件的注册者数量，为 0 表示死事件
+     */
+    private void recordPosts(@NonNull String eventTag, int fanOut, int count) {
+        ViewModelEventBus eventBus = route(eventTag);
+        EventBusMetrics metrics = eventBus.mMetrics;
+        if (metrics != null) {
+            metrics.recordPosts(eventTag, fanOut, count);
+        }
+        EventBusDiagnostics diagnostics = eventBus.mDiagnostics;
+        if (diagnostics != null && fanOut == 0) {
+            diagnostics.recordDeadEvent(eventTag, count);
+        }
+    }
+
+    /**
+     * 把注册者的指标设置到命令上，metrics 为 null 时移除。必须在 mLock 锁中调用。
+     */
+    private static void attachMetrics(@Nullable EventBusMetrics metrics, @NonNull Subscription subscription) {
+        ViewModelCommand command = subscription.getCommand();
+        if (command != null) {
+            command.mMetrics = metrics != null ?
+                    metrics.forSubscriber(subscription.mEventKey.getEventTag(), subscription.mViewModelClass) : null;
+        }
+    }
+
+    /**
+     * 把注册者的诊断设置到命令上，diagnostics 为 null 时移除。必须在 mLock 锁中调用。
+     */
+    private static void attachDiagnostics(@Nullable EventBusDiagnostics diagnostics,
+                                          @NonNull Subscription subscription) {
+        ViewModelCommand command = subscription.getCommand();
+        if (command != null) {
+            command.mDiagnostics = diagnostics != null ?
+                    diagnostics.forSubscriber(subscription.mViewModelClass) : null;
+        }
+    }
+
+    @NonNull
+    private static <E> AtomicReferenceArray<E> grow(@NonNull AtomicReferenceArray<E> array, int id) {
+        AtomicReferenceArray<E> newArray = new AtomicReferenceArray<>(Math.max(id + 1, array.length() * 2));
+        for (int i = 0; i < array.length(); i++) {
+            newArray.set(i, array.get(i));
+        }
+
+        return newArray;
+    }
+
+
+    private static final class ResponderRegistration {
+
+        /**
+         * 请求的 {@link EventKey} 的 id。
+         */
+        final int mId;
+        final ViewModelResponder mResponder;
+        final Class mReplyClass;
+
+
+        ResponderRegistration(int id, @NonNull ViewModelResponder responder, @NonNull Class replyClass) {
+            mId = id;
+            mResponder = responder;
+            mReplyClass = replyClass;
+        }
+    }
+
+    /**
+     * 定时发送事件的任务，在定时器线程中运行。
+     */
+    private static final class DelayedPost implements Runnable {
+
+        final ViewModelEventBus mEventBus;
+        final String mEventTag;
+        @Nullable
+        final Object mData;
+        volatile ScheduledEvent mScheduledEvent;
+
+
+        DelayedPost(@NonNull ViewModelEventBus eventBus, @NonNull String eventTag, @Nullable Object data) {
+            mEventBus = eventBus;
+            mEventTag = eventTag;
+            mData = data;
+        }
+
+
+        @Override
+        public void run() {
+            if (mEventBus.mDestroyed) {
+                // 作用域已经销毁，周期性的定时任务也不再需要
+                ScheduledEvent scheduledEvent = mScheduledEvent;
+                if (scheduledEvent != null) {
+                    scheduledEvent.cancel();
+                }
+                return;
+            }
+
+            if (mData == null) {
+                mEventBus.post(mEventTag);
+            } else {
+                mEventBus.post(mEventTag, mData);
+            }
+        }
+    }
+
+    private static final class ResolvedSubscriptions {
+
+        final int mVersion;
+        @Nullable
+        final Subscription[] mSubscriptions;
+        /**
+         * 只有 mResolvedTags 中的缓存项才有，用来校验槽位中的键。
+         */
+        @Nullable
+        final String mEventTag;
+        @Nullable
+        final Class mDataClass;
+
+
+        ResolvedSubscriptions(int version, @Nullable Subscription[] subscriptions) {
+            this(version, subscriptions, null, null);
+        }
+
+        ResolvedSubscriptions(int version,
+                              @Nullable Subscription[] subscriptions,
+                              @Nullable String eventTag,
+                              @Nullable Class dataClass) {
+            mVersion = version;
+            mSubscriptions = subscriptions;
+            mEventTag = eventTag;
+            mDataClass = dataClass;
+        }
+    }
+
+    private static final class Holder {
+        private static final ViewModelEventBus INSTANCE = new ViewModelEventBus();
     }
 }
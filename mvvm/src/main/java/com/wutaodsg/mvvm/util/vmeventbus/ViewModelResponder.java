@@ -0,0 +1,73 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.wutaodsg.mvvm.command.Function1;
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+
+/**
+ * ViewModel 的应答者，与 {@link com.wutaodsg.mvvm.command.ResponseCommand} 类似，
+ * 它接受一个请求并返回应答。
+ * <p>
+ * 通过 {@link ViewModelEventBus#registerResponder(String, Class, Class, ViewModelResponder)} 注册之后，
+ * 其他 ViewModel 就可以使用 {@link ViewModelEventBus#query(String, Object, Class)} 向它请求数据，
+ * 而不需要再为应答额外注册一个事件标志。
+ * <p>
+ * 可以在构造阶段提供 {@link ViewModelScheduler} 提供应答运行的线程环境。
+ * 如果不提供，那么应答将会运行在请求者的线程环境中。
+ * <p>
+ * 泛型 T 表示请求的类型，泛型 R 表示应答的类型。
+ */
+
+public class ViewModelResponder<T, R> {
+
+    private BaseViewModel mViewModel;
+    private Function1<T, R> mResponse;
+    private ViewModelScheduler mViewModelScheduler;
+
+
+    public ViewModelResponder(@NonNull BaseViewModel viewModel,
+                              @NonNull Function1<T, R> response,
+                              @Nullable ViewModelScheduler viewModelScheduler) {
+        mViewModel = viewModel;
+        mResponse = response;
+        mViewModelScheduler = viewModelScheduler;
+    }
+
+    public ViewModelResponder(@NonNull BaseViewModel viewModel,
+                              @NonNull Function1<T, R> response) {
+        this(viewModel, response, null);
+    }
+
+
+    @NonNull
+    public BaseViewModel getViewModel() {
+        return mViewModel;
+    }
+
+    @Nullable
+    public ViewModelScheduler getViewModelScheduler() {
+        return mViewModelScheduler;
+    }
+
+    /**
+     * 在当前线程中应答一个请求。
+     *
+     * @param request 请求
+     * @return 应答，应答者已经被清除时返回 null
+     */
+    @Nullable
+    public R respond(@NonNull T request) {
+        Function1<T, R> response = mResponse;
+
+        return response != null ? response.call(request) : null;
+    }
+
+    public void clear() {
+        mViewModel = null;
+        mResponse = null;
+        mViewModelScheduler = null;
+    }
+}
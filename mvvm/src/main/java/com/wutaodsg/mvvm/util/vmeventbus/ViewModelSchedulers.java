@@ -6,36 +6,33 @@ import android.support.annotation.NonNull;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 封装多种 {@link ViewModelScheduler} 的实现，提供不同种类的线程环境：
  * <p>
- * 1. {@link #computation()}：专门为计算提供的 ViewModelScheduler，不要把 I/O 操作放在 computation() 中，否则 I/O 等待的时间会浪费 CPU。<br/>
+ * 1. {@link #computation()}：专门为计算提供的 ViewModelScheduler，不要把 I/O 操作放在 computation() 中，否则 I/O 等待的时间会浪费 CPU。
+ * 它的线程数量等于 CPU 数量，在支持的系统上使用工作窃取的线程池；需要并行的 map/forEach 时使用 {@link #computationPool()}。<br/>
  * 2. {@link #io()}：专门为 IO 提供的 ViewModelScheduler。不要把计算工作放在 io() 中，可以避免创建不必要的线程。<br/>
  * 3. {@link #single()}：只有一个线程的 ViewModelScheduler，它会把所有任务放在一个线程中调度。<br/>
+ * 4. {@link #mainThread()}：运行在主线程中的 ViewModelScheduler。<br/>
+ * 5. {@link #idle()}：在主线程空闲时才运行任务的 ViewModelScheduler，适合不紧急的工作。<br/>
  * <p>
  * 此外，ViewModelSchedulers 还提供了 {@link #from(Executor)} 和 {@link #from(Handler)} 来使得
  * 你能够定制自己的 ViewModelScheduler。
+ * <p>
+ * computation() 和 io() 中连续调度的任务可能在不同的线程中并发运行，通过 {@link #serial(ViewModelScheduler)}
+ * 可以在它们之上创建一条串行通道，让任务按照调度的顺序依次运行。
  */
 
 public class ViewModelSchedulers {
 
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
-    private static final int COMPUTATION_CORE_POOL_SIZE = CPU_COUNT + 1;
-    private static final int COMPUTATION_MAXIMUM_POOL_SIZE = COMPUTATION_CORE_POOL_SIZE * 2 + 1;
-    private static final long COMPUTATION_KEEP_ALIVE = 10;
-
 
-    private static final ViewModelScheduler mComputationSchedulers = new ExecutorViewModelScheduler(new
-            ThreadPoolExecutor(
-            COMPUTATION_CORE_POOL_SIZE, COMPUTATION_MAXIMUM_POOL_SIZE, COMPUTATION_KEEP_ALIVE, TimeUnit.SECONDS,
-            new LinkedBlockingDeque<Runnable>(), new NameThreadFactory("computation")));
+    private static final ComputationViewModelScheduler mComputationSchedulers = new ComputationViewModelScheduler(
+            CPU_COUNT, "computation");
     private static final ViewModelScheduler mIOSchedulers = new ExecutorViewModelScheduler(Executors.newCachedThreadPool
             (new NameThreadFactory("io")));
     private static final ViewModelScheduler mSingleSchedulers = new ExecutorViewModelScheduler(Executors
@@ -45,12 +42,22 @@ public class ViewModelSchedulers {
     private static final ViewModelScheduler mAndroidMainSchedulers = new AndroidViewModelScheduler(Looper
             .getMainLooper(),
             "main thread");
+    private static final ViewModelScheduler mAndroidIdleSchedulers = new IdleViewModelScheduler(Looper
+            .getMainLooper());
 
 
     public static ViewModelScheduler computation() {
         return mComputationSchedulers;
     }
 
+    /**
+     * 返回 {@link #computation()} 背后的 {@link ComputationViewModelScheduler}，它与 computation() 是同一个对象，
+     * 还可以把一个大的转换拆分到多个 CPU 上并行运行。
+     */
+    public static ComputationViewModelScheduler computationPool() {
+        return mComputationSchedulers;
+    }
+
     public static ViewModelScheduler io() {
         return mIOSchedulers;
     }
@@ -63,6 +70,10 @@ public class ViewModelSchedulers {
         return mAndroidMainSchedulers;
     }
 
+    public static ViewModelScheduler idle() {
+        return mAndroidIdleSchedulers;
+    }
+
     public static ViewModelScheduler from(@NonNull Executor executor) {
         return new ExecutorViewModelScheduler(executor);
     }
@@ -71,8 +82,28 @@ public class ViewModelSchedulers {
         return new AndroidViewModelScheduler(handler, handler.getLooper().getThread().getName());
     }
 
+    /**
+     * 返回一个按照调度顺序依次运行任务的 ViewModelScheduler，参见 {@link SerialViewModelScheduler}。
+     * <p>
+     * 如果 viewModelScheduler 本身就是串行的（比如 {@link #mainThread()}、{@link #single()}），
+     * 直接返回它；否则每次调用都会创建一条新的串行通道。
+     *
+     * @param viewModelScheduler 底层的 ViewModelScheduler
+     * @return 串行的 ViewModelScheduler
+     */
+    public static ViewModelScheduler serial(@NonNull ViewModelScheduler viewModelScheduler) {
+        if (viewModelScheduler == mSingleSchedulers ||
+                viewModelScheduler instanceof SerialViewModelScheduler ||
+                viewModelScheduler instanceof AndroidViewModelScheduler ||
+                viewModelScheduler instanceof IdleViewModelScheduler) {
+            return viewModelScheduler;
+        }
+
+        return new SerialViewModelScheduler(viewModelScheduler);
+    }
+
 
-    private static class NameThreadFactory implements ThreadFactory {
+    static class NameThreadFactory implements ThreadFactory {
 
         private String mName;
 
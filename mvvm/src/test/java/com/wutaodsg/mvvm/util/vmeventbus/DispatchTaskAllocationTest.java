@@ -0,0 +1,97 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import com.wutaodsg.mvvm.command.Action1;
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证通过 {@link ViewModelScheduler} 调度的事件投递在稳定状态下不会分配对象。
+ */
+public class DispatchTaskAllocationTest {
+
+    private static final String TAG = "dispatch_task_allocation_test";
+    private static final String DATA = "data";
+
+    private static final int WARM_UP_POSTS = 20000;
+    private static final int MEASURED_POSTS = 10000;
+    /**
+     * ThreadMXBean 自身偶尔产生的少量分配，远小于每次发送分配一个对象的 {@link #MEASURED_POSTS} * 16 字节。
+     */
+    private static final long MEASUREMENT_NOISE_BYTES = 256;
+
+
+    private final EventKey<String> mEventKey = EventKey.of(TAG, String.class);
+    private final BaseViewModel mViewModel = new BaseViewModel();
+
+    private int mReceived;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // 直接在发布事件者的线程中运行任务，任务运行后立即回到回收池
+        ViewModelScheduler scheduler = new ExecutorViewModelScheduler(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        ViewModelEventBus.getInstance().register(mEventKey, new ViewModelCommand<>(mViewModel,
+                new Action1<String>() {
+                    @Override
+                    public void execute(String s) {
+                        mReceived++;
+                    }
+                }, scheduler));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ViewModelEventBus.getInstance().unregisterAll(mViewModel);
+    }
+
+    @Test
+    public void scheduledPost_allocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_POSTS; i++) {
+            ViewModelEventBus.getInstance().post(mEventKey, DATA);
+        }
+
+        // 测量方法本身可能有少量分配，先测出它的开销
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_POSTS; i++) {
+            ViewModelEventBus.getInstance().post(mEventKey, DATA);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(WARM_UP_POSTS + MEASURED_POSTS, mReceived);
+        assertTrue("bytes allocated by " + MEASURED_POSTS + " posts: " + allocated,
+                allocated <= MEASUREMENT_NOISE_BYTES);
+    }
+
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        assertTrue(threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        return threadMXBean;
+    }
+}
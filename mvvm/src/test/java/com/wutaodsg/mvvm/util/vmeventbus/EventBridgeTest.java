@@ -0,0 +1,226 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import com.wutaodsg.mvvm.command.Action1;
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在普通的 JVM 中通过一对 TCP 套接字验证 {@link EventBridge#start(java.io.InputStream, java.io.OutputStream,
+ * java.io.Closeable)}：测试自己扮演另一个进程，直接读写帧。
+ */
+public class EventBridgeTest {
+
+    private static final String TAG = "event_bridge_test.message";
+    private static final String OTHER_TAG = "event_bridge_test.other";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TIMEOUT_MILLIS = 2000;
+
+
+    private final BaseViewModel mViewModel = new BaseViewModel();
+    private final List<String> mReceived = new CopyOnWriteArrayList<>();
+
+    private EventBridge mEventBridge;
+    private Socket mSocket;
+    private Socket mPeer;
+    private DataInputStream mPeerIn;
+    private DataOutputStream mPeerOut;
+
+
+    @Before
+    public void setUp() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            mSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            mPeer = serverSocket.accept();
+        } finally {
+            serverSocket.close();
+        }
+        mPeer.setSoTimeout(TIMEOUT_MILLIS);
+        mPeerIn = new DataInputStream(mPeer.getInputStream());
+        mPeerOut = new DataOutputStream(mPeer.getOutputStream());
+
+        mEventBridge = new EventBridge()
+                .forward(TAG, String.class, new StringSerializer())
+                .forward(OTHER_TAG, Integer.class, new FailingSerializer());
+        mEventBridge.start(mSocket.getInputStream(), mSocket.getOutputStream(), mSocket);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mEventBridge.close();
+        mPeer.close();
+        ViewModelEventBus.getInstance().unregisterAll(mViewModel);
+    }
+
+
+    @Test
+    public void postedEvent_isWrittenAsOneFrame() throws Exception {
+        // 数据类型不同、没有转发的 event tag 都不会被写出
+        ViewModelEventBus.getInstance().post(TAG, 42);
+        ViewModelEventBus.getInstance().post(OTHER_TAG, "ignored");
+        ViewModelEventBus.getInstance().post(TAG, "hello");
+
+        int length = mPeerIn.readInt();
+        byte[] frame = new byte[length];
+        mPeerIn.readFully(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertEquals(TAG, readString(buffer));
+        assertEquals(String.class.getName(), readString(buffer));
+        assertEquals("hello", new String(frame, buffer.position(), buffer.remaining(), UTF_8));
+    }
+
+    @Test
+    public void receivedEvent_isPostedButNotEchoed() throws Exception {
+        CountDownLatch received = subscribe(1);
+
+        writeFrame(TAG, String.class.getName(), "from peer");
+        assertTrue(received.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("from peer", mReceived.get(0));
+
+        // 如果收到的事件被转发回去，它会排在这个事件之前
+        ViewModelEventBus.getInstance().post(TAG, "local");
+        assertEquals("local", readPayload());
+    }
+
+    @Test
+    public void unknownClassName_isSkipped() throws Exception {
+        CountDownLatch received = subscribe(1);
+
+        writeFrame(TAG, "com.example.Missing", "unknown");
+        writeFrame(TAG, String.class.getName(), "known");
+        assertTrue(received.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, mReceived.size());
+        assertEquals("known", mReceived.get(0));
+        assertFalse(mEventBridge.isClosed());
+    }
+
+    @Test
+    public void failingSerializer_dropsFrameButDeliversLocally() throws Exception {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        ViewModelEventBus.getInstance().subscribe(OTHER_TAG, Integer.class, new ViewModelCommand<>(mViewModel,
+                new Action1<Integer>() {
+                    @Override
+                    public void execute(Integer i) {
+                        received.add(i);
+                    }
+                }));
+
+        ViewModelEventBus.getInstance().post(OTHER_TAG, 7);
+        assertEquals(1, received.size());
+
+        // 失败的帧被丢弃，之后的帧照常写出
+        ViewModelEventBus.getInstance().post(TAG, "after");
+        assertEquals("after", readPayload());
+    }
+
+    @Test
+    public void peerClose_closesBridge() throws Exception {
+        mPeer.close();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!mEventBridge.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(mEventBridge.isClosed());
+        assertTrue(mSocket.isClosed());
+
+        // 关闭之后发送事件不会有任何影响
+        ViewModelEventBus.getInstance().post(TAG, "after close");
+    }
+
+
+    private CountDownLatch subscribe(int count) {
+        final CountDownLatch latch = new CountDownLatch(count);
+        ViewModelEventBus.getInstance().subscribe(TAG, String.class, new ViewModelCommand<>(mViewModel,
+                new Action1<String>() {
+                    @Override
+                    public void execute(String s) {
+                        mReceived.add(s);
+                        latch.countDown();
+                    }
+                }));
+
+        return latch;
+    }
+
+    private void writeFrame(String eventTag, String className, String payload) throws IOException {
+        byte[] eventTagBytes = eventTag.getBytes(UTF_8);
+        byte[] classNameBytes = className.getBytes(UTF_8);
+        byte[] payloadBytes = payload.getBytes(UTF_8);
+        mPeerOut.writeInt(2 + eventTagBytes.length + 2 + classNameBytes.length + payloadBytes.length);
+        mPeerOut.writeShort(eventTagBytes.length);
+        mPeerOut.write(eventTagBytes);
+        mPeerOut.writeShort(classNameBytes.length);
+        mPeerOut.write(classNameBytes);
+        mPeerOut.write(payloadBytes);
+        mPeerOut.flush();
+    }
+
+    private String readPayload() throws IOException {
+        byte[] frame = new byte[mPeerIn.readInt()];
+        mPeerIn.readFully(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        readString(buffer);
+        readString(buffer);
+
+        return new String(frame, buffer.position(), buffer.remaining(), UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+
+        return value;
+    }
+
+
+    private static final class StringSerializer implements EventSerializer<String> {
+
+        @Override
+        public byte[] serialize(String data) {
+            return data.getBytes(UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, UTF_8);
+        }
+    }
+
+    private static final class FailingSerializer implements EventSerializer<Integer> {
+
+        @Override
+        public byte[] serialize(Integer data) {
+            throw new IllegalStateException("cannot serialize " + data);
+        }
+
+        @Override
+        public Integer deserialize(byte[] bytes, int offset, int length) {
+            throw new IllegalStateException("cannot deserialize");
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import com.wutaodsg.mvvm.command.Action1;
+import com.wutaodsg.mvvm.command.Function1;
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在临时目录中验证 {@link EventJournal} 和 {@link JournalSegment} 的追加、重放、损坏记录的处理和压缩。
+ * <p>
+ * 事件数据是 "key=value" 形式的字符串，key 是等号之前的部分。
+ */
+public class EventJournalTest {
+
+    private static final String TAG = "journal_test.state";
+    private static final String SINGLE_TAG = "journal_test.single";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SEGMENT_SIZE = 4096;
+    /**
+     * 足够大，测试中不会在 IO 线程中自动压缩。
+     */
+    private static final int MAX_SEGMENTS = 1000;
+
+
+    private File mDirectory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("event-journal", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+
+    @Test
+    public void reopen_replaysLatestRecordPerKey() throws Exception {
+        append(SEGMENT_SIZE, TAG, "a=1", "b=1", "a=2", "c=1", "b=2");
+        append(SEGMENT_SIZE, SINGLE_TAG, "first", "second");
+
+        // 相同 key 的记录只保留最新的一条，按照最后写入的顺序排列
+        assertEquals(Arrays.asList("a=2", "c=1", "b=2"), replay(SEGMENT_SIZE, TAG));
+        assertEquals(Arrays.asList("second"), replay(SEGMENT_SIZE, SINGLE_TAG));
+    }
+
+    @Test
+    public void corruptedTailRecord_isIgnored() throws Exception {
+        append(SEGMENT_SIZE, TAG, "a=1", "b=1");
+        File segment = onlySegment();
+        long tail = lastRecordOffset(segment);
+
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // 修改记录体的最后一个字节，校验和不再匹配
+            file.seek(tail);
+            int length = file.readInt();
+            long lastByte = tail + JournalSegment.RECORD_HEADER_SIZE + length - 1;
+            file.seek(lastByte);
+            int value = file.read();
+            file.seek(lastByte);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(Arrays.asList("a=1"), replay(SEGMENT_SIZE, TAG));
+    }
+
+    @Test
+    public void truncatedTailRecord_isIgnored() throws Exception {
+        append(SEGMENT_SIZE, TAG, "a=1", "b=1");
+        File segment = onlySegment();
+        long tail = lastRecordOffset(segment);
+
+        // 模拟写到一半时文件被截断
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(tail + JournalSegment.RECORD_HEADER_SIZE + 3);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(Arrays.asList("a=1"), replay(SEGMENT_SIZE, TAG));
+    }
+
+    @Test
+    public void compaction_keepsReplayResult() throws Exception {
+        // 很小的日志段，写入时会切换多次
+        int segmentSize = 128;
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            events.add("k" + (i % 7) + "=" + i);
+        }
+        append(segmentSize, TAG, events.toArray(new String[events.size()]));
+        List<String> expected = replay(segmentSize, TAG);
+        int segmentsBefore = segmentFiles().length;
+        assertTrue(segmentsBefore > 2);
+
+        EventJournal journal = newJournal(segmentSize);
+        ViewModelEventBus scope = ViewModelEventBus.getInstance().newScope(TAG);
+        journal.open(scope);
+        journal.compact();
+        journal.close();
+        scope.destroy();
+
+        assertTrue(segmentFiles().length < segmentsBefore);
+        assertEquals(expected, replay(segmentSize, TAG));
+    }
+
+    @Test
+    public void leftoverTempFile_isDeletedOnOpen() throws Exception {
+        append(SEGMENT_SIZE, TAG, "a=1");
+        File temp = new File(mDirectory, onlySegment().getName() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            file.write(new byte[]{1, 2, 3});
+        } finally {
+            file.close();
+        }
+
+        assertEquals(Arrays.asList("a=1"), replay(SEGMENT_SIZE, TAG));
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void failingKeySelector_dropsOnlyThatRecord() throws Exception {
+        EventJournal journal = new EventJournal(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS)
+                .journal(TAG, String.class, new StringSerializer(), new Function1<String, String>() {
+                    @Override
+                    public String call(String data) {
+                        if (data.equals("null")) {
+                            return null;
+                        }
+                        if (data.equals("throw")) {
+                            throw new IllegalArgumentException(data);
+                        }
+                        return data;
+                    }
+                });
+        ViewModelEventBus scope = ViewModelEventBus.getInstance().newScope(TAG);
+        journal.open(scope);
+        journal.append(TAG, "null");
+        journal.append(TAG, "throw");
+        journal.append(TAG, "kept");
+        journal.close();
+        scope.destroy();
+
+        assertEquals(Arrays.asList("kept"), replay(SEGMENT_SIZE, TAG));
+    }
+
+
+    private EventJournal newJournal(int segmentSize) {
+        return new EventJournal(mDirectory, segmentSize, MAX_SEGMENTS)
+                .journal(TAG, String.class, new StringSerializer(), new Function1<String, String>() {
+                    @Override
+                    public String call(String data) {
+                        return data.substring(0, data.indexOf('='));
+                    }
+                })
+                .journal(SINGLE_TAG, String.class, new StringSerializer());
+    }
+
+    /**
+     * 打开日志，在 eventTag 下追加 events，然后关闭。
+     */
+    private void append(int segmentSize, String eventTag, String... events) throws IOException {
+        EventJournal journal = newJournal(segmentSize);
+        ViewModelEventBus scope = ViewModelEventBus.getInstance().newScope(TAG, SINGLE_TAG);
+        journal.open(scope);
+        for (String event : events) {
+            journal.append(eventTag, event);
+        }
+        journal.close();
+        scope.destroy();
+    }
+
+    /**
+     * 重新打开日志，返回 eventTag 下重放的事件。
+     */
+    private List<String> replay(int segmentSize, String eventTag) throws IOException {
+        final List<String> replayed = new ArrayList<>();
+        ViewModelEventBus scope = ViewModelEventBus.getInstance().newScope(TAG, SINGLE_TAG);
+        scope.subscribe(eventTag, String.class, new ViewModelCommand<>(new BaseViewModel(),
+                new Action1<String>() {
+                    @Override
+                    public void execute(String s) {
+                        replayed.add(s);
+                    }
+                }));
+
+        EventJournal journal = newJournal(segmentSize);
+        journal.open(scope);
+        journal.close();
+        scope.destroy();
+
+        return replayed;
+    }
+
+    private File[] segmentFiles() {
+        File[] files = mDirectory.listFiles();
+        List<File> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".seg")) {
+                    segments.add(file);
+                }
+            }
+        }
+
+        return segments.toArray(new File[segments.size()]);
+    }
+
+    /**
+     * 返回唯一一个有记录的日志段，每次打开日志都会新建一个空的日志段。
+     */
+    private File onlySegment() throws IOException {
+        File found = null;
+        for (File segment : segmentFiles()) {
+            if (lastRecordOffset(segment) >= 0) {
+                assertTrue("more than one segment has records", found == null);
+                found = segment;
+            }
+        }
+        assertTrue("no segment has records", found != null);
+
+        return found;
+    }
+
+    /**
+     * 按照 {@link JournalSegment} 的格式遍历记录，返回最后一条记录的起始位置，没有记录时返回 -1。
+     */
+    private static long lastRecordOffset(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            long last = -1;
+            long position = JournalSegment.HEADER_SIZE;
+            while (position + JournalSegment.RECORD_HEADER_SIZE <= file.length()) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length <= 0) {
+                    break;
+                }
+                last = position;
+                position += JournalSegment.RECORD_HEADER_SIZE + length;
+            }
+
+            return last;
+        } finally {
+            file.close();
+        }
+    }
+
+
+    private static final class StringSerializer implements EventSerializer<String> {
+
+        @Override
+        public byte[] serialize(String data) {
+            return data.getBytes(UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, UTF_8);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.wutaodsg.mvvm.util.vmeventbus;
+
+import com.wutaodsg.mvvm.command.Action0;
+import com.wutaodsg.mvvm.core.BaseViewModel;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证 {@link TimerWheel} 和 {@link ScheduledEvent} 的触发、取消和周期调度。
+ * <p>
+ * 除了最后一个测试，都使用单独的小时间轮（1 毫秒一格、8 个桶，一圈只有 8 毫秒），
+ * 这样不需要等待 512 * 10 毫秒就能覆盖超过一圈的定时任务。
+ */
+public class TimerWheelTest {
+
+    private static final long TICK_MILLIS = 1;
+    private static final int WHEEL_SIZE = 8;
+
+    /**
+     * 等待定时任务触发的最长时间，远大于任何一个测试中的延迟。
+     */
+    private static final long TIMEOUT_MILLIS = 2000;
+
+
+    private final TimerWheel mTimerWheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS), WHEEL_SIZE);
+
+
+    @Test
+    public void delayShorterThanOneTick_firesOnTheNextTick() throws Exception {
+        TimerWheel timerWheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TimerWheel.TICK_MILLIS),
+                TimerWheel.WHEEL_SIZE);
+        final CountDownLatch fired = new CountDownLatch(1);
+        ScheduledEvent scheduledEvent = timerWheel.schedule(countDown(fired), TimeUnit.MICROSECONDS.toNanos(100));
+
+        assertTrue("a delay shorter than one tick never fired",
+                fired.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(scheduledEvent.isExpired());
+        assertFalse(scheduledEvent.cancel());
+    }
+
+    @Test
+    public void delayLongerThanOneRound_doesNotFireEarly() throws Exception {
+        // 200 毫秒是 25 圈，和 2 毫秒的定时任务落在同一个桶中
+        long longDelayMillis = 200;
+        long shortDelayMillis = 2;
+        final CountDownLatch fired = new CountDownLatch(2);
+        final AtomicLong longFiredAt = new AtomicLong();
+        final AtomicLong shortFiredAt = new AtomicLong();
+        long start = System.nanoTime();
+        mTimerWheel.schedule(recordTime(longFiredAt, fired), TimeUnit.MILLISECONDS.toNanos(longDelayMillis));
+        mTimerWheel.schedule(recordTime(shortFiredAt, fired), TimeUnit.MILLISECONDS.toNanos(shortDelayMillis));
+
+        assertTrue(fired.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue("multi-round timer fired early",
+                longFiredAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(longDelayMillis));
+        assertTrue(shortFiredAt.get() < longFiredAt.get());
+    }
+
+    @Test
+    public void cancelBeforeFire_neverRuns() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        ScheduledEvent scheduledEvent = mTimerWheel.schedule(increment(runs), TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertTrue(scheduledEvent.cancel());
+        assertFalse(scheduledEvent.cancel());
+        assertTrue(scheduledEvent.isCancelled());
+
+        // 一个之后的定时任务触发时，被取消的定时任务早就到期了
+        CountDownLatch later = new CountDownLatch(1);
+        mTimerWheel.schedule(countDown(later), TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(later.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, runs.get());
+        assertFalse(scheduledEvent.isExpired());
+    }
+
+    @Test
+    public void periodic_reschedulesUntilCancelled() throws Exception {
+        final int expectedRuns = 5;
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(expectedRuns);
+        final ScheduledEvent[] holder = new ScheduledEvent[1];
+        final CountDownLatch scheduled = new CountDownLatch(1);
+        holder[0] = mTimerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                awaitQuietly(scheduled);
+                if (runs.incrementAndGet() == expectedRuns) {
+                    // 在任务中取消自己，之后不应该再被放回时间轮
+                    holder[0].cancel();
+                }
+                done.countDown();
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(5), TimeUnit.MILLISECONDS.toNanos(5));
+        scheduled.countDown();
+
+        assertTrue(done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(holder[0].isPeriodic());
+        assertFalse(holder[0].isExpired());
+
+        Thread.sleep(50);
+        assertEquals(expectedRuns, runs.get());
+    }
+
+    @Test
+    public void periodicPostOnScope_cancelsItselfAfterDestroy() throws Exception {
+        String eventTag = "timer_wheel_test.tick";
+        ViewModelEventBus scope = ViewModelEventBus.getInstance().newScope(eventTag);
+        final AtomicInteger received = new AtomicInteger();
+        final CountDownLatch twice = new CountDownLatch(2);
+        scope.subscribe(eventTag, new ViewModelCommand(new BaseViewModel(), new Action0() {
+            @Override
+            public void execute() {
+                received.incrementAndGet();
+                twice.countDown();
+            }
+        }));
+
+        ScheduledEvent scheduledEvent = scope.postPeriodically(eventTag, 0, TimerWheel.TICK_MILLIS);
+        assertTrue(twice.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        scope.destroy();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!scheduledEvent.isCancelled() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(TimerWheel.TICK_MILLIS);
+        }
+        assertTrue("periodic post kept running after its scope was destroyed", scheduledEvent.isCancelled());
+
+        int afterCancel = received.get();
+        Thread.sleep(TimerWheel.TICK_MILLIS * 5);
+        assertEquals(afterCancel, received.get());
+    }
+
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static Runnable increment(final AtomicInteger counter) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                counter.incrementAndGet();
+            }
+        };
+    }
+
+    private static Runnable recordTime(final AtomicLong firedAt, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                firedAt.set(System.nanoTime());
+                latch.countDown();
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}